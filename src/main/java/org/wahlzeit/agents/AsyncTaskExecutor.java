@@ -19,6 +19,11 @@ public class AsyncTaskExecutor {
 
 	private static final Logger log = Logger.getLogger(AsyncTaskExecutor.class.getName());
 
+	/**
+	 * Number of times a failed task to process an upload is retried
+	 */
+	public static final int UPLOAD_TASK_RETRY_LIMIT = 3;
+
 	/**
 	 * @methodtype command
 	 *
@@ -30,4 +35,17 @@ public class AsyncTaskExecutor {
 		RetryOptions retryOptions = withTaskRetryLimit(3);
 		queue.add(TaskOptions.Builder.withUrl("/persistPhoto").param(Photo.ID, photoId).retryOptions(retryOptions));
 	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts a task in the default queue to process the upload job with the specified ID.
+	 */
+	public static void processUploadAsync(Long jobId) {
+		log.info("Calling async push task to process upload job " + jobId);
+		Queue queue = QueueFactory.getDefaultQueue();
+		RetryOptions retryOptions = withTaskRetryLimit(UPLOAD_TASK_RETRY_LIMIT);
+		queue.add(TaskOptions.Builder.withUrl("/processUpload").param(ProcessUploadAgent.JOB_ID, String.valueOf(jobId)).
+				retryOptions(retryOptions));
+	}
 }
@@ -0,0 +1,29 @@
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.UploadJobManager;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.logging.Logger;
+
+/**
+ * An agent class to delete old upload jobs and the uploaded images they left behind.
+ */
+public class ExpireUploadJobsAgent extends Agent {
+
+	public static final String NAME = "expireUploadJobs";
+
+	private static final Logger log = Logger.getLogger(ExpireUploadJobsAgent.class.getName());
+
+	public ExpireUploadJobsAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		int noDeletedJobs = UploadJobManager.getInstance().deleteExpiredJobs();
+		log.config(LogBuilder.createSystemMessage().addParameter("expired upload jobs", noDeletedJobs).toString());
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.UploadJobManager;
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Servlet to process an uploaded photo in the background, called by the task queue.
+ * As it has nothing to do with <code>UserSession</code> or UI, it
+ * is not implemented as a Handler or a child of <code>AbstractServlet</code>.
+ */
+public class ProcessUploadAgent extends HttpServlet {
+
+	private static final Logger log = Logger.getLogger(ProcessUploadAgent.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String JOB_ID = "jobId";
+
+	/**
+	 * Header in which the task queue passes the number of earlier attempts
+	 */
+	public static final String TASK_RETRY_COUNT_HEADER = "X-AppEngine-TaskRetryCount";
+
+	/**
+	 * Failures that may pass are rethrown by the UploadJobManager, so the task queue retries the task, unless it is
+	 * the last attempt.
+	 *
+	 * @methodtype command
+	 */
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		String id = request.getParameter(JOB_ID);
+		log.config(LogBuilder.createSystemMessage().addParameter("Try to process upload job", id).toString());
+		try {
+			UploadJobManager.getInstance().processJob(Long.valueOf(id), isLastAttempt(request));
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			log.warning(LogBuilder.createSystemMessage().addException("invalid upload job", e).toString());
+			response.setStatus(299); // do not retry
+			return;
+		}
+		response.setStatus(200);
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean isLastAttempt(HttpServletRequest request) {
+		String retryCount = request.getHeader(TASK_RETRY_COUNT_HEADER);
+		try {
+			return retryCount != null && Integer.parseInt(retryCount) >= AsyncTaskExecutor.UPLOAD_TASK_RETRY_LIMIT;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+}
@@ -25,6 +25,7 @@ import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
 import org.wahlzeit.model.PhotoCaseManager;
 import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoStatus;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
@@ -98,6 +99,7 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 		}
 
 		photo.setStatus(status);
+		PhotoManager.getInstance().savePhoto(photo);
 
 		log.info(LogBuilder.createUserMessage().
 				addAction("EditPhotoCase").
@@ -44,6 +44,7 @@ public interface PartUtil {
 	String BLURP_INFO_FILE = "infos/BlurpInfo";
 	String PHOTO_INFO_FILE = "infos/PhotoInfo";
 	String LINKS_INFO_FILE = "infos/LinksInfo";
+	String POPULAR_TAGS_INFO_FILE = "infos/PopularTagsInfo";
 	String BANNER_INFO_FILE = "infos/BannerInfo";
 	String FILTER_PHOTOS_FORM_NAME = "filterPhotosForm";
 	String FILTER_PHOTOS_FORM_FILE = "forms/FilterPhotosForm";
@@ -24,9 +24,12 @@ import org.wahlzeit.main.ServiceMain;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoWarmUp;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.model.persistence.ImageCache;
+import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
@@ -55,6 +58,13 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	protected void makeWebPageBody(UserSession us, WebPart page) {
 		Map args = us.getSavedArgs();
 		page.addStringFromArgs(args, UserSession.MESSAGE);
+		page.addString("warmUp", makeWarmUpStatus());
+		page.addString("photoCache", PhotoManager.getInstance().getPhotoCacheStats().asString());
+		page.addString("imageCache", ImageCache.getInstance().getStats().asString() + ", too large: " +
+				ImageCache.getInstance().getNoRejectedImages());
+		page.addString("imageStorage", ImageStorage.getInstance().asString());
+		page.addString("photoSaves", PhotoManager.getInstance().getNoPhotoSaves() + " saves, " +
+				PhotoManager.getInstance().getNoPhotoSaveCalls() + " datastore calls");
 
 		Object userId = us.getSavedArg("userId");
 		if (!StringUtil.isNullOrEmptyString(userId)) {
@@ -69,6 +79,14 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 		}
 	}
 
+	/**
+	 *
+	 */
+	protected String makeWarmUpStatus() {
+		PhotoWarmUp warmUp = PhotoManager.getInstance().getWarmUp();
+		return (warmUp == null) ? PhotoWarmUp.State.NOT_STARTED.toString() : warmUp.asString();
+	}
+
 	/**
 	 *
 	 */
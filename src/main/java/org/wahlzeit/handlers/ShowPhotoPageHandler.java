@@ -27,13 +27,16 @@ import org.wahlzeit.model.PhotoFilter;
 import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.PhotoTagIndex;
 import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.TermStatistics;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,6 +44,11 @@ import java.util.Map;
  */
 public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebFormHandler {
 
+	/**
+	 *
+	 */
+	public static final int NO_POPULAR_TAGS = 20;
+
 	/**
 	 *
 	 */
@@ -135,6 +143,8 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		Writable filterPhotos = handler.makeWebPart(us);
 		parts.append(filterPhotos);
 
+		parts.append(makePopularTagsInfo(us));
+
 		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
 
 		page.addWritable("sidebar", parts);
@@ -225,6 +235,28 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		return result;
 	}
 
+	/**
+	 * Shows the most frequent tags as a tag cloud, each linking to the photos with that tag.
+	 */
+	protected WebPart makePopularTagsInfo(UserSession us) {
+		WebPart result = createWebPart(us, PartUtil.POPULAR_TAGS_INFO_FILE);
+
+		List<TermStatistics> popularTags = PhotoTagIndex.getInstance().getMostFrequentTerms("tg:", NO_POPULAR_TAGS);
+		int maxNoPhotos = popularTags.isEmpty() ? 1 : popularTags.get(0).getNoPhotos();
+		StringBuilder tagCloud = new StringBuilder();
+		for (TermStatistics popularTag : popularTags) {
+			String tag = popularTag.getTerm().substring("tg:".length());
+			String link = getResourceAsRelativeHtmlPathString(PartUtil.FILTER_PHOTOS_PAGE_NAME) + "?" +
+					PhotoFilter.TAGS + "=" + tag;
+			int percentage = 80 + (70 * popularTag.getNoPhotos()) / maxNoPhotos;
+			tagCloud.append("<span style=\"font-size: ").append(percentage).append("%\">").
+					append(HtmlUtil.asHref(link, tag)).append("</span> ");
+		}
+		result.addString("popularTags", tagCloud.toString());
+
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -22,6 +22,7 @@ package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
@@ -30,6 +31,11 @@ import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 /**
  * A handler class for a specific web page.
  */
@@ -50,14 +56,19 @@ public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 		page.addWritable("profile", part);
 
 		User user = (User) us.getClient();
-		Photo[] photos = user.getPhotos();
+		Set<PhotoId> photoIds = PhotoManager.getInstance().findPhotoIdsByOwner(user.getId());
+		// the index may not know all photos yet, e.g. during a lazy startup
+		for (Photo photo : user.getPhotos()) {
+			photoIds.add(photo.getId());
+		}
 		boolean wasEmpty = true;
-		if (photos.length != 0) {
+		if (!photoIds.isEmpty()) {
 			WritableList list = new WritableList();
+			// load them from the PhotoManager to make sure the same copies are used
+			List<Photo> photos = new ArrayList<Photo>(PhotoManager.getInstance().getPhotos(photoIds).values());
+			Collections.sort(photos, User.getPhotoByPraiseReverseComparator());
 			for (Photo photo : photos) {
-				// load it from the PhotoManager to make sure the same copy is used
-				photo = PhotoManager.getInstance().getPhotoFromId(photo.getId());
-				if (!photo.getStatus().isDeleted()) {
+				if (user.getId().equals(photo.getOwnerId()) && !photo.getStatus().isDeleted()) {
 					part = makeUserPhotoForm(us, photo);
 					list.append(part);
 					wasEmpty = false;
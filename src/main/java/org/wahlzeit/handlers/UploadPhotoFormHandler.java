@@ -21,12 +21,11 @@
 package org.wahlzeit.handlers;
 
 import com.google.appengine.api.images.Image;
-import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
-import org.wahlzeit.model.PhotoManager;
-import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.UploadJob;
+import org.wahlzeit.model.UploadJobManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
@@ -43,6 +42,11 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 
 	private static Logger log = Logger.getLogger(UploadPhotoFormHandler.class.getName());
 
+	/**
+	 * Saved argument with the id of the queued upload job, polled by the upload page
+	 */
+	public static final String UPLOAD_JOB_ID = "uploadJobId";
+
 	/**
 	 *
 	 */
@@ -58,6 +62,7 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 		part.addStringFromArgs(args, UserSession.MESSAGE);
 
 		part.maskAndAddStringFromArgs(args, Photo.TAGS);
+		part.addStringFromArgsWithDefault(args, UPLOAD_JOB_ID, "");
 	}
 
 	/**
@@ -73,27 +78,14 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 		}
 
 		try {
-			PhotoManager pm = PhotoManager.getInstance();
 			String fileName = us.getAsString(args, "fileName");
 			User user = (User) us.getClient();
 			Image uploadedImage = user.getUploadedImage();
-			Photo photo = pm.createPhoto(fileName, uploadedImage);
-
-			user.addPhoto(photo);
-
-			photo.setTags(new Tags(tags));
-
-			log.config(LogBuilder.createUserMessage().
-					addAction("Upload Photo").
-					addParameter("Photo", photo.getId().asString()).
-					addParameter("tags", photo.getTags().asString()).toString());
+			user.setUploadedImage(null);
+			UploadJob job = UploadJobManager.getInstance().submitUpload(user, fileName, uploadedImage, tags);
 
+			us.setSavedArg(UPLOAD_JOB_ID, job.getId().toString());
 			us.setTwoLineMessage(config.getPhotoUploadSucceeded(), config.getKeepGoing());
-			log.config(LogBuilder.createSystemMessage().
-					addAction("Calling async task to save Photo").
-					addParameter("ID", photo.getId().asString()).toString());
-
-			AsyncTaskExecutor.savePhotoAsync(photo.getId().asString());
 		} catch (Exception ex) {
 			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
 			us.setMessage(config.getPhotoUploadFailed());
@@ -22,12 +22,18 @@ package org.wahlzeit.main;
 
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.FileSystemImageStorage;
+import org.wahlzeit.model.persistence.GcsAdapter;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.TieredImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -37,6 +43,19 @@ public abstract class ModelMain extends AbstractMain {
 
 	private static final Logger log = Logger.getLogger(ModelMain.class.getName());
 
+	/**
+	 * Name of the system property (see appengine-web.xml) that selects the ImageStorageType; a comma-separated list
+	 * of types, fastest first, chains them in a TieredImageStorage
+	 */
+	public static final String IMAGE_STORAGE_PROPERTY = "wahlzeit.images.storage";
+
+	/**
+	 * FILE_SYSTEM stores images below the photos directory, e.g. to run locally without Cloud Storage
+	 */
+	public enum ImageStorageType {
+		DATASTORE, GCS, FILE_SYSTEM
+	}
+
 	/**
 	 *
 	 */
@@ -45,8 +64,7 @@ public abstract class ModelMain extends AbstractMain {
 		log.info("AbstractMain.startUp completed");
 
 		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
-		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		ImageStorage.setInstance(createImageStorage(getImageStorageTypes()));
 
 		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
 		GlobalsManager.getInstance().loadGlobals();
@@ -62,6 +80,57 @@ public abstract class ModelMain extends AbstractMain {
 	}
 
 
+	/**
+	 * @methodtype factory
+	 */
+	protected ImageStorage createImageStorage(List<ImageStorageType> imageStorageTypes) {
+		if (imageStorageTypes.size() == 1) {
+			return createImageStorage(imageStorageTypes.get(0));
+		}
+
+		List<ImageStorage> tiers = new ArrayList<ImageStorage>();
+		for (ImageStorageType imageStorageType : imageStorageTypes) {
+			tiers.add(createImageStorage(imageStorageType));
+		}
+		return new TieredImageStorage(tiers);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ImageStorage createImageStorage(ImageStorageType imageStorageType) {
+		switch (imageStorageType) {
+			case GCS:
+				return new GcsAdapter.Builder().build();
+			case FILE_SYSTEM:
+				return new FileSystemImageStorage();
+			default:
+				return new DatastoreAdapter();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected List<ImageStorageType> getImageStorageTypes() {
+		List<ImageStorageType> result = new ArrayList<ImageStorageType>();
+		String value = SysConfig.getProperty(IMAGE_STORAGE_PROPERTY, ImageStorageType.DATASTORE.name());
+		for (String typeName : value.split(",")) {
+			try {
+				result.add(ImageStorageType.valueOf(typeName.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("image storage", typeName).
+						addException("unknown image storage, skipping it", e).toString());
+			}
+		}
+
+		if (result.isEmpty()) {
+			result.add(ImageStorageType.DATASTORE);
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -78,7 +147,6 @@ public abstract class ModelMain extends AbstractMain {
 		PhotoCaseManager.getInstance().savePhotoCases();
 		PhotoManager.getInstance().savePhotos();
 		UserManager.getInstance().saveClients();
-		GlobalsManager.getInstance().saveGlobals();
 	}
 
 	/**
@@ -31,27 +31,20 @@ public abstract class Case extends DataObject {
 	/**
 	 * 0 is never returned, first value is 1
 	 */
-	protected static CaseId lastCaseId = CaseId.NULL_ID;
+	protected static final IdBlockAllocator idAllocator = new IdBlockAllocator(IdBlockAllocator.Sequence.CASE);
 
 	/**
 	 * @methodtype get
 	 */
-	public static synchronized CaseId getLastCaseId() {
-		return lastCaseId;
-	}
-
-	/**
-	 * @methodtype set
-	 */
-	public static synchronized void setLastCaseId(CaseId newId) {
-		lastCaseId = newId;
+	public static CaseId getLastCaseId() {
+		return new CaseId((int) idAllocator.getLastId());
 	}
 
 	/**
 	 * @methodtype idiom
 	 */
-	public static synchronized CaseId getNextCaseId() {
-		return lastCaseId = lastCaseId.getNextId();
+	public static CaseId getNextCaseId() {
+		return new CaseId((int) idAllocator.getNextId());
 	}
 
 }
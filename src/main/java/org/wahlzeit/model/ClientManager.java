@@ -21,7 +21,7 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 *
 	 */
-	protected static Long lastClientId = 0L;
+	protected static final IdBlockAllocator idAllocator = new IdBlockAllocator(IdBlockAllocator.Sequence.CLIENT);
 
 	/**
 	 * Maps IDs to user
@@ -164,24 +164,19 @@ public abstract class ClientManager extends ObjectManager {
 	// client ID methods -----------------------------------------------------------------------------------------------
 
 	/**
+	 * Returns the last client id handed out by this instance of the application.
+	 *
 	 * @methodtype get
 	 */
 	public Long getLastClientId() {
-		return lastClientId;
-	}
-
-	/**
-	 * @methodtype set
-	 */
-	public synchronized void setLastClientId(Long newId) {
-		lastClientId = newId;
+		return idAllocator.getLastId();
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public synchronized Long getNextClientId() {
-		return ++lastClientId;
+	public Long getNextClientId() {
+		return idAllocator.getNextId();
 	}
 
 
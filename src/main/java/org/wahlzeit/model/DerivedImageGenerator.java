@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.model.persistence.ImageCache;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * Creates the sizes of a photo that were not scaled on upload when they are first requested, from the next larger
+ * size that is stored, and stores them through the ImageStorage. Concurrent requests for the same size of a photo
+ * wait for a single computation instead of scaling it each.
+ */
+public class DerivedImageGenerator {
+
+	private static final Logger log = Logger.getLogger(DerivedImageGenerator.class.getName());
+
+	/**
+	 *
+	 */
+	protected static DerivedImageGenerator instance = null;
+
+	/**
+	 * Computations in progress, by photo id and size
+	 */
+	protected final ConcurrentMap<String, FutureTask<Image>> computations =
+			new ConcurrentHashMap<String, FutureTask<Image>>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized DerivedImageGenerator getInstance() {
+		if (instance == null) {
+			instance = new DerivedImageGenerator();
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(DerivedImageGenerator derivedImageGenerator) {
+		instance = derivedImageGenerator;
+	}
+
+	/**
+	 * Returns the image of the given size, creating it if needed; returns null if the photo does not come in that
+	 * size or no larger size is stored to create it from.
+	 *
+	 * @methodtype get
+	 */
+	public Image getImage(final Photo photo, final PhotoSize size) {
+		if (!photo.hasPhotoSize(size)) {
+			return null;
+		}
+
+		String key = photo.getIdAsString() + size.asInt();
+		FutureTask<Image> computation = new FutureTask<Image>(new Callable<Image>() {
+			@Override
+			public Image call() throws Exception {
+				return doGetImage(photo, size);
+			}
+		});
+
+		FutureTask<Image> runningComputation = computations.putIfAbsent(key, computation);
+		if (runningComputation == null) {
+			runningComputation = computation;
+			try {
+				computation.run();
+			} finally {
+				computations.remove(key, computation);
+			}
+		}
+
+		try {
+			return runningComputation.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo ID", photo.getIdAsString()).
+					addParameter("size", size.asString()).
+					addException("could not create image", e.getCause()).toString());
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoComputations() {
+		return computations.size();
+	}
+
+	/**
+	 * Looks up the image once more, as a computation may have finished between the caller's miss and the start of
+	 * this one; it is put into the ImageCache before the computation ends, so later callers find it there.
+	 *
+	 * @methodtype command
+	 */
+	protected Image doGetImage(Photo photo, PhotoSize size) throws Exception {
+		String photoIdAsString = photo.getIdAsString();
+		ImageCache imageCache = ImageCache.getInstance();
+		Image result = imageCache.getImage(photoIdAsString, size.asInt());
+		if (result != null) {
+			return result;
+		}
+
+		Image larger = getLargerImage(photo, size);
+		if (larger == null) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo ID", photoIdAsString).
+					addParameter("size", size.asString()).
+					addMessage("no larger image to create it from").toString());
+			return null;
+		}
+
+		result = PhotoUtil.createScaledImage(larger, photo.getWidth(), photo.getHeight(), size);
+		imageCache.putImage(photoIdAsString, size.asInt(), result);
+		try {
+			ImageStorage.getInstance().writeImage(result, photoIdAsString, size.asInt());
+		} catch (IOException e) {
+			// it is served from the cache anyway and created again once evicted
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo ID", photoIdAsString).
+					addParameter("size", size.asString()).
+					addException("could not store created image", e).toString());
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("create image on demand").
+				addParameter("photo ID", photoIdAsString).
+				addParameter("size", size.asString()).toString());
+		return result;
+	}
+
+	/**
+	 * Returns the smallest stored size of the photo that is larger than the given one, or null if there is none.
+	 *
+	 * @methodtype get
+	 */
+	protected Image getLargerImage(Photo photo, PhotoSize size) {
+		for (int i = size.asInt() + 1; i <= photo.getMaxPhotoSize().asInt(); i++) {
+			Image result = photo.getImage(PhotoSize.getFromInt(i));
+			if (result != null) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+}
@@ -65,6 +65,46 @@ public class Globals extends DataObject {
 		incWriteCount();
 	}
 
+	/**
+	 * Returns the last id leased from the sequence.
+	 */
+	public long getLastId(IdBlockAllocator.Sequence sequence) {
+		switch (sequence) {
+			case PHOTO:
+				return lastPhotoId;
+			case CLIENT:
+				return (lastUserId == null) ? 0 : lastUserId;
+			case CASE:
+				return lastCaseId;
+			case SESSION:
+				return lastSessionId;
+			default:
+				throw new IllegalArgumentException("unknown sequence: " + sequence);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void setLastId(IdBlockAllocator.Sequence sequence, long lastId) {
+		switch (sequence) {
+			case PHOTO:
+				setLastPhotoId((int) lastId);
+				break;
+			case CLIENT:
+				setLastUserId(lastId);
+				break;
+			case CASE:
+				setLastCaseId((int) lastId);
+				break;
+			case SESSION:
+				setLastSessionId((int) lastId);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown sequence: " + sequence);
+		}
+	}
+
 	public String asString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("Globals with ID ").append(id);
@@ -3,7 +3,6 @@ package org.wahlzeit.model;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.services.ObjectManager;
-import org.wahlzeit.servlets.AbstractServlet;
 
 import java.util.logging.Logger;
 
@@ -13,11 +12,11 @@ import static org.wahlzeit.services.OfyService.ofy;
  * Manager that cares about the global variables. It is used from the outside by the following two methods:
  *
  * @see #loadGlobals()
- * @see #saveGlobals()
+ * @see #leaseIdBlock(IdBlockAllocator.Sequence, int)
  * 
  * @review
  */
-public class GlobalsManager extends ObjectManager {
+public class GlobalsManager extends ObjectManager implements IdBlockLeaser {
 
 	private static final Logger log = Logger.getLogger(GlobalsManager.class.getName());
 	/**
@@ -26,7 +25,8 @@ public class GlobalsManager extends ObjectManager {
 	private static GlobalsManager instance = new GlobalsManager();
 
 	/**
-	 * @methodtype command Loads all global variables and stores them in their corresponding classes.
+	 * @methodtype command Makes sure the global variables exist. The ids are not loaded up front; each
+	 * IdBlockAllocator leases blocks of them when it needs them.
 	 */
 	public void loadGlobals() {
 		initGlobals();
@@ -37,11 +37,6 @@ public class GlobalsManager extends ObjectManager {
 			}
 		});
 		log.info(globals.asString());
-
-		UserManager.getInstance().setLastClientId(globals.getLastUserId());
-		PhotoId.setCurrentIdFromInt(globals.getLastPhotoId());
-		Case.setLastCaseId(new CaseId(globals.getLastCaseId()));
-		AbstractServlet.setLastSessionId(globals.getLastSessionId());
 	}
 
 	/**
@@ -91,21 +86,28 @@ public class GlobalsManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype command Saves all global variables.
+	 * @methodtype command Reserves the next block of ids of the sequence in a transaction, so that no two instances
+	 * lease the same ids.
 	 */
-	public synchronized void saveGlobals() {
-		final Globals globals = new Globals();
-		globals.setLastUserId(UserManager.getInstance().getLastClientId());
-		globals.setLastPhotoId(PhotoId.getCurrentIdAsInt());
-		globals.setLastCaseId(Case.getLastCaseId().asInt());
-		globals.setLastSessionId(AbstractServlet.getLastSessionId());
-		log.info(globals.asString());
-
-		ObjectifyService.run(new Work<Void>() {
+	@Override
+	public long leaseIdBlock(final IdBlockAllocator.Sequence sequence, final int size) {
+		return ObjectifyService.run(new Work<Long>() {
 			@Override
-			public Void run() {
-				writeObject(globals);
-				return null;
+			public Long run() {
+				return ofy().transact(new Work<Long>() {
+					@Override
+					public Long run() {
+						Globals globals = ofy().load().type(Globals.class).id(Globals.DEAULT_ID).now();
+						if (globals == null) {
+							globals = new Globals();
+						}
+
+						long first = globals.getLastId(sequence) + 1;
+						globals.setLastId(sequence, first + size - 1);
+						ofy().save().entity(globals).now();
+						return first;
+					}
+				});
 			}
 		});
 	}
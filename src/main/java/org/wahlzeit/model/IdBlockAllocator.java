@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Hi/lo id allocator: leases blocks of ids from an IdBlockLeaser and hands them out from memory without locking.
+ * Only leasing the next block is synchronized, so ids are unique across instances of the application while
+ * uploads and new sessions do not wait for each other. Ids left in a block when the instance stops are not reused.
+ */
+public class IdBlockAllocator {
+
+	/**
+	 * The sequences of ids kept in Globals
+	 */
+	public enum Sequence {
+		PHOTO, CLIENT, CASE, SESSION
+	}
+
+	/**
+	 * Name of the system property (see appengine-web.xml) for the number of ids leased at a time
+	 */
+	public static final String BLOCK_SIZE_PROPERTY = "wahlzeit.ids.blockSize";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 100;
+
+	private static final Logger log = Logger.getLogger(IdBlockAllocator.class.getName());
+
+	/**
+	 * Leases the blocks; the GlobalsManager unless set otherwise, e.g. for testing
+	 */
+	protected static volatile IdBlockLeaser blockLeaser = null;
+
+	/**
+	 *
+	 */
+	protected final Sequence sequence;
+	protected final int blockSize;
+
+	/**
+	 *
+	 */
+	protected volatile Block block = null;
+
+	/**
+	 *
+	 */
+	public IdBlockAllocator(Sequence sequence) {
+		this(sequence, (int) Math.max(1, SysConfig.getPropertyAsLong(BLOCK_SIZE_PROPERTY, DEFAULT_BLOCK_SIZE)));
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public IdBlockAllocator(Sequence sequence, int blockSize) {
+		this.sequence = sequence;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static IdBlockLeaser getBlockLeaser() {
+		IdBlockLeaser result = blockLeaser;
+		return (result != null) ? result : GlobalsManager.getInstance();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setBlockLeaser(IdBlockLeaser newBlockLeaser) {
+		blockLeaser = newBlockLeaser;
+	}
+
+	/**
+	 * Returns the next id of the current block, leasing a new block if it is used up.
+	 *
+	 * @methodtype get
+	 */
+	public long getNextId() {
+		while (true) {
+			Block current = block;
+			if (current != null) {
+				long result = current.next.getAndIncrement();
+				if (result < current.end) {
+					return result;
+				}
+			}
+
+			synchronized (this) {
+				// another thread may have leased a new block in the meantime
+				if (block == current) {
+					block = leaseBlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the last id handed out by this allocator, or 0 if there is none.
+	 *
+	 * @methodtype get
+	 */
+	public long getLastId() {
+		Block current = block;
+		if (current == null) {
+			return 0;
+		}
+		return Math.min(current.next.get(), current.end) - 1;
+	}
+
+	/**
+	 * Forgets the current block, e.g. on shutdown; its remaining ids are not used.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void reset() {
+		block = null;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected Block leaseBlock() {
+		long first = getBlockLeaser().leaseIdBlock(sequence, blockSize);
+		log.config(LogBuilder.createSystemMessage().
+				addAction("lease id block").
+				addParameter("sequence", sequence).
+				addParameter("first id", first).
+				addParameter("block size", blockSize).toString());
+		return new Block(first, first + blockSize);
+	}
+
+	/**
+	 * A leased range of ids [next, end)
+	 */
+	protected static class Block {
+
+		/**
+		 *
+		 */
+		protected final AtomicLong next;
+		protected final long end;
+
+		/**
+		 *
+		 */
+		protected Block(long first, long end) {
+			this.next = new AtomicLong(first);
+			this.end = end;
+		}
+	}
+
+}
@@ -26,14 +26,24 @@ import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.IfTrue;
+import org.wahlzeit.model.persistence.ImageCache;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.utils.Pattern;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Pattern(
 	name = "Abstract Factory",
@@ -56,6 +66,7 @@ public class Photo extends DataObject {
 	public static final String LINK = "link";
 	public static final String PRAISE = "praise";
 	public static final String NO_VOTES = "noVotes";
+	public static final String HAS_NEW_PRAISE = "hasNewPraise";
 	public static final String CAPTION = "caption";
 	public static final String DESCRIPTION = "description";
 	public static final String KEYWORDS = "keywords";
@@ -75,6 +86,13 @@ public class Photo extends DataObject {
 	public static final int MAX_THUMB_PHOTO_WIDTH = 105;
 	public static final int MAX_THUMB_PHOTO_HEIGHT = 150;
 
+	/**
+	 * Groups of fields that are tracked separately, so that a save only updates the dependents of what changed
+	 */
+	public enum FieldGroup {
+		PRAISE, STATUS, TAGS, IMAGES, OWNER, DETAILS
+	}
+
 	protected PhotoId id = null;
 	
 	/**
@@ -85,10 +103,18 @@ public class Photo extends DataObject {
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL)
 	 * Images are pre-computed in these sizes to optimize bandwidth when requested.
+	 * Only images that have not been written to the ImageStorage yet are kept here; all others are read through the
+	 * ImageCache.
 	 */
 	@Ignore
 	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
 	
+	/**
+	 * A new photo has changed in every respect; a loaded one in none (see afterLoad)
+	 */
+	@Ignore
+	transient protected Set<FieldGroup> changedFieldGroups = EnumSet.allOf(FieldGroup.class);
+
 	/**
 	 *
 	 */
@@ -107,6 +133,13 @@ public class Photo extends DataObject {
 	 *
 	 */
 	protected Tags tags = Tags.EMPTY_TAGS;
+
+	/**
+	 * Terms of the photo (see PhotoTagCollector) as of its last save, so that photos can be queried by term and tag
+	 * changes can be diffed without a query; null for photos saved before their terms were stored
+	 */
+	@Index
+	protected List<String> terms = null;
 	
 	/**
 	 *
@@ -124,6 +157,12 @@ public class Photo extends DataObject {
 	protected int praiseSum = 10;
 	protected int noVotes = 1;
 	protected int noVotesAtLastNotification = 1;
+
+	/**
+	 * Only indexed while true, so that the photos with new praise can be queried without an index entry per photo
+	 */
+	@Index(IfTrue.class)
+	protected boolean hasNewPraise = false;
 	
 	/**
 	 *
@@ -136,43 +175,104 @@ public class Photo extends DataObject {
 	protected String ending = "jpg";
 	
 	/**
-	 *
+	 * Derived from the PhotoId, so that a photo can be loaded by key; photos stored before keep their allocated id
 	 */
-	//TODO: change it to a single long
 	@Id
 	Long idLong;
 	@Parent
 	Key parent = ObjectManager.applicationRootKey;
 
 	/**
-	 *
+	 * Used by Objectify to load photos, so it must not allocate an id; use Photo(PhotoId.getNextId()) for new photos
 	 */
 	public Photo() {
-		id = PhotoId.getNextId();
-		incWriteCount();
+		// do nothing
 	}
 
 	/**
 	 * @methodtype constructor
 	 */
 	public Photo(PhotoId myId) {
-		id = myId;
+		id = myId.intern();
+		idLong = (long) id.asInt();
+		terms = new ArrayList<String>();
+
+		incWriteCount();
+	}
+
+	/**
+	 * Objectify creates loaded photos through the default constructor, which marks them as new; a loaded photo has
+	 * no unsaved changes, though. Its id is interned, as for new photos.
+	 */
+	@OnLoad
+	protected void afterLoad() {
+		if (id != null) {
+			id = id.intern();
+		}
+		resetWriteCount();
+		resetChangedFieldGroups(EnumSet.allOf(FieldGroup.class));
+	}
 
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void markChanged(FieldGroup fieldGroup) {
+		changedFieldGroups.add(fieldGroup);
 		incWriteCount();
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public synchronized Set<FieldGroup> getChangedFieldGroups() {
+		return changedFieldGroups.isEmpty() ? EnumSet.noneOf(FieldGroup.class) : EnumSet.copyOf(changedFieldGroups);
+	}
+
+	/**
+	 * Clears the given changes once they have been saved; changes made in the meantime are kept.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void resetChangedFieldGroups(Set<FieldGroup> savedFieldGroups) {
+		changedFieldGroups.removeAll(savedFieldGroups);
+	}
+
 	/**
 	 * @methodtype get
 	 */
 	public Image getImage(PhotoSize photoSize) {
-		return images.get(photoSize);
+		Image result = getUnsavedImage(photoSize);
+		if (result == null) {
+			result = ImageCache.getInstance().getImage(id.asString(), photoSize.asInt());
+		}
+		return result;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setImage(PhotoSize photoSize, Image image) {
+	public synchronized void setImage(PhotoSize photoSize, Image image) {
 		this.images.put(photoSize, image);
+		ImageCache.getInstance().putImage(id.asString(), photoSize.asInt(), image);
+		markChanged(FieldGroup.IMAGES);
+	}
+
+	/**
+	 * Returns the image of the given size if it has not been written to the ImageStorage yet, null otherwise.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized Image getUnsavedImage(PhotoSize photoSize) {
+		return images.get(photoSize);
+	}
+
+	/**
+	 * Releases the image once it has been written to the ImageStorage; from then on it is read through the cache.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void setImageSaved(PhotoSize photoSize) {
+		images.remove(photoSize);
 	}
 
 	/**
@@ -189,6 +289,16 @@ public class Photo extends DataObject {
 		return id;
 	}
 
+	/**
+	 * Returns the id of the photo entity in the Datastore, which differs from the PhotoId for photos stored before
+	 * it was derived from the PhotoId.
+	 *
+	 * @methodtype get
+	 */
+	public long getDatastoreId() {
+		return (idLong != null) ? idLong : id.asInt();
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -200,8 +310,10 @@ public class Photo extends DataObject {
 	 * @methodtype set
 	 */
 	public void setOwnerId(String newName) {
+		String oldName = ownerId;
 		ownerId = newName;
-		incWriteCount();
+		PhotoOwnerIndex.getInstance().changeOwner(id, oldName, newName);
+		markChanged(FieldGroup.OWNER);
 	}
 
 	/**
@@ -245,7 +357,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerNotifyAboutPraise(boolean newNotifyAboutPraise) {
 		ownerNotifyAboutPraise = newNotifyAboutPraise;
-		incWriteCount();
+		markChanged(FieldGroup.DETAILS);
 	}
 
 	/**
@@ -260,7 +372,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerLanguage(Language newLanguage) {
 		ownerLanguage = newLanguage;
-		incWriteCount();
+		markChanged(FieldGroup.DETAILS);
 	}
 
 	/**
@@ -282,7 +394,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerEmailAddress(EmailAddress newEmailAddress) {
 		ownerEmailAddress = newEmailAddress;
-		incWriteCount();
+		markChanged(FieldGroup.DETAILS);
 	}
 
 	/**
@@ -329,7 +441,7 @@ public class Photo extends DataObject {
 
 		maxPhotoSize = PhotoSize.getFromWidthHeight(width, height);
 
-		incWriteCount();
+		markChanged(FieldGroup.DETAILS);
 	}
 
 	/**
@@ -362,13 +474,28 @@ public class Photo extends DataObject {
 		return (double) praiseSum / noVotes;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public int getPraiseSum() {
+		return praiseSum;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoVotes() {
+		return noVotes;
+	}
+
 	/**
 	 *
 	 */
 	public void addToPraise(int value) {
 		praiseSum += value;
 		noVotes += 1;
-		incWriteCount();
+		hasNewPraise = true;
+		markChanged(FieldGroup.PRAISE);
 	}
 
 	/**
@@ -390,7 +517,7 @@ public class Photo extends DataObject {
 	 */
 	public void setStatus(PhotoStatus newStatus) {
 		status = newStatus;
-		incWriteCount();
+		markChanged(FieldGroup.STATUS);
 	}
 
 	/**
@@ -408,11 +535,38 @@ public class Photo extends DataObject {
 	}
 
 	/**
+	 * The tags of a photo are added to the TagDictionary, unlike those of a search.
+	 *
 	 * @methodtype set
 	 */
 	public void setTags(Tags newTags) {
-		tags = newTags;
-		incWriteCount();
+		tags = newTags.intern();
+		markChanged(FieldGroup.TAGS);
+	}
+
+	/**
+	 * Returns the terms as of the last save, or null if they are unknown.
+	 *
+	 * @methodtype get
+	 */
+	public List<String> getTerms() {
+		return (terms == null) ? null : Collections.unmodifiableList(terms);
+	}
+
+	/**
+	 * Sets the terms to be saved with the photo; they are derived from tags and owner, which mark the photo changed.
+	 *
+	 * @methodtype set
+	 */
+	public void setTerms(Collection<String> newTerms) {
+		if (newTerms == null) {
+			terms = null;
+			return;
+		}
+
+		List<String> sortedTerms = new ArrayList<String>(newTerms);
+		Collections.sort(sortedTerms);
+		terms = sortedTerms;
 	}
 
 	/**
@@ -443,6 +597,7 @@ public class Photo extends DataObject {
 	 */
 	public void setNoNewPraise() {
 		noVotesAtLastNotification = noVotes;
-		incWriteCount();
+		hasNewPraise = false;
+		markChanged(FieldGroup.PRAISE);
 	}
 }
@@ -21,9 +21,13 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.utils.Pattern;
 import org.wahlzeit.utils.Patterns;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 @Patterns({
@@ -90,7 +94,7 @@ public class PhotoFactory {
 	 * @methodtype factory
 	 */
 	public Photo createPhoto() {
-		return new Photo();
+		return new Photo(PhotoId.getNextId());
 	}
 
 	/**
@@ -101,21 +105,36 @@ public class PhotoFactory {
 	}
 
 	/**
-	 * Loads a photo. The Java object is loaded from the Google Datastore, the Images in all sizes are loaded from the
-	 * Google Cloud storage.
+	 * Loads a photo by its key from the Google Datastore; returns null if there is no such photo. Images are not
+	 * loaded here, they are read from the ImageStorage when needed.
 	 */
 	public Photo loadPhoto(PhotoId id) {
-	   /* Photo result =
-                OfyService.ofy().load().type(Photo.class).ancestor(KeyFactory.createKey("Application", "Wahlzeit")).filter(Photo.ID, id).first().now();
-        for (PhotoSize size : PhotoSize.values()) {
-            GcsFilename gcsFilename = new GcsFilename("picturebucket", filename);
-
-
+		return loadPhoto(id, id.asInt());
+	}
 
-        }*/
-		return null;
+	/**
+	 * Loads a photo by the id of its entity, see Photo.getDatastoreId; returns null if there is no such photo.
+	 */
+	public Photo loadPhoto(PhotoId id, long datastoreId) {
+		log.config(LogBuilder.createSystemMessage().addParameter("load photo", id.asString()).toString());
+		return OfyService.ofy().load().type(Photo.class).parent(ObjectManager.applicationRootKey).id(datastoreId).now();
 	}
 
+	/**
+	 * Loads all photos with the given ids of their entities, see Photo.getDatastoreId, in one batch; photos that do
+	 * not exist are left out of the result.
+	 */
+	public Map<PhotoId, Photo> loadPhotos(Map<PhotoId, Long> datastoreIds) {
+		log.config(LogBuilder.createSystemMessage().addParameter("load photos", datastoreIds.size()).toString());
+
+		Map<PhotoId, Photo> result = new HashMap<PhotoId, Photo>();
+		Map<Long, Photo> loaded = OfyService.ofy().load().type(Photo.class).parent(ObjectManager.applicationRootKey).
+				ids(datastoreIds.values());
+		for (Photo photo : loaded.values()) {
+			result.put(photo.getId(), photo);
+		}
+		return result;
+	}
 
 	/**
 	 *
@@ -25,8 +25,6 @@ import org.wahlzeit.utils.StringUtil;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
@@ -54,9 +52,14 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected PhotoIdSet displayablePhotoIds;
+	protected PhotoIdSet processedPhotoIds = new PhotoIdSet();
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
+
+	/**
+	 * Visible photos that match the filter conditions; a frozen set shared through the PhotoFilterCache
+	 */
+	protected PhotoIdSet candidatePhotoIds = null;
 
 	/**
 	 *
@@ -85,6 +88,7 @@ public class PhotoFilter implements Serializable {
 		setTags(Tags.EMPTY_TAGS);
 		displayablePhotoIds.clear();
 		processedPhotoIds.clear();
+		skippedPhotoIds.clear();
 	}
 
 	/**
@@ -130,43 +134,65 @@ public class PhotoFilter implements Serializable {
 			filterConditions.add("un:" + Tags.asTag(un));
 		}
 
-		String[] tags = getTags().asArray();
-		for (int i = 0; i < tags.length; i++) {
-			filterConditions.add("tg:" + tags[i]);
+		Tags tags = getTags();
+		for (int i = 0; i < tags.getSize(); i++) {
+			filterConditions.add("tg:" + tags.getTag(i));
 		}
 	}
 
 	/**
+	 * Updates the displayable photos: they are only derived from the candidates again if the shared candidates have
+	 * changed since; processed and skipped photos are masked out as they come.
+	 *
 	 * @methodtype command
 	 */
 	public void generateDisplayablePhotoIds() {
-		displayablePhotoIds = getFilteredPhotoIds();
+		PhotoIdSet filteredPhotoIds = getFilteredPhotoIds();
+		if (filteredPhotoIds != candidatePhotoIds) {
+			candidatePhotoIds = filteredPhotoIds;
+			updateDisplayablePhotoIds();
+		} else if (displayablePhotoIds.isEmpty()) {
+			updateDisplayablePhotoIds();
+		}
+	}
+
+	/**
+	 * If all candidates have been processed or skipped, the skipped ones are shown again.
+	 *
+	 * @methodtype command
+	 */
+	protected void updateDisplayablePhotoIds() {
+		PhotoIdSet result = new PhotoIdSet(candidatePhotoIds);
+		result.removeAll(processedPhotoIds);
+		result.removeAll(skippedPhotoIds);
+		if (result.isEmpty()) {
+			result.addAll(skippedPhotoIds);
+		}
+
+		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", result.size())
+				.toString());
+
+		displayablePhotoIds = result;
 	}
 
 	/**
 	 * Get a random photo that has not been rated. If possible avoid skipped photos.
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
-		} else {
-			return PhotoId.NULL_ID;
-		}
+		return displayablePhotoIds.getRandomPhotoId(randomNumber);
 	}
 
 	/**
 	 *
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
+	public PhotoIdSet getDisplayablePhotoIds() {
 		return displayablePhotoIds;
 	}
 
 	/**
 	 *
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
+	public void setDisplayablePhotoIds(PhotoIdSet newPhotoIds) {
 		displayablePhotoIds = newPhotoIds;
 	}
 
@@ -174,13 +200,14 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new ArrayList<PhotoId>();
+		displayablePhotoIds = new PhotoIdSet();
+		candidatePhotoIds = null;
 	}
 
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public PhotoIdSet getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,10 +215,6 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
@@ -211,14 +234,14 @@ public class PhotoFilter implements Serializable {
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdSet getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
 	}
 
@@ -226,54 +249,21 @@ public class PhotoFilter implements Serializable {
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
+		skippedPhotoIds.add(skippedPhotoId);
+		if (displayablePhotoIds != null) {
+			displayablePhotoIds.remove(skippedPhotoId);
 		}
 	}
 
 	/**
-	 *
+	 * Returns the visible photos that match any of the filter conditions, as a frozen set shared with all filters of
+	 * the same conditions.
 	 */
-	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
+	protected PhotoIdSet getFilteredPhotoIds() {
+		List<String> filterConditions = getFilterConditions();
 		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
-
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
-			}
-		}
-
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
-			}
-		}
-		int skippedPhotos = skippedPhotoIds.size();
-		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
-		}
-
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
+				addParameter("Number of filter conditions", String.valueOf(filterConditions.size())).toString());
 
-		return result;
+		return PhotoFilterCache.getInstance().getVisiblePhotoIds(filterConditions);
 	}
 }
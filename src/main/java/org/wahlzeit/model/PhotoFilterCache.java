@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.caching.Cache;
+import org.wahlzeit.services.caching.CacheStats;
+import org.wahlzeit.services.caching.EvictionListener;
+import org.wahlzeit.services.caching.LruCache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of the visible photos that match a set of filter conditions, so that sessions with the same
+ * filter share one frozen candidate set. An entry is dropped as soon as a photo with one of its conditions changes
+ * its terms or visibility; the unfiltered entry only when a photo's visibility changes.
+ */
+public class PhotoFilterCache {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	/**
+	 *
+	 */
+	protected static final String CONDITION_SEPARATOR = "\n";
+
+	/**
+	 *
+	 */
+	protected static final PhotoFilterCache instance = new PhotoFilterCache();
+
+	/**
+	 * Normalized filter conditions to the matching visible photos
+	 */
+	protected final Cache<String, PhotoIdSet> results;
+
+	/**
+	 * Filter condition to the keys of all cached results that depend on it; also guards adding and removing results,
+	 * so that both stay in step
+	 */
+	protected final Map<String, Set<String>> keysByCondition = new HashMap<String, Set<String>>();
+
+	/**
+	 * Incremented by every invalidation, so that results computed meanwhile are not kept
+	 */
+	protected final AtomicLong generation = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public static PhotoFilterCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	public PhotoFilterCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 */
+	public PhotoFilterCache(int capacity) {
+		results = new LruCache<String, PhotoIdSet>(capacity);
+		results.setEvictionListener(new EvictionListener<String, PhotoIdSet>() {
+			@Override
+			public void onEviction(String key, PhotoIdSet value) {
+				synchronized (keysByCondition) {
+					doUnregisterKey(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the frozen set of the visible photos that match any of the filter conditions, or all visible photos if
+	 * there are none.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoIdSet getVisiblePhotoIds(Collection<String> filterConditions) {
+		Set<String> conditions = new TreeSet<String>(filterConditions);
+		String key = asKey(conditions);
+		PhotoIdSet result = results.get(key);
+		if (result != null) {
+			return result;
+		}
+
+		long expectedGeneration = generation.get();
+		result = doGetVisiblePhotoIds(conditions).freeze();
+
+		synchronized (keysByCondition) {
+			// the index may have changed while the result was computed, so that it is stale already
+			if (generation.get() == expectedGeneration) {
+				doRegisterKey(key, conditions);
+				results.put(key, result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Drops all results that depend on one of the conditions, and the unfiltered one if so requested.
+	 *
+	 * @methodtype command
+	 */
+	public void invalidate(Collection<String> conditions, boolean isUnfilteredAffected) {
+		synchronized (keysByCondition) {
+			generation.incrementAndGet();
+			Set<String> staleKeys = new HashSet<String>();
+			if (isUnfilteredAffected) {
+				staleKeys.add(asKey(Collections.<String>emptySet()));
+			}
+			for (String condition : conditions) {
+				Set<String> keys = keysByCondition.get(condition);
+				if (keys != null) {
+					staleKeys.addAll(keys);
+				}
+			}
+			for (String key : staleKeys) {
+				results.remove(key);
+				doUnregisterKey(key);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		synchronized (keysByCondition) {
+			generation.incrementAndGet();
+			results.clear();
+			keysByCondition.clear();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return results.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStats getStats() {
+		return results.getStats();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected PhotoIdSet doGetVisiblePhotoIds(Set<String> conditions) {
+		PhotoTagIndex photoTagIndex = PhotoTagIndex.getInstance();
+		PhotoIdSet result = photoTagIndex.getVisiblePhotoIds();
+		if (!conditions.isEmpty()) {
+			result.retainAll(photoTagIndex.matchAny(conditions));
+		}
+		return result;
+	}
+
+	/**
+	 * Must be called while holding the lock on keysByCondition.
+	 *
+	 * @methodtype command
+	 */
+	protected void doRegisterKey(String key, Set<String> conditions) {
+		for (String condition : conditions) {
+			Set<String> keys = keysByCondition.get(condition);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				keysByCondition.put(condition, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock on keysByCondition; conditions without results are dropped.
+	 *
+	 * @methodtype command
+	 */
+	protected void doUnregisterKey(String key) {
+		if (key.isEmpty()) {
+			return;
+		}
+		for (String condition : key.split(CONDITION_SEPARATOR)) {
+			Set<String> keys = keysByCondition.get(condition);
+			if (keys != null && keys.remove(key) && keys.isEmpty()) {
+				keysByCondition.remove(condition);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asKey(Set<String> sortedConditions) {
+		StringBuilder result = new StringBuilder();
+		for (String condition : sortedConditions) {
+			if (result.length() > 0) {
+				result.append(CONDITION_SEPARATOR);
+			}
+			result.append(condition);
+		}
+		return result.toString();
+	}
+
+}
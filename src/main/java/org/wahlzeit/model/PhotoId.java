@@ -22,6 +22,9 @@ package org.wahlzeit.model;
 
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 /**
  * A photo id identifies a photo with a unique number.
@@ -31,24 +34,24 @@ import java.util.Random;
 public class PhotoId implements Serializable {
 
 	/**
-	 * 0 is never returned from nextValue; first value is 1
+	 * Hands out new ids; 0 is never returned from nextValue; first value is 1
 	 */
-	protected static int currentId = 0;
+	protected static final IdBlockAllocator idAllocator = new IdBlockAllocator(IdBlockAllocator.Sequence.PHOTO);
 
 	/**
 	 *
 	 */
-	public static final int BUFFER_SIZE_INCREMENT = 64;
+	public static final PhotoId NULL_ID = new PhotoId(0);
 
 	/**
-	 *
+	 * Interned ids, so that there is only one PhotoId object per id
 	 */
-	public static final PhotoId NULL_ID = new PhotoId(0);
+	protected static final ConcurrentMap<Integer, PhotoId> ids = new ConcurrentHashMap<Integer, PhotoId>();
 
 	/**
-	 *
+	 * An "x" followed by at most seven base 36 digits, which is enough for any int
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static final Pattern VALID_ID_AS_STRING = Pattern.compile("x[0-9a-z]{1,7}");
 
 	/**
 	 * What a hack :-)
@@ -65,55 +68,31 @@ public class PhotoId implements Serializable {
 	}
 
 	/**
-	 *
+	 * Returns the last id handed out by this instance of the application.
 	 */
 	public static int getCurrentIdAsInt() {
-		return currentId;
-	}
-
-	/**
-	 *
-	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+		return (int) idAllocator.getLastId();
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
-		}
-		return currentId;
+	public static int getNextIdAsInt() {
+		return (int) idAllocator.getNextId();
 	}
 
 	/**
-	 *
+	 * Ids handed out by other instances of the application are valid, too, so any positive id is accepted. Only ids
+	 * of photos that were created or loaded are interned; any other id, e.g. from a request, is a new object that is
+	 * not kept.
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if (id <= 0) {
 			return NULL_ID;
 		}
 
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
-		if (result == null) {
-			synchronized (ids) {
-				result = ids[id];
-				if (result == null) {
-					result = new PhotoId(id);
-					ids[id] = result;
-				}
-			}
-		}
-
-		return result;
+		PhotoId result = ids.get(id);
+		return (result != null) ? result : new PhotoId(id);
 	}
 
 	/**
@@ -127,7 +106,7 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static PhotoId getNextId() {
-		return getIdFromInt(getNextIdAsInt());
+		return new PhotoId(getNextIdAsInt()).intern();
 	}
 
 	/**
@@ -183,6 +162,20 @@ public class PhotoId implements Serializable {
 		return value;
 	}
 
+	/**
+	 * Returns the one PhotoId object for this id, so that ids of existing photos are shared and compared quickly.
+	 *
+	 * @methodtype conversion
+	 */
+	public PhotoId intern() {
+		if (value <= 0) {
+			return NULL_ID;
+		}
+
+		PhotoId result = ids.putIfAbsent(value, this);
+		return (result != null) ? result : this;
+	}
+
 	/**
 	 *
 	 */
@@ -226,6 +219,18 @@ public class PhotoId implements Serializable {
 		return "x" + result.toString();
 	}
 
+	/**
+	 * Checks that the string is a photo id as returned by asString, e.g. before it is used to look up images.
+	 *
+	 * @methodtype boolean query
+	 */
+	public static boolean isValidIdAsString(String value) {
+		if (value == null || !VALID_ID_AS_STRING.matcher(value).matches()) {
+			return false;
+		}
+		return getFromInt(getFromString(value)).equals(value);
+	}
+
 	/**
 	 *
 	 */
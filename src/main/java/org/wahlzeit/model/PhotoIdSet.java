@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A compact set of photo ids, kept as a bitset over their integer values. Membership tests are constant time and
+ * set operations between two PhotoIdSets work a machine word at a time.
+ */
+public class PhotoIdSet extends AbstractSet<PhotoId> implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *
+	 */
+	protected final BitSet bits;
+	protected int size = 0;
+
+	/**
+	 * A frozen set can no longer be changed, so that it can be shared, e.g. between sessions
+	 */
+	protected boolean isFrozen = false;
+
+	/**
+	 * The bits as words, kept for random picks once the set is frozen
+	 */
+	protected transient volatile long[] frozenWords = null;
+
+	/**
+	 *
+	 */
+	public PhotoIdSet() {
+		bits = new BitSet();
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoIdSet(Collection<PhotoId> photoIds) {
+		if (photoIds instanceof PhotoIdSet) {
+			PhotoIdSet other = (PhotoIdSet) photoIds;
+			bits = (BitSet) other.bits.clone();
+			size = other.size;
+		} else {
+			bits = new BitSet();
+			addAll(photoIds);
+		}
+	}
+
+	/**
+	 * Creates a set of the photo ids whose integer values are set in bits; the set takes ownership of bits.
+	 *
+	 * @methodtype constructor
+	 */
+	public PhotoIdSet(BitSet bits) {
+		this.bits = bits;
+		size = bits.cardinality();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean add(PhotoId photoId) {
+		assertIsMutable();
+		int value = photoId.asInt();
+		if (bits.get(value)) {
+			return false;
+		}
+		bits.set(value);
+		size++;
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean remove(Object object) {
+		assertIsMutable();
+		if (!(object instanceof PhotoId)) {
+			return false;
+		}
+		int value = ((PhotoId) object).asInt();
+		if (!bits.get(value)) {
+			return false;
+		}
+		bits.clear(value);
+		size--;
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean contains(Object object) {
+		return object instanceof PhotoId && bits.get(((PhotoId) object).asInt());
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean addAll(Collection<? extends PhotoId> photoIds) {
+		assertIsMutable();
+		if (!(photoIds instanceof PhotoIdSet)) {
+			return super.addAll(photoIds);
+		}
+		int oldSize = size;
+		bits.or(((PhotoIdSet) photoIds).bits);
+		size = bits.cardinality();
+		return size != oldSize;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean removeAll(Collection<?> photoIds) {
+		assertIsMutable();
+		if (!(photoIds instanceof PhotoIdSet)) {
+			return super.removeAll(photoIds);
+		}
+		int oldSize = size;
+		bits.andNot(((PhotoIdSet) photoIds).bits);
+		size = bits.cardinality();
+		return size != oldSize;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean retainAll(Collection<?> photoIds) {
+		assertIsMutable();
+		if (!(photoIds instanceof PhotoIdSet)) {
+			return super.retainAll(photoIds);
+		}
+		int oldSize = size;
+		bits.and(((PhotoIdSet) photoIds).bits);
+		size = bits.cardinality();
+		return size != oldSize;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void clear() {
+		assertIsMutable();
+		bits.clear();
+		size = 0;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Makes this set unmodifiable; copies of it are modifiable again.
+	 *
+	 * @methodtype command
+	 */
+	public PhotoIdSet freeze() {
+		isFrozen = true;
+		return this;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isFrozen() {
+		return isFrozen;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsMutable() {
+		if (isFrozen) {
+			throw new UnsupportedOperationException("photo id set is frozen");
+		}
+	}
+
+	/**
+	 * Returns a photo id of the set picked at random, or PhotoId.NULL_ID if the set is empty. Every id is equally
+	 * likely, as the k-th id is picked for a k drawn from [0, size()).
+	 *
+	 * @methodtype get
+	 */
+	public PhotoId getRandomPhotoId(Random random) {
+		if (size == 0) {
+			return PhotoId.NULL_ID;
+		}
+
+		int k = random.nextInt(size);
+		long[] words = getWords();
+		for (int i = 0; i < words.length; i++) {
+			int noBits = Long.bitCount(words[i]);
+			if (k < noBits) {
+				return PhotoId.getIdFromInt(i * Long.SIZE + getSetBit(words[i], k));
+			}
+			k -= noBits;
+		}
+		throw new IllegalStateException("size " + size + " exceeds the number of ids in the set");
+	}
+
+	/**
+	 * Copies the bits into words of 64 each; the copy of a frozen set is kept, as it cannot change anymore.
+	 *
+	 * @methodtype get
+	 */
+	protected long[] getWords() {
+		if (!isFrozen) {
+			return bits.toLongArray();
+		}
+
+		long[] result = frozenWords;
+		if (result == null) {
+			result = bits.toLongArray();
+			frozenWords = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index of the k-th set bit of the word, counting from the lowest.
+	 *
+	 * @methodtype get
+	 */
+	protected static int getSetBit(long word, int k) {
+		for (int i = 0; i < k; i++) {
+			word &= word - 1;
+		}
+		return Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public Iterator<PhotoId> iterator() {
+		return new Iterator<PhotoId>() {
+			private int next = bits.nextSetBit(0);
+			private int last = -1;
+			private int expectedSize = size;
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public PhotoId next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				if (expectedSize != size) {
+					throw new ConcurrentModificationException();
+				}
+				last = next;
+				next = bits.nextSetBit(next + 1);
+				return PhotoId.getIdFromInt(last);
+			}
+
+			@Override
+			public void remove() {
+				assertIsMutable();
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				bits.clear(last);
+				size--;
+				expectedSize = size;
+				last = -1;
+			}
+		};
+	}
+
+}
@@ -20,24 +20,39 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.model.persistence.ImageCache;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.caching.Cache;
+import org.wahlzeit.services.caching.CacheLoader;
+import org.wahlzeit.services.caching.CacheStats;
+import org.wahlzeit.services.caching.EvictionFilter;
+import org.wahlzeit.services.caching.LruCache;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -52,21 +67,112 @@ public class PhotoManager extends ObjectManager {
 
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
+	/**
+	 * Maximum number of photos held in memory; evicted photos are read through from the datastore again. Photos with
+	 * unsaved changes are never evicted, so the cache may exceed its capacity until they are saved.
+	 */
+	public static final int DEFAULT_PHOTO_CACHE_CAPACITY = 10000;
+
+	/**
+	 * Number of unknown photo ids remembered, and for how long; photos may be created by other instances of the
+	 * application, so a miss is looked up again once it expired
+	 */
+	public static final int MISSING_PHOTO_CACHE_CAPACITY = 1000;
+	public static final long MISSING_PHOTO_MILLIS = 10 * 1000;
+
 	/**
 	 * In-memory cache for photos
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected Cache<PhotoId, Photo> photoCache = null;
+
+	/**
+	 * Ids of all photos, cached or not
+	 */
+	protected Set<PhotoId> photoIds = Collections.newSetFromMap(new ConcurrentHashMap<PhotoId, Boolean>());
+
+	/**
+	 * Datastore ids of the photos stored before the id was derived from the PhotoId, so that they can be read
+	 * through again after they were evicted
+	 */
+	protected final ConcurrentMap<PhotoId, Long> legacyDatastoreIds = new ConcurrentHashMap<PhotoId, Long>();
+
+	/**
+	 * Ids of photos that were not found in the datastore, with the time of the lookup
+	 */
+	protected final Cache<PhotoId, Long> missingPhotoIds = new LruCache<PhotoId, Long>(MISSING_PHOTO_CACHE_CAPACITY);
+
+	/**
+	 * Reads photos that are not in the cache through from the datastore, unless they were just found missing
+	 */
+	protected CacheLoader<PhotoId, Photo> photoLoader = new CacheLoader<PhotoId, Photo>() {
+		@Override
+		public Photo load(PhotoId id) {
+			Long missingSince = missingPhotoIds.get(id);
+			long now = System.currentTimeMillis();
+			if (missingSince != null && now - missingSince < MISSING_PHOTO_MILLIS) {
+				return null;
+			}
+
+			Photo result = doLoadPhoto(id);
+			if (result != null) {
+				doRegisterPhoto(result);
+			} else {
+				missingPhotoIds.put(id, now);
+			}
+			return result;
+		}
+	};
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * Number of photo saves and the datastore calls they took
+	 */
+	protected final AtomicLong noPhotoSaves = new AtomicLong();
+	protected final AtomicLong noPhotoSaveCalls = new AtomicLong();
+
+	/**
+	 * Name of the system property (see appengine-web.xml) that selects the StartupMode
+	 */
+	public static final String STARTUP_MODE_PROPERTY = "wahlzeit.photos.startupMode";
+
+	/**
+	 * EAGER loads all photos and warms up the image cache before serving. METADATA loads all photos and warms up the
+	 * images in the background. LAZY serves right away and does both in the background; until the photos are loaded,
+	 * photoIds and the PhotoTagIndex stay empty, so browsing and searching show no photos, while photos requested by
+	 * id are read through.
+	 */
+	public enum StartupMode {
+		EAGER, METADATA, LAZY
+	}
+
+	/**
+	 * Name of the system property (see appengine-web.xml) that selects the TagStorage
+	 */
+	public static final String TAG_STORAGE_PROPERTY = "wahlzeit.tags.storage";
+
+	/**
+	 * Photos always store their terms as an indexed property. ENTITIES also keeps a Tag entity per term of a photo,
+	 * for queries by tag text outside of the application; PROPERTY does without that entity kind.
+	 */
+	public enum TagStorage {
+		ENTITIES, PROPERTY
+	}
+
+	/**
+	 *
+	 */
+	protected volatile PhotoWarmUp warmUp = null;
+
 	/**
 	 *
 	 */
 	public PhotoManager() {
 		photoTagCollector = VegetablePhotoFactory.getInstance().createPhotoTagCollector();
+		setPhotoCache(new LruCache<PhotoId, Photo>(DEFAULT_PHOTO_CACHE_CAPACITY));
 	}
 
 	/**
@@ -105,12 +211,42 @@ public class PhotoManager extends ObjectManager {
 			return null;
 		}
 
-		Photo result = doGetPhotoFromId(id);
+		return doGetPhotoFromId(id);
+	}
 
-		if (result == null) {
-			result = VegetablePhotoFactory.getInstance().loadPhoto(id);
-			if (result != null) {
-				doAddPhoto(result);
+	/**
+	 * @methodtype get
+	 * @methodproperties primitive
+	 */
+	protected Photo doGetPhotoFromId(PhotoId id) {
+		return photoCache.get(id, photoLoader);
+	}
+
+	/**
+	 * Returns the photos with the given ids that exist. Cached photos are resolved locally, all others are loaded
+	 * from the datastore in a single batch.
+	 *
+	 * @methodtype get
+	 */
+	public Map<PhotoId, Photo> getPhotos(Collection<PhotoId> ids) {
+		Map<PhotoId, Photo> result = new HashMap<PhotoId, Photo>();
+		Map<PhotoId, Long> missingIds = new HashMap<PhotoId, Long>();
+		for (PhotoId id : ids) {
+			if (id == null || result.containsKey(id)) {
+				continue;
+			}
+
+			Photo photo = photoCache.get(id);
+			if (photo != null) {
+				result.put(id, photo);
+			} else {
+				missingIds.put(id, getDatastoreId(id));
+			}
+		}
+
+		if (!missingIds.isEmpty()) {
+			for (Photo photo : VegetablePhotoFactory.getInstance().loadPhotos(missingIds).values()) {
+				result.put(photo.getId(), doAddPhoto(photo));
 			}
 		}
 
@@ -118,19 +254,52 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
+	 * Reads a single photo from the datastore; returns null if there is no such photo.
+	 *
 	 * @methodtype get
 	 * @methodproperties primitive
 	 */
-	protected Photo doGetPhotoFromId(PhotoId id) {
-		return photoCache.get(id);
+	protected Photo doLoadPhoto(PhotoId id) {
+		return VegetablePhotoFactory.getInstance().loadPhoto(id, getDatastoreId(id));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getDatastoreId(PhotoId id) {
+		Long result = legacyDatastoreIds.get(id);
+		return (result != null) ? result : id.asInt();
 	}
 
 	/**
+	 * Records the id and owner of a photo, whether it is cached or not.
+	 *
 	 * @methodtype command
 	 * @methodproperties primitive
 	 */
-	protected void doAddPhoto(Photo myPhoto) {
-		photoCache.put(myPhoto.getId(), myPhoto);
+	protected void doRegisterPhoto(Photo photo) {
+		photoIds.add(photo.getId());
+		missingPhotoIds.remove(photo.getId());
+		if (photo.getDatastoreId() != photo.getId().asInt()) {
+			legacyDatastoreIds.put(photo.getId(), photo.getDatastoreId());
+		}
+		PhotoOwnerIndex.getInstance().addPhoto(photo.getOwnerId(), photo.getId());
+		Set<String> terms = new HashSet<String>();
+		photoTagCollector.collect(terms, photo);
+		PhotoTagIndex.getInstance().updatePhoto(photo.getId(), terms, photo.isVisible());
+		PhotoTagIndex.getInstance().setPraise(photo.getId(), photo.getPraiseSum(), photo.getNoVotes());
+	}
+
+	/**
+	 * Adds the photo unless another instance with the same id is cached already, which is returned instead.
+	 *
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected Photo doAddPhoto(Photo myPhoto) {
+		doRegisterPhoto(myPhoto);
+		Photo previous = photoCache.putIfAbsent(myPhoto.getId(), myPhoto);
+		return (previous != null) ? previous : myPhoto;
 	}
 
 	/**
@@ -141,10 +310,91 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype init Loads all Photos from the Datastore and holds them in the cache
+	 * @methodtype init Loads the Photos from the Datastore and warms up the caches as the StartupMode says
 	 */
 	public void init() {
-		loadPhotos();
+		StartupMode startupMode = getStartupMode();
+		log.config(LogBuilder.createSystemMessage().
+				addAction("init PhotoManager").
+				addParameter("startup mode", startupMode).toString());
+
+		if (startupMode == StartupMode.LAZY) {
+			startWarmUp(true);
+		} else {
+			loadPhotos();
+			if (startupMode == StartupMode.EAGER) {
+				runWarmUp(false);
+			} else {
+				startWarmUp(false);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected StartupMode getStartupMode() {
+		String value = SysConfig.getProperty(STARTUP_MODE_PROPERTY, StartupMode.METADATA.name());
+		try {
+			return StartupMode.valueOf(value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("startup mode", value).
+					addException("unknown startup mode, using METADATA", e).toString());
+			return StartupMode.METADATA;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected TagStorage getTagStorage() {
+		String value = SysConfig.getProperty(TAG_STORAGE_PROPERTY, TagStorage.ENTITIES.name());
+		try {
+			return TagStorage.valueOf(value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("tag storage", value).
+					addException("unknown tag storage, using ENTITIES", e).toString());
+			return TagStorage.ENTITIES;
+		}
+	}
+
+	/**
+	 * Runs the warm-up on a background thread; where those are not available, e.g. on automatically scaled
+	 * instances, it runs as part of the current request instead.
+	 *
+	 * @methodtype command
+	 */
+	protected void startWarmUp(boolean isLoadingPhotos) {
+		ThreadFactory threadFactory = ThreadManager.backgroundThreadFactory();
+		warmUp = new PhotoWarmUp(this, isLoadingPhotos, threadFactory);
+		try {
+			threadFactory.newThread(warmUp).start();
+		} catch (RuntimeException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("no background thread for warm-up, running it in this request", e).toString());
+			runWarmUp(isLoadingPhotos);
+		}
+	}
+
+	/**
+	 * Runs the warm-up as part of the current request.
+	 *
+	 * @methodtype command
+	 */
+	protected void runWarmUp(boolean isLoadingPhotos) {
+		warmUp = new PhotoWarmUp(this, isLoadingPhotos, ThreadManager.currentRequestThreadFactory());
+		warmUp.run();
+	}
+
+	/**
+	 * Returns the warm-up started by init, or null if init has not been called.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoWarmUp getWarmUp() {
+		return warmUp;
 	}
 
 	/**
@@ -166,7 +416,6 @@ public class PhotoManager extends ObjectManager {
 			if (!doHasPhoto(photo.getId())) {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
 				doAddPhoto(photo);
 			} else {
 				log.config(LogBuilder.createSystemMessage().
@@ -174,7 +423,9 @@ public class PhotoManager extends ObjectManager {
 			}
 		}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").
+				addParameter("number of photos", photoIds.size()).
+				addParameter("number of cached photos", photoCache.size()).toString());
 	}
 
 	/**
@@ -188,32 +439,43 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * Loads all scaled Images of this Photo into the ImageCache, so that the first requests need not wait for them.
+	 * The sizes that are not cached yet are read concurrently.
 	 */
 	protected void loadScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
+		ImageCache imageCache = ImageCache.getInstance();
 		ImageStorage imageStorage = ImageStorage.getInstance();
 
+		Map<PhotoSize, Future<Serializable>> reads = new LinkedHashMap<PhotoSize, Future<Serializable>>();
 		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
-					addAction("loading image").
-					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
-				}
-			} else {
+			if (!imageCache.hasImage(photoIdAsString, photoSize.asInt())) {
 				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+						addAction("loading image").
+						addParameter("image size", photoSize.asString()).
+						addParameter("photo ID", photoIdAsString).toString());
+				reads.put(photoSize, imageStorage.readImageAsync(photoIdAsString, photoSize.asInt()));
+			}
+		}
+
+		for (Map.Entry<PhotoSize, Future<Serializable>> read : reads.entrySet()) {
+			PhotoSize photoSize = read.getKey();
+			try {
+				Serializable image = read.getValue().get();
+				if (image instanceof Image) {
+					imageCache.putImage(photoIdAsString, photoSize.asInt(), (Image) image);
+				} else {
+					log.config(LogBuilder.createSystemMessage().
+							addParameter("Size does not exist", photoSize.asString()).toString());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("photo ID", photoIdAsString).
+						addParameter("image size", photoSize.asString()).
+						addException("Problem when loading image", e.getCause()).toString());
 			}
 		}
 	}
@@ -225,80 +487,191 @@ public class PhotoManager extends ObjectManager {
 		updateObject(photo);
 	}
 
+	/**
+	 * Writes the photo and reports how many datastore calls the save took.
+	 */
+	@Override
+	protected void writeObject(Persistent object) {
+		if (!(object instanceof Photo) || !object.isDirty()) {
+			super.writeObject(object);
+			return;
+		}
+
+		Photo photo = (Photo) object;
+		Set<Photo.FieldGroup> changedFieldGroups = photo.getChangedFieldGroups();
+		int noCallsBefore = getNoDatastoreCalls();
+
+		// the terms are saved with the photo, so the diff against those of the last save must be taken before; the
+		// Tags are written first, so that a saved photo never has terms without Tags
+		List<String> savedTerms = photo.getTerms();
+		boolean areTermsChanged = changedFieldGroups.contains(Photo.FieldGroup.TAGS) ||
+				changedFieldGroups.contains(Photo.FieldGroup.OWNER);
+		try {
+			if (areTermsChanged) {
+				Set<String> terms = new HashSet<String>();
+				photoTagCollector.collect(terms, photo);
+				photo.setTerms(terms);
+				updateTags(photo, savedTerms);
+			}
+			super.writeObject(photo);
+		} catch (RuntimeException ex) {
+			// some Tags may be written already, so the next save has to look up the stored Tags instead of diffing
+			if (areTermsChanged) {
+				photo.setTerms(null);
+			}
+			throw ex;
+		} finally {
+			photo.getTags().afterSave();
+		}
+		photo.resetChangedFieldGroups(changedFieldGroups);
+
+		int noCalls = getNoDatastoreCalls() - noCallsBefore;
+		noPhotoSaves.incrementAndGet();
+		noPhotoSaveCalls.addAndGet(noCalls);
+		log.info(LogBuilder.createSystemMessage().
+				addAction("save photo").
+				addParameter("photo ID", photo.getIdAsString()).
+				addParameter("changed", changedFieldGroups).
+				addParameter("datastore calls", noCalls).toString());
+	}
+
+	/**
+	 * Only updates the dependents whose inputs have changed: a new praise or status needs no more than the photo
+	 * entity itself. Tags are updated by writeObject, as they are diffed against the terms of the previous save.
+	 */
 	@Override
 	protected void updateDependents(Persistent obj) {
 		if (obj instanceof Photo) {
 			Photo photo = (Photo) obj;
-			saveScaledImages(photo);
-			updateTags(photo);
-			UserManager userManager = UserManager.getInstance();
-			Client owner = userManager.getClientById(photo.getOwnerId());
+			Set<Photo.FieldGroup> changedFieldGroups = photo.getChangedFieldGroups();
+			if (changedFieldGroups.contains(Photo.FieldGroup.STATUS)) {
+				PhotoTagIndex.getInstance().setVisible(photo.getId(), photo.isVisible());
+			}
+			if (changedFieldGroups.contains(Photo.FieldGroup.PRAISE)) {
+				PhotoTagIndex.getInstance().setPraise(photo.getId(), photo.getPraiseSum(), photo.getNoVotes());
+			}
+			if (changedFieldGroups.contains(Photo.FieldGroup.IMAGES)) {
+				saveScaledImages(photo);
+			}
+			if (changedFieldGroups.contains(Photo.FieldGroup.OWNER)) {
+				saveOwner(photo);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void saveOwner(Photo photo) {
+		if (photo.getOwnerId() == null) {
+			return;
+		}
+
+		UserManager userManager = UserManager.getInstance();
+		Client owner = userManager.getClientById(photo.getOwnerId());
+		if (owner != null) {
 			userManager.saveClient(owner);
 		}
 	}
 
 	/**
-	 * @methodtype helper
+	 * @methodtype get
+	 */
+	public long getNoPhotoSaves() {
+		return noPhotoSaves.get();
+	}
+
+	/**
+	 * Returns the number of datastore calls made by all photo saves, including their dependents.
+	 *
+	 * @methodtype get
 	 */
-	public List<Tag> addTagsThatMatchCondition(List<Tag> tags, String condition) {
-		readObjects(tags, Tag.class, Tag.TEXT, condition);
-		return tags;
+	public long getNoPhotoSaveCalls() {
+		return noPhotoSaveCalls.get();
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * Persists all sizes of the Photo that are not stored yet, concurrently. If one size exceeds the limit of the
+	 * persistence layer, e.g. > 1MB for the Datastore, or fails otherwise, it is reported and stays unsaved, while
+	 * the other sizes are still persisted.
 	 */
 	protected void saveScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
 		ImageStorage imageStorage = ImageStorage.getInstance();
-		PhotoSize photoSize;
-		int it = 0;
-		boolean moreSizesExist = true;
-		do{
-			photoSize = PhotoSize.values()[it];
-			it++;
-			Image image = photo.getImage(photoSize);
-			if (image != null) {
-				try {
-					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
-					}
-				} catch (Exception e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addException("Problem when storing image", e).toString());
-					moreSizesExist = false;
-				}
-			} else {
+
+		Map<PhotoSize, Future<Void>> writes = new LinkedHashMap<PhotoSize, Future<Void>>();
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			Image image = photo.getUnsavedImage(photoSize);
+			if (image == null) {
 				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
-				moreSizesExist = false;
+						addParameter("No unsaved image for size", photoSize.asString()).toString());
+				continue;
 			}
-		} while (it < PhotoSize.values().length && moreSizesExist);
+
+			// an unsaved image is not stored yet, so there is no need to ask the storage first
+			countDatastoreCall();
+			writes.put(photoSize, imageStorage.writeImageAsync(image, photoIdAsString, photoSize.asInt()));
+		}
+
+		for (Map.Entry<PhotoSize, Future<Void>> write : writes.entrySet()) {
+			PhotoSize photoSize = write.getKey();
+			try {
+				write.getValue().get();
+				photo.setImageSaved(photoSize);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("photo ID", photoIdAsString).
+						addParameter("image size", photoSize.asString()).
+						addException("Problem when storing image", e.getCause()).toString());
+			}
+		}
 	}
 
 	/**
-	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * Updates the PhotoTagIndex and, with TagStorage.ENTITIES, the Tag entities of the photo after its terms changed:
+	 * only Tags of added or removed terms are written, in one batch each. The Tags of removed terms are looked up
+	 * first, as are all Tags of photos whose saved terms are unknown.
 	 */
-	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
+	protected void updateTags(Photo photo, List<String> savedTerms) {
+		Set<String> terms = new HashSet<String>(photo.getTerms());
+		PhotoTagIndex.getInstance().updatePhoto(photo.getId(), terms, photo.isVisible());
+		if (getTagStorage() != TagStorage.ENTITIES) {
+			return;
+		}
+
+		String photoIdAsString = photo.getId().asString();
+		Set<String> newTerms = new HashSet<String>(terms);
+		List<Tag> obsoleteTags = new ArrayList<Tag>();
+		if (savedTerms == null || !terms.containsAll(savedTerms)) {
+			List<Tag> existingTags = new ArrayList<Tag>();
+			readObjects(existingTags, Tag.class, Tag.PHOTO_ID, photoIdAsString);
+			for (Tag tag : existingTags) {
+				// what remains in newTerms afterwards is not stored yet
+				if (!newTerms.remove(tag.getText())) {
+					obsoleteTags.add(tag);
+				}
+			}
+		} else {
+			newTerms.removeAll(savedTerms);
+		}
+		deleteObjects(obsoleteTags);
 
-		// add all current tags to the datastore
-		Set<String> tags = new HashSet<String>();
-		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
+		List<Tag> newTags = new ArrayList<Tag>(newTerms.size());
+		for (String text : newTerms) {
+			Tag tag = new Tag(text, photoIdAsString);
 			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+			newTags.add(tag);
 		}
+		writeObjects(newTags);
 	}
 
 	/**
-	 *
+	 * Photos with unsaved changes are kept in the cache, so saving the cached photos saves all of them.
 	 */
 	public void savePhotos() throws IOException{
 		updateObjects(photoCache.values());
@@ -307,24 +680,77 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype get
 	 */
-	public Map<PhotoId, Photo> getPhotoCache() {
+	public Cache<PhotoId, Photo> getPhotoCache() {
 		return photoCache;
 	}
 
 	/**
+	 * Replaces the photo cache, e.g. with one of another capacity. Cached photos are not carried over.
 	 *
+	 * @methodtype set
+	 */
+	public void setPhotoCache(Cache<PhotoId, Photo> newPhotoCache) {
+		newPhotoCache.setEvictionFilter(new EvictionFilter<Photo>() {
+			@Override
+			public boolean isEvictable(Photo photo) {
+				return !photo.isDirty();
+			}
+		});
+		photoCache = newPhotoCache;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStats getPhotoCacheStats() {
+		return photoCache.getStats();
+	}
+
+	/**
+	 * Returns the ids of all known photos, including those that are currently not cached.
+	 *
+	 * @methodtype get
+	 */
+	public Set<PhotoId> getPhotoIds() {
+		return Collections.unmodifiableSet(photoIds);
+	}
+
+	/**
+	 * Returns the photos that were praised since their owners were last notified, as found by a datastore query.
+	 * Cached photos are returned instead of their loaded copies, as only those are up to date.
+	 */
+	public Collection<Photo> findPhotosWithNewPraise() {
+		List<Photo> loadedPhotos = new ArrayList<Photo>();
+		readObjects(loadedPhotos, Photo.class, Photo.HAS_NEW_PRAISE, true);
+
+		List<Photo> result = new ArrayList<Photo>(loadedPhotos.size());
+		for (Photo photo : loadedPhotos) {
+			result.add(doAddPhoto(photo));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the photos of the owner, as found in the PhotoOwnerIndex.
 	 */
 	public Set<Photo> findPhotosByOwner(String ownerName) {
 		Set<Photo> result = new HashSet<Photo>();
-		readObjects(result, Photo.class, Photo.OWNER_ID, ownerName);
-
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+		for (Photo photo : getPhotos(findPhotoIdsByOwner(ownerName)).values()) {
+			if (ownerName.equals(photo.getOwnerId())) {
+				result.add(photo);
+			}
 		}
 
 		return result;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public Set<PhotoId> findPhotoIdsByOwner(String ownerName) {
+		return PhotoOwnerIndex.getInstance().getPhotoIds(ownerName);
+	}
+
 	/**
 	 *
 	 */
@@ -337,7 +763,13 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Photo createPhoto(String filename, Image uploadedImage) throws Exception {
-		PhotoId id = PhotoId.getNextId();
+		return createPhoto(PhotoId.getNextId(), filename, uploadedImage);
+	}
+
+	/**
+	 * Creates the photo under an id that was reserved beforehand.
+	 */
+	public Photo createPhoto(PhotoId id, String filename, Image uploadedImage) throws Exception {
 		Photo result = PhotoUtil.createPhoto(filename, id, uploadedImage);
 		addPhoto(result);
 		return result;
@@ -350,8 +782,6 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
-
-		GlobalsManager.getInstance().saveGlobals();
 	}
 
 	/**
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.StringUtil;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory secondary index from owner to the ids of the owner's photos. It is kept up to date as photos are loaded
+ * and as they change their owner, so that owner lookups need not query the datastore. Owners are indexed by their
+ * exact id, as different ids may share the same name as a tag (see Tags.asTag).
+ */
+public class PhotoOwnerIndex {
+
+	/**
+	 *
+	 */
+	protected static final PhotoOwnerIndex instance = new PhotoOwnerIndex();
+
+	/**
+	 *
+	 */
+	protected final ConcurrentMap<String, Set<PhotoId>> photoIdsByOwner =
+			new ConcurrentHashMap<String, Set<PhotoId>>();
+
+	/**
+	 *
+	 */
+	public static PhotoOwnerIndex getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns a snapshot of the ids of all photos of the owner.
+	 *
+	 * @methodtype get
+	 */
+	public Set<PhotoId> getPhotoIds(String ownerId) {
+		if (StringUtil.isNullOrEmptyString(ownerId)) {
+			return new HashSet<PhotoId>();
+		}
+
+		Set<PhotoId> photoIds = photoIdsByOwner.get(ownerId);
+		if (photoIds == null) {
+			return new HashSet<PhotoId>();
+		}
+		return new HashSet<PhotoId>(photoIds);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addPhoto(String ownerId, PhotoId photoId) {
+		if (StringUtil.isNullOrEmptyString(ownerId) || photoId == null) {
+			return;
+		}
+
+		Set<PhotoId> photoIds = photoIdsByOwner.get(ownerId);
+		if (photoIds == null) {
+			Set<PhotoId> newPhotoIds = Collections.newSetFromMap(new ConcurrentHashMap<PhotoId, Boolean>());
+			photoIds = photoIdsByOwner.putIfAbsent(ownerId, newPhotoIds);
+			if (photoIds == null) {
+				photoIds = newPhotoIds;
+			}
+		}
+		photoIds.add(photoId);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removePhoto(String ownerId, PhotoId photoId) {
+		if (StringUtil.isNullOrEmptyString(ownerId) || photoId == null) {
+			return;
+		}
+
+		Set<PhotoId> photoIds = photoIdsByOwner.get(ownerId);
+		if (photoIds != null) {
+			photoIds.remove(photoId);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void changeOwner(PhotoId photoId, String oldOwnerId, String newOwnerId) {
+		removePhoto(oldOwnerId, photoId);
+		addPhoto(newOwnerId, photoId);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		photoIdsByOwner.clear();
+	}
+
+}
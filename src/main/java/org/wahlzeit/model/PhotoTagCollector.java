@@ -40,9 +40,9 @@ public class PhotoTagCollector {
 			tags.add("tg:" + ownerNameAsTag);
 		}
 
-		String[] photoTags = photo.getTags().asArray();
-		for (int i = 0; i < photoTags.length; i++) {
-			tags.add("tg:" + photoTags[i]);
+		Tags photoTags = photo.getTags();
+		for (int i = 0; i < photoTags.getSize(); i++) {
+			tags.add("tg:" + photoTags.getTag(i));
 		}
 	}
 
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.indexing.PostingList;
+import org.wahlzeit.services.indexing.TermIndexListener;
+import org.wahlzeit.services.indexing.TermSuggester;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index from the terms of photos, as collected by a PhotoTagCollector (e.g. "un:..." and
+ * "tg:..."), to the ids of the photos that carry them. It also knows which photos are visible, so that photo filters
+ * can be evaluated without querying the datastore. The index is updated incrementally as photos are loaded and saved,
+ * and tells the PhotoFilterCache which of its results changed. Suggestions for incomplete terms and the statistics of
+ * terms are kept by a TermSuggester and a TermStatisticsIndex, which listen to the changes of the index.
+ */
+public class PhotoTagIndex {
+
+	/**
+	 *
+	 */
+	protected static final PhotoTagIndex instance = new PhotoTagIndex();
+
+	/**
+	 *
+	 */
+	protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 *
+	 */
+	protected final Map<String, PostingList> postingLists = new HashMap<String, PostingList>();
+	protected final Map<Integer, Set<String>> termsByPhoto = new HashMap<Integer, Set<String>>();
+	protected PostingList visiblePhotoIds = new PostingList();
+
+	/**
+	 *
+	 */
+	protected final TermSuggester termSuggester = new TermSuggester();
+	protected final TermStatisticsIndex termStatistics = new TermStatisticsIndex();
+	protected final List<TermIndexListener> listeners = new CopyOnWriteArrayList<TermIndexListener>();
+
+	/**
+	 *
+	 */
+	public PhotoTagIndex() {
+		addListener(termSuggester);
+		addListener(termStatistics);
+	}
+
+	/**
+	 *
+	 */
+	public static PhotoTagIndex getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addListener(TermIndexListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Replaces the indexed terms and visibility of the photo, touching only the posting lists of changed terms.
+	 *
+	 * @methodtype command
+	 */
+	public void updatePhoto(PhotoId photoId, Set<String> terms, boolean isVisible) {
+		int value = photoId.asInt();
+		Set<String> newTerms = new HashSet<String>(terms);
+		Set<String> changedTerms = new HashSet<String>();
+		boolean wasVisible;
+
+		lock.writeLock().lock();
+		try {
+			wasVisible = visiblePhotoIds.contains(value);
+			Set<String> oldTerms = termsByPhoto.put(value, newTerms);
+			if (oldTerms != null) {
+				for (String term : oldTerms) {
+					if (!newTerms.contains(term)) {
+						doRemove(term, value);
+						changedTerms.add(term);
+					}
+				}
+			}
+			for (String term : newTerms) {
+				if (oldTerms == null || !oldTerms.contains(term)) {
+					doAdd(term, value);
+					changedTerms.add(term);
+				}
+			}
+			doSetVisible(value, isVisible);
+			if (wasVisible != isVisible && oldTerms != null) {
+				changedTerms.addAll(oldTerms);
+				changedTerms.addAll(newTerms);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (wasVisible || isVisible) {
+			PhotoFilterCache.getInstance().invalidate(changedTerms, wasVisible != isVisible);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setVisible(PhotoId photoId, boolean isVisible) {
+		int value = photoId.asInt();
+		boolean wasVisible;
+		Set<String> terms;
+
+		lock.writeLock().lock();
+		try {
+			wasVisible = visiblePhotoIds.contains(value);
+			doSetVisible(value, isVisible);
+			terms = termsByPhoto.get(value);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (wasVisible != isVisible) {
+			invalidateFilterResults(terms);
+		}
+	}
+
+	/**
+	 * Sets the praise of the photo, which updates the statistics of all its terms. The read lock keeps the terms of
+	 * the photo from changing meanwhile, while queries of the index go on.
+	 *
+	 * @methodtype set
+	 */
+	public void setPraise(PhotoId photoId, int praiseSum, int noVotes) {
+		int value = photoId.asInt();
+
+		lock.readLock().lock();
+		try {
+			termStatistics.setPraise(value, praiseSum, noVotes, termsByPhoto.get(value));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removePhoto(PhotoId photoId) {
+		int value = photoId.asInt();
+		boolean wasVisible;
+		Set<String> oldTerms;
+
+		lock.writeLock().lock();
+		try {
+			oldTerms = termsByPhoto.remove(value);
+			if (oldTerms != null) {
+				for (String term : oldTerms) {
+					doRemove(term, value);
+				}
+			}
+			wasVisible = visiblePhotoIds.remove(value);
+			for (TermIndexListener listener : listeners) {
+				listener.onValueRemoved(value);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (wasVisible) {
+			invalidateFilterResults(oldTerms);
+		}
+	}
+
+	/**
+	 * Drops the cached filter results a photo with the given terms appears in or disappears from.
+	 *
+	 * @methodtype command
+	 */
+	protected void invalidateFilterResults(Set<String> terms) {
+		Set<String> conditions = (terms == null) ? Collections.<String>emptySet() : terms;
+		PhotoFilterCache.getInstance().invalidate(conditions, true);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			postingLists.clear();
+			termsByPhoto.clear();
+			visiblePhotoIds = new PostingList();
+			for (TermIndexListener listener : listeners) {
+				listener.onCleared();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		PhotoFilterCache.getInstance().clear();
+	}
+
+	/**
+	 * Returns the terms the photo is indexed by.
+	 *
+	 * @methodtype get
+	 */
+	public Set<String> getTerms(PhotoId photoId) {
+		lock.readLock().lock();
+		try {
+			Set<String> terms = termsByPhoto.get(photoId.asInt());
+			return (terms == null) ? Collections.<String>emptySet() : new HashSet<String>(terms);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoIdSet getPhotoIds(String term) {
+		return matchAny(Collections.singleton(term));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoIdSet getVisiblePhotoIds() {
+		lock.readLock().lock();
+		try {
+			return new PhotoIdSet(visiblePhotoIds.asBitSet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all photos that carry at least one of the terms.
+	 *
+	 * @methodtype query
+	 */
+	public PhotoIdSet matchAny(Collection<String> terms) {
+		lock.readLock().lock();
+		try {
+			PostingList result = new PostingList();
+			for (String term : terms) {
+				PostingList postingList = postingLists.get(term);
+				if (postingList != null) {
+					result = PostingList.or(result, postingList);
+				}
+			}
+			return new PhotoIdSet(result.asBitSet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all photos that carry every one of the terms; no terms match no photos.
+	 *
+	 * @methodtype query
+	 */
+	public PhotoIdSet matchAll(Collection<String> terms) {
+		lock.readLock().lock();
+		try {
+			PostingList result = null;
+			for (String term : terms) {
+				PostingList postingList = postingLists.get(term);
+				if (postingList == null) {
+					return new PhotoIdSet();
+				}
+				result = (result == null) ? postingList.copy() : PostingList.and(result, postingList);
+				if (result.isEmpty()) {
+					break;
+				}
+			}
+			return (result == null) ? new PhotoIdSet() : new PhotoIdSet(result.asBitSet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns up to limit terms that start with prefix, with their number of photos, most frequent first.
+	 *
+	 * @methodtype query
+	 */
+	public Map<String, Integer> getSuggestions(String prefix, int limit) {
+		return termSuggester.getSuggestions(prefix, limit);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotos(String term) {
+		return termSuggester.getCount(term);
+	}
+
+	/**
+	 * Returns the statistics of the term, or null if no photo carries it.
+	 *
+	 * @methodtype get
+	 */
+	public TermStatistics getStatistics(String term) {
+		return termStatistics.getStatistics(term);
+	}
+
+	/**
+	 * Returns the statistics of up to limit terms that start with prefix (e.g. "tg:"), those with most photos first.
+	 *
+	 * @methodtype query
+	 */
+	public List<TermStatistics> getMostFrequentTerms(String prefix, int limit) {
+		return termStatistics.getMostFrequentTerms(prefix, limit);
+	}
+
+	/**
+	 * Returns the statistics of up to limit terms that start with prefix (e.g. "tg:"), those with most praise first.
+	 *
+	 * @methodtype query
+	 */
+	public List<TermStatistics> getMostPraisedTerms(String prefix, int limit) {
+		return termStatistics.getMostPraisedTerms(prefix, limit);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoTerms() {
+		lock.readLock().lock();
+		try {
+			return postingLists.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAdd(String term, int value) {
+		PostingList postingList = postingLists.get(term);
+		if (postingList == null) {
+			postingList = new PostingList();
+			postingLists.put(term, postingList);
+		}
+		if (postingList.add(value)) {
+			for (TermIndexListener listener : listeners) {
+				listener.onTermAdded(term, value, postingList.size());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRemove(String term, int value) {
+		PostingList postingList = postingLists.get(term);
+		if (postingList != null) {
+			if (postingList.remove(value)) {
+				for (TermIndexListener listener : listeners) {
+					listener.onTermRemoved(term, value, postingList.size());
+				}
+			}
+			if (postingList.isEmpty()) {
+				postingLists.remove(term);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 * @methodproperties primitive
+	 */
+	protected void doSetVisible(int value, boolean isVisible) {
+		if (isVisible) {
+			visiblePhotoIds.add(value);
+		} else {
+			visiblePhotoIds.remove(value);
+		}
+	}
+
+}
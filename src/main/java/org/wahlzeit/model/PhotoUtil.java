@@ -21,21 +21,100 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.Transform;
+import org.wahlzeit.model.scaling.ImageScaler;
+import org.wahlzeit.model.scaling.ImagesServiceScaler;
+import org.wahlzeit.model.scaling.Java2dImageScaler;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
 
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
  * PhotoUtil provides a set of utility functions to create defined images.
- * Images are created from a source in different sizes as needed by the app.
+ * Images are created from a source in different sizes as needed by the app; each size is scaled from the next larger
+ * one, so the source is decoded only once and every step works on a smaller image.
  */
 public class PhotoUtil {
 
+	/**
+	 * Name of the system property (see appengine-web.xml) that selects the ScalerType
+	 */
+	public static final String SCALER_PROPERTY = "wahlzeit.images.scaler";
+
+	/**
+	 * Name of the system property (see appengine-web.xml) that lists the sizes created on upload; all others are
+	 * derived when they are first requested
+	 */
+	public static final String EAGER_SIZES_PROPERTY = "wahlzeit.images.eagerSizes";
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_EAGER_SIZES = "THUMB,MEDIUM";
+
+	/**
+	 * JAVA_2D scales without the Images service, e.g. locally
+	 */
+	public enum ScalerType {
+		IMAGES_SERVICE, JAVA_2D
+	}
+
 	private static final Logger log = Logger.getLogger(PhotoUtil.class.getName());
 
+	/**
+	 *
+	 */
+	private static ImageScaler<?> scaler = null;
+
+	/**
+	 * Creates the scaler selected by the system property on first use.
+	 *
+	 * @methodtype get
+	 */
+	public static synchronized ImageScaler<?> getScaler() {
+		if (scaler == null) {
+			String value = SysConfig.getProperty(SCALER_PROPERTY, ScalerType.IMAGES_SERVICE.name());
+			ScalerType scalerType = ScalerType.IMAGES_SERVICE;
+			try {
+				scalerType = ScalerType.valueOf(value.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("scaler", value).
+						addException("unknown scaler, using IMAGES_SERVICE", e).toString());
+			}
+			scaler = (scalerType == ScalerType.JAVA_2D) ? new Java2dImageScaler() : new ImagesServiceScaler();
+		}
+		return scaler;
+	}
+
+	/**
+	 * Unknown sizes in the system property are skipped.
+	 *
+	 * @methodtype get
+	 */
+	public static Set<PhotoSize> getEagerSizes() {
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (String sizeName : SysConfig.getProperty(EAGER_SIZES_PROPERTY, DEFAULT_EAGER_SIZES).split(",")) {
+			try {
+				result.add(PhotoSize.valueOf(sizeName.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("eager size", sizeName).
+						addException("unknown photo size, skipping it", e).toString());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setScaler(ImageScaler<?> newScaler) {
+		scaler = newScaler;
+	}
+
 	/**
 	 * @methodtype creation
 	 */
@@ -62,13 +141,53 @@ public class PhotoUtil {
 		int sourceHeight = source.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
-		for (PhotoSize size : PhotoSize.values()) {
-			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
+		createImageFiles(getScaler(), source, photo);
+	}
+
+	/**
+	 * Scales the eager sizes and the largest size of the photo, which later sizes are derived from. They are scaled
+	 * from the largest to the smallest, each from the previous one; their dimensions are computed from the source, so
+	 * rounding errors do not add up.
+	 */
+	protected static <T> void createImageFiles(ImageScaler<T> scaler, Image source, Photo photo) throws Exception {
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+		PhotoSize maxSize = PhotoSize.getFromWidthHeight(sourceWidth, sourceHeight);
+		Set<PhotoSize> eagerSizes = getEagerSizes();
+
+		T scaled = scaler.decode(source);
+		PhotoSize[] sizes = PhotoSize.values();
+		for (int i = sizes.length - 1; i >= 0; i--) {
+			PhotoSize size = sizes[i];
+			boolean isEager = size == maxSize || eagerSizes.contains(size);
+			if (isEager && !size.isWiderAndHigher(sourceWidth, sourceHeight)) {
+				scaled = scaleImage(scaler, scaled, source, size, photo);
 			}
 		}
 	}
 
+	/**
+	 * Scales a stored size of a photo down to another one, using the photo's original dimensions.
+	 *
+	 * @methodtype factory
+	 */
+	public static Image createScaledImage(Image larger, int photoWidth, int photoHeight, PhotoSize size)
+			throws Exception {
+		return createScaledImage(getScaler(), larger, photoWidth, photoHeight, size);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static <T> Image createScaledImage(ImageScaler<T> scaler, Image larger, int photoWidth,
+												 int photoHeight, PhotoSize size) throws Exception {
+		int targetWidth = size.calcAdjustedWidth(photoWidth, photoHeight);
+		int targetHeight = size.calcAdjustedHeight(photoWidth, photoHeight);
+
+		T result = scaler.scale(scaler.decode(larger), targetWidth, targetHeight);
+		return scaler.encode(result, larger);
+	}
+
 	/**
 	 * @methodtype assertion
 	 */
@@ -88,23 +207,19 @@ public class PhotoUtil {
 	}
 
 	/**
-	 * @methodtype command Scale the source picture to the given size, store it in the datastore and reference it in the
+	 * @methodtype command Scale the larger picture to the given size, store it in the datastore and reference it in the
 	 * photo.
 	 */
-	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
-		int sourceWidth = source.getWidth();
-		int sourceHeight = source.getHeight();
+	protected static <T> T scaleImage(ImageScaler<T> scaler, T larger, Image source, PhotoSize size, Photo photo)
+			throws Exception {
+		int targetWidth = size.calcAdjustedWidth(source.getWidth(), source.getHeight());
+		int targetHeight = size.calcAdjustedHeight(source.getWidth(), source.getHeight());
 
-		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
-		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
-
-		ImagesService imagesService = ImagesServiceFactory.getImagesService();
-		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
-
-		photo.setImage(size, newImage);
+		T result = scaler.scale(larger, targetWidth, targetHeight);
+		photo.setImage(size, scaler.encode(result, source));
 
 		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+		return result;
 	}
 
 }
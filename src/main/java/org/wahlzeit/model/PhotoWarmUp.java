@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Warms up the PhotoManager after startup: optionally loads the photo metadata, then prefetches the scaled images of
+ * the most praised photos into the ImageCache, using a bounded pool of threads. Its progress is shown on the admin
+ * page.
+ */
+public class PhotoWarmUp implements Runnable {
+
+	/**
+	 * Names of the system properties (see appengine-web.xml) to configure the warm-up
+	 */
+	public static final String THREADS_PROPERTY = "wahlzeit.warmUp.threads";
+	public static final String MAX_PHOTOS_PROPERTY = "wahlzeit.warmUp.maxPhotos";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_THREADS = 4;
+	public static final int DEFAULT_MAX_PHOTOS = 200;
+
+	/**
+	 * Time to wait for the prefetching threads before giving up
+	 */
+	protected static final long MAX_WAIT_MINUTES = 10;
+
+	private static final Logger log = Logger.getLogger(PhotoWarmUp.class.getName());
+
+	/**
+	 *
+	 */
+	public enum State {
+		NOT_STARTED, LOADING_PHOTOS, WARMING_IMAGES, DONE, FAILED
+	}
+
+	/**
+	 *
+	 */
+	protected final PhotoManager photoManager;
+	protected final boolean isLoadingPhotos;
+	protected final ThreadFactory threadFactory;
+	protected final int noThreads;
+	protected final int maxPhotos;
+
+	/**
+	 *
+	 */
+	protected volatile State state = State.NOT_STARTED;
+	protected volatile long startTime = 0;
+	protected volatile long endTime = 0;
+	protected volatile int noPhotosToWarm = 0;
+	protected final AtomicInteger noPhotosWarmed = new AtomicInteger();
+	protected final AtomicInteger noPhotosFailed = new AtomicInteger();
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoWarmUp(PhotoManager photoManager, boolean isLoadingPhotos, ThreadFactory threadFactory) {
+		this.photoManager = photoManager;
+		this.isLoadingPhotos = isLoadingPhotos;
+		this.threadFactory = threadFactory;
+		this.noThreads = (int) Math.max(1, SysConfig.getPropertyAsLong(THREADS_PROPERTY, DEFAULT_NO_THREADS));
+		this.maxPhotos = (int) Math.max(0, SysConfig.getPropertyAsLong(MAX_PHOTOS_PROPERTY, DEFAULT_MAX_PHOTOS));
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void run() {
+		startTime = System.currentTimeMillis();
+		try {
+			if (isLoadingPhotos) {
+				state = State.LOADING_PHOTOS;
+				photoManager.loadPhotos();
+			}
+
+			state = State.WARMING_IMAGES;
+			warmUpImages(getHottestPhotos());
+			state = State.DONE;
+		} catch (Exception e) {
+			state = State.FAILED;
+			log.warning(LogBuilder.createSystemMessage().addException("warm-up failed", e).toString());
+		} finally {
+			endTime = System.currentTimeMillis();
+		}
+
+		log.info(LogBuilder.createSystemMessage().
+				addAction("warm-up").
+				addParameter("result", asString()).toString());
+	}
+
+	/**
+	 * Returns the visible photos currently in memory, most praised first, at most maxPhotos of them.
+	 *
+	 * @methodtype get
+	 */
+	protected List<Photo> getHottestPhotos() {
+		List<Photo> result = new ArrayList<Photo>();
+		for (Photo photo : photoManager.getPhotoCache().values()) {
+			if (photo.isVisible()) {
+				result.add(photo);
+			}
+		}
+
+		Collections.sort(result, new Comparator<Photo>() {
+			@Override
+			public int compare(Photo first, Photo second) {
+				return Double.compare(second.getPraise(), first.getPraise());
+			}
+		});
+
+		return (result.size() > maxPhotos) ? result.subList(0, maxPhotos) : result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void warmUpImages(List<Photo> photos) throws InterruptedException {
+		noPhotosToWarm = photos.size();
+		if (photos.isEmpty()) {
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(noThreads, photos.size()), threadFactory);
+		try {
+			for (final Photo photo : photos) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							photoManager.loadScaledImages(photo);
+							noPhotosWarmed.incrementAndGet();
+						} catch (RuntimeException e) {
+							noPhotosFailed.incrementAndGet();
+							log.warning(LogBuilder.createSystemMessage().
+									addParameter("photo ID", photo.getIdAsString()).
+									addException("could not warm up images", e).toString());
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		if (!executor.awaitTermination(getMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+			executor.shutdownNow();
+			throw new IllegalStateException("warm-up did not finish in time");
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected long getMaxWaitMillis() {
+		return TimeUnit.MINUTES.toMillis(MAX_WAIT_MINUTES);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isFinished() {
+		return state == State.DONE || state == State.FAILED;
+	}
+
+	/**
+	 * Returns the time the warm-up has taken so far, or took, in milliseconds.
+	 *
+	 * @methodtype get
+	 */
+	public long getDuration() {
+		if (startTime == 0) {
+			return 0;
+		}
+		return (isFinished() ? endTime : System.currentTimeMillis()) - startTime;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotosToWarm() {
+		return noPhotosToWarm;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotosWarmed() {
+		return noPhotosWarmed.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotosFailed() {
+		return noPhotosFailed.get();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return state + ", warmed " + getNoPhotosWarmed() + " of " + getNoPhotosToWarm() + " photos (" +
+				getNoPhotosFailed() + " failed) in " + getDuration() + " ms";
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide dictionary of all tags, which assigns each distinct tag a small int id. Tags instances only keep these
+ * ids, so every tag string is held once. Ids are never reused and only valid within the running process; they must
+ * not be persisted.
+ */
+public class TagDictionary {
+
+	/**
+	 *
+	 */
+	public static final int UNKNOWN_ID = -1;
+
+	/**
+	 *
+	 */
+	protected static final TagDictionary instance = new TagDictionary();
+
+	/**
+	 *
+	 */
+	protected final ConcurrentMap<String, Integer> idsByTag = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Replaced by a larger copy when full; only written to while holding the dictionary's lock
+	 */
+	protected volatile String[] tagsById = new String[256];
+	protected int noTags = 0;
+
+	/**
+	 *
+	 */
+	public static TagDictionary getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the id of the tag, assigning a new one if the tag is not known yet.
+	 *
+	 * @methodtype get
+	 */
+	public int getId(String tag) {
+		Integer result = idsByTag.get(tag);
+		if (result == null) {
+			result = doAddTag(tag);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the id of the tag, or UNKNOWN_ID if the tag is not known; never assigns a new id.
+	 *
+	 * @methodtype get
+	 */
+	public int findId(String tag) {
+		Integer result = (tag == null) ? null : idsByTag.get(tag);
+		return (result == null) ? UNKNOWN_ID : result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getTag(int id) {
+		return tagsById[id];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return idsByTag.size();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized int doAddTag(String tag) {
+		Integer id = idsByTag.get(tag);
+		if (id != null) {
+			return id;
+		}
+
+		String[] tags = tagsById;
+		if (noTags == tags.length) {
+			tags = Arrays.copyOf(tags, 2 * tags.length);
+		}
+		tags[noTags] = tag;
+		tagsById = tags;
+		idsByTag.put(tag, noTags);
+		return noTags++;
+	}
+
+}
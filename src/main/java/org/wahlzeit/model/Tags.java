@@ -20,9 +20,19 @@
 
 package org.wahlzeit.model;
 
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
 import org.wahlzeit.utils.StringUtil;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -30,6 +40,9 @@ import java.util.TreeSet;
  * A Tags instance represents a set of tags; each tag ist just a string.
  * All tags are maintained lowercase and without whitespace. 
  * For example, "Captain America" turns into "captainamerica".
+ * In memory, a Tags instance keeps the ids the TagDictionary assigned to its tags, in ascending order. Tags the
+ * dictionary does not know yet, e.g. those of a search, are kept as strings, so that typed input does not fill the
+ * dictionary; tags are only added to it when they are written to a photo (see intern).
  */
 public class Tags implements Serializable {
 
@@ -43,6 +56,12 @@ public class Tags implements Serializable {
 	 */
 	public static final int MAX_NO_TAGS = 32;
 
+	/**
+	 * Initialized before EMPTY_TAGS, which uses it
+	 */
+	protected static final int[] NO_TAG_IDS = new int[0];
+	protected static final String[] NO_TAGS = new String[0];
+
 	/**
 	 *
 	 */
@@ -54,9 +73,22 @@ public class Tags implements Serializable {
 	private final char separator;
 
 	/**
-	 *
+	 * The persistent form of the tags, as the datastore knows them; only set while saving and loading. Objectify
+	 * still saves transient fields, while Java serialization writes the tags by writeObject instead.
 	 */
-	protected Set<String> tags = new TreeSet<String>();
+	transient protected List<String> tags = null;
+
+	/**
+	 * Ids of the tags in the TagDictionary, which are only valid within this process
+	 */
+	@Ignore
+	transient protected int[] tagIds = NO_TAG_IDS;
+
+	/**
+	 * Tags the TagDictionary did not know when this instance was created, in alphabetical order
+	 */
+	@Ignore
+	transient protected String[] unknownTags = NO_TAGS;
 
 	/**
 	 *
@@ -70,24 +102,145 @@ public class Tags implements Serializable {
 	 *
 	 */
 	public Tags(String myTags) {
-		this.separator = SEPARATOR_CHAR;
-		this.tags = asTagSetFromString(myTags);
+		this(asTagSetFromString(myTags), SEPARATOR_CHAR);
 	}
 
 	/**
 	 *
 	 */
 	public Tags(String myTags, char separator) {
+		this(asTagSetFromString(myTags, separator), separator);
+	}
+
+	/**
+	 * Looks the tags up in the TagDictionary without adding the unknown ones.
+	 *
+	 * @methodtype constructor
+	 */
+	protected Tags(Collection<String> myTags, char separator) {
 		this.separator = separator;
-		this.tags = asTagSetFromString(myTags, separator);
+		splitTags(myTags);
 	}
 
 	/**
+	 * @methodtype constructor
+	 */
+	protected Tags(int[] sortedTagIds, char separator) {
+		this.separator = separator;
+		this.tagIds = sortedTagIds;
+	}
+
+	/**
+	 * Splits the tags into the ids of the known ones and the unknown ones.
+	 *
+	 * @methodtype command
+	 */
+	protected void splitTags(Collection<String> myTags) {
+		TagDictionary tagDictionary = TagDictionary.getInstance();
+		List<String> myUnknownTags = new ArrayList<String>();
+		List<String> knownTags = new ArrayList<String>(myTags.size());
+		for (String tag : myTags) {
+			if (tagDictionary.findId(tag) == TagDictionary.UNKNOWN_ID) {
+				myUnknownTags.add(tag);
+			} else {
+				knownTags.add(tag);
+			}
+		}
+
+		tagIds = asTagIds(knownTags);
+		if (!myUnknownTags.isEmpty()) {
+			Set<String> sortedUnknownTags = new TreeSet<String>(myUnknownTags);
+			unknownTags = sortedUnknownTags.toArray(new String[sortedUnknownTags.size()]);
+		}
+	}
+
+	/**
+	 * Returns these tags with all of them added to the TagDictionary, e.g. to be written to a photo.
+	 *
+	 * @methodtype conversion
+	 */
+	public Tags intern() {
+		if (unknownTags.length == 0) {
+			return this;
+		}
+
+		List<String> allTags = new ArrayList<String>(getSize());
+		for (int i = 0; i < getSize(); i++) {
+			allTags.add(getTag(i));
+		}
+		return new Tags(asTagIds(allTags), separator);
+	}
+
+	/**
+	 * Replaces the persistent form by tag ids after the datastore filled it; the tags of a photo are interned.
+	 */
+	@OnLoad
+	protected void afterLoad() {
+		if (tags != null) {
+			tagIds = asTagIds(tags);
+			tags = null;
+		}
+	}
+
+	/**
+	 * Provides the persistent form of the tags for the datastore. Empty tags have none, so EMPTY_TAGS, which is
+	 * shared by all photos without tags, is never changed.
+	 */
+	@OnSave
+	protected void beforeSave() {
+		int noTags = getSize();
+		if (noTags > 0) {
+			tags = new ArrayList<String>(noTags);
+			for (int i = 0; i < noTags; i++) {
+				tags.add(getTag(i));
+			}
+		}
+	}
+
+	/**
+	 * Drops the persistent form again once it has been saved.
+	 *
+	 * @methodtype command
+	 */
+	protected void afterSave() {
+		tags = null;
+	}
+
+	/**
+	 * Writes tags rather than their ids, which are meaningless in other processes.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		String[] myTags = new String[getSize()];
+		for (int i = 0; i < myTags.length; i++) {
+			myTags[i] = getTag(i);
+		}
+		out.writeObject(myTags);
+	}
+
+	/**
+	 *
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		tagIds = NO_TAG_IDS;
+		unknownTags = NO_TAGS;
+		splitTags(Arrays.asList((String[]) in.readObject()));
+		tags = null;
+	}
+
+	/**
+	 * Depends on the tags only, as a tag may be known to the dictionary in one instance and unknown in another.
+	 *
 	 * @methodtype boolean-query
 	 */
 	@Override
 	public int hashCode() {
-		return (tags == null) ? super.hashCode() : tags.hashCode();
+		int result = 0;
+		for (int i = 0; i < getSize(); i++) {
+			result += getTag(i).hashCode();
+		}
+		return result;
 	}
 
 	/**
@@ -110,25 +263,161 @@ public class Tags implements Serializable {
 	 *
 	 */
 	public boolean isEqual(Tags other) {
-		if (tags == null) {
-			return other.tags == null;
+		if (unknownTags.length == 0 && other.unknownTags.length == 0) {
+			return Arrays.equals(tagIds, other.tagIds);
 		}
-
-		return tags.equals(other.tags);
+		return getSize() == other.getSize() && containsAll(other);
 	}
 
 	/**
 	 *
 	 */
 	public boolean hasTag(String tag) {
-		return (null != tag) && tags.contains(tag);
+		return hasTagId(TagDictionary.getInstance().findId(tag)) || hasUnknownTag(tag);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean hasUnknownTag(String tag) {
+		return (unknownTags.length > 0) && (tag != null) && Arrays.binarySearch(unknownTags, tag) >= 0;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasTagId(int tagId) {
+		return (tagId >= 0) && Arrays.binarySearch(tagIds, tagId) >= 0;
+	}
+
+	/**
+	 * Returns whether this and the other tags have at least one tag in common.
+	 *
+	 * @methodtype boolean-query
+	 */
+	public boolean intersects(Tags other) {
+		int[] otherTagIds = other.tagIds;
+		int i = 0;
+		int j = 0;
+		while (i < tagIds.length && j < otherTagIds.length) {
+			if (tagIds[i] < otherTagIds[j]) {
+				i++;
+			} else if (tagIds[i] > otherTagIds[j]) {
+				j++;
+			} else {
+				return true;
+			}
+		}
+
+		for (String tag : unknownTags) {
+			if (other.hasTag(tag)) {
+				return true;
+			}
+		}
+		for (String tag : other.unknownTags) {
+			if (hasTag(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean containsAll(Tags other) {
+		TagDictionary tagDictionary = TagDictionary.getInstance();
+		for (int tagId : other.tagIds) {
+			if (!hasTagId(tagId) && !hasUnknownTag(tagDictionary.getTag(tagId))) {
+				return false;
+			}
+		}
+		for (String tag : other.unknownTags) {
+			if (!hasTag(tag)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the tags that are in this or the other tags.
+	 *
+	 * @methodtype conversion
+	 */
+	public Tags union(Tags other) {
+		if (unknownTags.length > 0 || other.unknownTags.length > 0) {
+			Set<String> result = asTagSet();
+			result.addAll(other.asTagSet());
+			return new Tags(result, separator);
+		}
+
+		int[] otherTagIds = other.tagIds;
+		int[] result = new int[tagIds.length + otherTagIds.length];
+		int noTagIds = 0;
+		int i = 0;
+		int j = 0;
+		while (i < tagIds.length || j < otherTagIds.length) {
+			if (j >= otherTagIds.length || (i < tagIds.length && tagIds[i] < otherTagIds[j])) {
+				result[noTagIds++] = tagIds[i++];
+			} else if (i >= tagIds.length || tagIds[i] > otherTagIds[j]) {
+				result[noTagIds++] = otherTagIds[j++];
+			} else {
+				result[noTagIds++] = tagIds[i++];
+				j++;
+			}
+		}
+		return new Tags(Arrays.copyOf(result, noTagIds), separator);
+	}
+
+	/**
+	 * Returns the tags that are in both this and the other tags.
+	 *
+	 * @methodtype conversion
+	 */
+	public Tags intersection(Tags other) {
+		if (unknownTags.length > 0 || other.unknownTags.length > 0) {
+			Set<String> result = asTagSet();
+			result.retainAll(other.asTagSet());
+			return new Tags(result, separator);
+		}
+
+		int[] result = new int[Math.min(tagIds.length, other.tagIds.length)];
+		int noTagIds = 0;
+		for (int tagId : tagIds) {
+			if (other.hasTagId(tagId)) {
+				result[noTagIds++] = tagId;
+			}
+		}
+		return new Tags(Arrays.copyOf(result, noTagIds), separator);
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public int getSize() {
-		return tags.size();
+		return tagIds.length + unknownTags.length;
+	}
+
+	/**
+	 * Returns the i-th tag; tags are ordered by their ids, not alphabetically, followed by the unknown ones.
+	 *
+	 * @methodtype get
+	 */
+	public String getTag(int i) {
+		if (i < tagIds.length) {
+			return TagDictionary.getInstance().getTag(tagIds[i]);
+		}
+		return unknownTags[i - tagIds.length];
+	}
+
+	/**
+	 * Returns the id of the i-th tag, or TagDictionary.UNKNOWN_ID if the dictionary did not know it.
+	 *
+	 * @methodtype get
+	 */
+	public int getTagId(int i) {
+		return (i < tagIds.length) ? tagIds[i] : TagDictionary.UNKNOWN_ID;
 	}
 
 	/**
@@ -142,7 +431,7 @@ public class Tags implements Serializable {
 	 *
 	 */
 	public String asString(boolean lead, char sep) {
-		StringBuffer result = new StringBuffer();
+		StringBuilder result = new StringBuilder();
 		String seps = (lead ? " " : "") + sep + " ";
 		String[] myTags = asArray();
 		for (int i = 0; i < myTags.length; i++) {
@@ -154,10 +443,56 @@ public class Tags implements Serializable {
 	}
 
 	/**
-	 *
+	 * Returns the tags in alphabetical order, e.g. for display; callers that need no order iterate with getSize and
+	 * getTag instead, as this copies and sorts the tags on every call.
 	 */
 	public String[] asArray() {
-		return tags.toArray(new String[tags.size()]);
+		String[] result = new String[getSize()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getTag(i);
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected Set<String> asTagSet() {
+		Set<String> result = new TreeSet<String>();
+		for (int i = 0; i < getSize(); i++) {
+			result.add(getTag(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the sorted ids of the tags, adding those the TagDictionary does not know yet.
+	 *
+	 * @methodtype conversion
+	 * @methodproperties class
+	 */
+	protected static int[] asTagIds(Collection<String> tags) {
+		if (tags.isEmpty()) {
+			return NO_TAG_IDS;
+		}
+
+		TagDictionary tagDictionary = TagDictionary.getInstance();
+		int[] result = new int[tags.size()];
+		int noTagIds = 0;
+		for (String tag : tags) {
+			result[noTagIds++] = tagDictionary.getId(tag);
+		}
+		Arrays.sort(result);
+
+		// collections other than sets may hold a tag more than once
+		int noDistinctTagIds = 0;
+		for (int i = 0; i < noTagIds; i++) {
+			if (noDistinctTagIds == 0 || result[noDistinctTagIds - 1] != result[i]) {
+				result[noDistinctTagIds++] = result[i];
+			}
+		}
+		return (noDistinctTagIds == noTagIds) ? result : Arrays.copyOf(result, noDistinctTagIds);
 	}
 
 	/**
@@ -200,21 +535,39 @@ public class Tags implements Serializable {
 	}
 
 	/**
-	 *
+	 * Returns n lowercase and with letters and digits only; n itself if it is a tag already.
 	 */
 	public static String asTag(String n) {
-		StringBuffer result = new StringBuffer(n.length());
+		int length = n.length();
+		int i = 0;
+		while (i < length && isTagChar(n.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			return n;
+		}
 
-		for (int i = 0; i < n.length(); i++) {
+		char[] result = new char[length];
+		n.getChars(0, i, result, 0);
+		int resultLength = i;
+		for (; i < length; i++) {
 			char c = n.charAt(i);
 			if (Character.isLetter(c)) {
-				result.append(Character.toLowerCase(c));
+				result[resultLength++] = Character.toLowerCase(c);
 			} else if (Character.isDigit(c)) {
-				result.append(c);
+				result[resultLength++] = c;
 			}
 		}
 
-		return result.toString();
+		return new String(result, 0, resultLength);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 * @methodproperties class
+	 */
+	protected static boolean isTagChar(char c) {
+		return Character.isDigit(c) || (Character.isLetter(c) && Character.toLowerCase(c) == c);
 	}
 
 }
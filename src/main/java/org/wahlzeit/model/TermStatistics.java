@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Comparator;
+
+/**
+ * Statistics of a term of the PhotoTagIndex: the number of photos that carry it and the praise they received.
+ */
+public class TermStatistics {
+
+	/**
+	 * Most frequent terms first
+	 */
+	public static final Comparator<TermStatistics> BY_NO_PHOTOS = new Comparator<TermStatistics>() {
+		@Override
+		public int compare(TermStatistics first, TermStatistics second) {
+			if (first.noPhotos != second.noPhotos) {
+				return (first.noPhotos > second.noPhotos) ? -1 : 1;
+			}
+			return first.term.compareTo(second.term);
+		}
+	};
+
+	/**
+	 * Most praised terms first
+	 */
+	public static final Comparator<TermStatistics> BY_PRAISE_SUM = new Comparator<TermStatistics>() {
+		@Override
+		public int compare(TermStatistics first, TermStatistics second) {
+			if (first.praiseSum != second.praiseSum) {
+				return (first.praiseSum > second.praiseSum) ? -1 : 1;
+			}
+			return first.term.compareTo(second.term);
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected final String term;
+	protected int noPhotos = 0;
+	protected long praiseSum = 0;
+	protected long noVotes = 0;
+
+	/**
+	 *
+	 */
+	public TermStatistics(String term) {
+		this.term = term;
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public TermStatistics(TermStatistics other) {
+		term = other.term;
+		noPhotos = other.noPhotos;
+		praiseSum = other.praiseSum;
+		noVotes = other.noVotes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getTerm() {
+		return term;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotos() {
+		return noPhotos;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getPraiseSum() {
+		return praiseSum;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoVotes() {
+		return noVotes;
+	}
+
+	/**
+	 * Returns the average praise of all votes for photos with the term.
+	 *
+	 * @methodtype get
+	 */
+	public double getPraise() {
+		return (noVotes == 0) ? 0.0 : (double) praiseSum / noVotes;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void add(int deltaNoPhotos, long deltaPraiseSum, long deltaNoVotes) {
+		noPhotos += deltaNoPhotos;
+		praiseSum += deltaPraiseSum;
+		noVotes += deltaNoVotes;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return term + " (photos: " + noPhotos + ", praise: " + praiseSum + "/" + noVotes + ")";
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.indexing.TermIndexListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the TermStatistics of the terms of the PhotoTagIndex, in order of photo count and of praise, to serve the
+ * most popular terms. It follows the index as a listener; a new praise only takes the lock of the statistics, so
+ * votes do not hold up queries of the index.
+ */
+public class TermStatisticsIndex implements TermIndexListener {
+
+	/**
+	 *
+	 */
+	protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Praise of the photos as {praise sum, number of votes}, which is added up per term
+	 */
+	protected final Map<Integer, int[]> praiseByPhoto = new HashMap<Integer, int[]>();
+	protected final Map<String, TermStatistics> statisticsByTerm = new HashMap<String, TermStatistics>();
+	protected final TreeSet<TermStatistics> termsByNoPhotos = new TreeSet<TermStatistics>(TermStatistics.BY_NO_PHOTOS);
+	protected final TreeSet<TermStatistics> termsByPraise = new TreeSet<TermStatistics>(TermStatistics.BY_PRAISE_SUM);
+
+	/**
+	 * Sets the praise of the photo, which updates the statistics of the given terms, those it is indexed by. The
+	 * caller keeps the terms from changing meanwhile.
+	 *
+	 * @methodtype set
+	 */
+	public void setPraise(int photoId, int praiseSum, int noVotes, Collection<String> terms) {
+		lock.writeLock().lock();
+		try {
+			int[] oldPraise = praiseByPhoto.put(photoId, new int[] {praiseSum, noVotes});
+			int deltaPraiseSum = (oldPraise == null) ? praiseSum : praiseSum - oldPraise[0];
+			int deltaNoVotes = (oldPraise == null) ? noVotes : noVotes - oldPraise[1];
+			if (terms != null && (deltaPraiseSum != 0 || deltaNoVotes != 0)) {
+				for (String term : terms) {
+					doUpdateStatistics(term, 0, deltaPraiseSum, deltaNoVotes);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the statistics of the term, or null if no photo carries it.
+	 *
+	 * @methodtype get
+	 */
+	public TermStatistics getStatistics(String term) {
+		lock.readLock().lock();
+		try {
+			TermStatistics statistics = statisticsByTerm.get(term);
+			return (statistics == null) ? null : new TermStatistics(statistics);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the statistics of up to limit terms that start with prefix (e.g. "tg:"), those with most photos first.
+	 *
+	 * @methodtype query
+	 */
+	public List<TermStatistics> getMostFrequentTerms(String prefix, int limit) {
+		return getTopTerms(termsByNoPhotos, prefix, limit);
+	}
+
+	/**
+	 * Returns the statistics of up to limit terms that start with prefix (e.g. "tg:"), those with most praise first.
+	 *
+	 * @methodtype query
+	 */
+	public List<TermStatistics> getMostPraisedTerms(String prefix, int limit) {
+		return getTopTerms(termsByPraise, prefix, limit);
+	}
+
+	/**
+	 * Only walks the ordered terms as far as needed to find limit matching ones.
+	 *
+	 * @methodtype query
+	 */
+	protected List<TermStatistics> getTopTerms(TreeSet<TermStatistics> orderedTerms, String prefix, int limit) {
+		List<TermStatistics> result = new ArrayList<TermStatistics>(limit);
+		lock.readLock().lock();
+		try {
+			for (TermStatistics statistics : orderedTerms) {
+				if (result.size() >= limit) {
+					break;
+				}
+				if (statistics.getTerm().startsWith(prefix)) {
+					result.add(new TermStatistics(statistics));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void onTermAdded(String term, int photoId, int noPhotos) {
+		lock.writeLock().lock();
+		try {
+			int[] praise = praiseByPhoto.get(photoId);
+			doUpdateStatistics(term, 1, (praise == null) ? 0 : praise[0], (praise == null) ? 0 : praise[1]);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void onTermRemoved(String term, int photoId, int noPhotos) {
+		lock.writeLock().lock();
+		try {
+			int[] praise = praiseByPhoto.get(photoId);
+			doUpdateStatistics(term, -1, (praise == null) ? 0 : -praise[0], (praise == null) ? 0 : -praise[1]);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void onValueRemoved(int photoId) {
+		lock.writeLock().lock();
+		try {
+			praiseByPhoto.remove(photoId);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void onCleared() {
+		lock.writeLock().lock();
+		try {
+			praiseByPhoto.clear();
+			statisticsByTerm.clear();
+			termsByNoPhotos.clear();
+			termsByPraise.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Statistics are ordered by what changes here, so they are taken out of the orders while they change.
+	 *
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doUpdateStatistics(String term, int deltaNoPhotos, long deltaPraiseSum, long deltaNoVotes) {
+		TermStatistics statistics = statisticsByTerm.get(term);
+		if (statistics == null) {
+			statistics = new TermStatistics(term);
+			statisticsByTerm.put(term, statistics);
+		} else {
+			termsByNoPhotos.remove(statistics);
+			termsByPraise.remove(statistics);
+		}
+
+		statistics.add(deltaNoPhotos, deltaPraiseSum, deltaNoVotes);
+		if (statistics.getNoPhotos() > 0) {
+			termsByNoPhotos.add(statistics);
+			termsByPraise.add(statistics);
+		} else {
+			statisticsByTerm.remove(term);
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import org.wahlzeit.services.DataObject;
+
+/**
+ * An uploaded photo waiting to be processed in the background: its bytes are kept in the ImageStorage until a task
+ * decodes, scales, tags and stores it. The upload page polls the state of the job.
+ */
+@Entity
+public class UploadJob extends DataObject {
+
+	/**
+	 *
+	 */
+	public enum State {
+		QUEUED, PROCESSING, DONE, FAILED
+	}
+
+	/**
+	 *
+	 */
+	public static final String CREATION_TIME = "creationTime";
+
+	/**
+	 *
+	 */
+	@Id
+	protected Long id;
+
+	/**
+	 *
+	 */
+	protected String ownerId;
+	protected String fileName;
+	protected String tags;
+	protected State state = State.QUEUED;
+	protected String photoId = null;
+
+	/**
+	 * Indexed, so that expired jobs can be found
+	 */
+	@Index
+	protected long creationTime = System.currentTimeMillis();
+
+	/**
+	 *
+	 */
+	public UploadJob() {
+		// do nothing, necessary for Google Datastore
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public UploadJob(String ownerId, String fileName, String tags) {
+		this.ownerId = ownerId;
+		this.fileName = fileName;
+		this.tags = tags;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * Name under which the uploaded bytes are kept in the ImageStorage
+	 *
+	 * @methodtype get
+	 */
+	public String getUploadIdAsString() {
+		return "upload" + id;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getOwnerId() {
+		return ownerId;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getTags() {
+		return tags;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setState(State newState) {
+		state = newState;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isFinished() {
+		return state == State.DONE || state == State.FAILED;
+	}
+
+	/**
+	 * Returns the id reserved for the photo of this job, or null if processing has not started yet.
+	 *
+	 * @methodtype get
+	 */
+	public String getPhotoId() {
+		return photoId;
+	}
+
+	/**
+	 * Reserves the id of the photo before it is created, so that a retried task creates the same photo again.
+	 *
+	 * @methodtype set
+	 */
+	public void reservePhotoId(PhotoId newPhotoId) {
+		photoId = newPhotoId.asString();
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setDone(PhotoId newPhotoId) {
+		photoId = newPhotoId.asString();
+		setState(State.DONE);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return "UploadJob: " + id + ", state: " + state + ", photo: " + photoId;
+	}
+
+}
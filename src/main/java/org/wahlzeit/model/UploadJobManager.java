@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.images.Image;
+import com.google.apphosting.api.ApiProxy;
+import org.wahlzeit.agents.AsyncTaskExecutor;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Processes uploaded photos in the background: the request thread only stores the uploaded bytes and queues an
+ * UploadJob; a task later decodes, scales, tags and saves the photo and records the outcome in the job.
+ */
+public class UploadJobManager extends ObjectManager {
+
+	/**
+	 * Size under which the uploaded bytes are kept in the ImageStorage
+	 */
+	public static final int UPLOAD_SIZE = 0;
+
+	/**
+	 * Age after which a job is deleted, along with its uploaded bytes if they are still stored
+	 */
+	public static final long MAX_JOB_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+	private static final Logger log = Logger.getLogger(UploadJobManager.class.getName());
+
+	/**
+	 *
+	 */
+	protected static UploadJobManager instance = new UploadJobManager();
+
+	/**
+	 * @methodtype get
+	 */
+	public static UploadJobManager getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(UploadJobManager newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 * Stores the uploaded image and queues a job to process it; returns without decoding or scaling the image.
+	 *
+	 * @methodtype factory
+	 */
+	public UploadJob submitUpload(User user, String fileName, Image uploadedImage, String tags) throws Exception {
+		assertIsNonNullArgument(user, "user");
+		assertIsNonNullArgument(uploadedImage, "uploaded image");
+
+		UploadJob job = new UploadJob(user.getId(), fileName, tags);
+		writeObject(job); // assigns the id
+
+		ImageStorage.getInstance().writeImage(uploadedImage, job.getUploadIdAsString(), UPLOAD_SIZE);
+		startJob(job);
+
+		log.config(LogBuilder.createUserMessage().
+				addAction("Queue Upload").
+				addParameter("job", job.asString()).toString());
+
+		return job;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void startJob(UploadJob job) {
+		AsyncTaskExecutor.processUploadAsync(job.getId());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public UploadJob getJob(Long jobId) {
+		return readObject(UploadJob.class, jobId);
+	}
+
+	/**
+	 * Processes the job as the last attempt, so that any failure finishes it.
+	 *
+	 * @methodtype command
+	 */
+	public void processJob(Long jobId) {
+		processJob(jobId, true);
+	}
+
+	/**
+	 * Creates the photo of a queued job. A job is processed at most once successfully; a retried task of a finished
+	 * job is ignored. The id of the photo is reserved in the job before the photo is created, so a task retried after
+	 * the job was left in PROCESSING creates or finishes the same photo instead of a second one. Failures that may
+	 * pass, e.g. timeouts of the datastore or of Cloud Storage, leave the job in PROCESSING and are rethrown, so that
+	 * the task is retried; on the last attempt, they fail the job like any other failure. The uploaded bytes are
+	 * deleted once the job is finished.
+	 *
+	 * @methodtype command
+	 */
+	public void processJob(Long jobId, boolean isLastAttempt) {
+		UploadJob job = getJob(jobId);
+		if (job == null) {
+			throw new IllegalArgumentException("Could not find upload job with ID " + jobId);
+		} else if (job.isFinished()) {
+			return;
+		}
+
+		job.setState(UploadJob.State.PROCESSING);
+		if (job.getPhotoId() == null) {
+			job.reservePhotoId(PhotoId.getNextId());
+		}
+		writeObject(job);
+
+		try {
+			Photo photo = doProcessJob(job);
+			job.setDone(photo.getId());
+			log.config(LogBuilder.createUserMessage().
+					addAction("Upload Photo").
+					addParameter("Photo", photo.getId().asString()).
+					addParameter("tags", photo.getTags().asString()).toString());
+		} catch (Exception ex) {
+			if (!isLastAttempt && isTransientFailure(ex)) {
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("job", job.asString()).
+						addException("processing upload failed, to be retried", ex).toString());
+				throw (ex instanceof RuntimeException) ? (RuntimeException) ex : new IllegalStateException(ex);
+			}
+
+			job.setState(UploadJob.State.FAILED);
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("job", job.asString()).
+					addException("processing upload failed", ex).toString());
+		}
+
+		writeObject(job);
+		deleteUpload(job);
+	}
+
+	/**
+	 * Returns whether the failure may pass if the job is processed again.
+	 *
+	 * @methodtype boolean query
+	 */
+	protected boolean isTransientFailure(Exception ex) {
+		return ex instanceof IOException ||
+				ex instanceof DatastoreTimeoutException ||
+				ex instanceof DatastoreFailureException ||
+				ex instanceof ConcurrentModificationException ||
+				ex instanceof ApiProxy.ApiDeadlineExceededException;
+	}
+
+	/**
+	 * Deletes the uploaded bytes of the job; if that fails, they are deleted when the job expires.
+	 *
+	 * @methodtype command
+	 */
+	protected void deleteUpload(UploadJob job) {
+		try {
+			ImageStorage.getInstance().deleteImage(job.getUploadIdAsString(), UPLOAD_SIZE);
+		} catch (IOException | RuntimeException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("job", job.asString()).
+					addException("could not delete uploaded image", ex).toString());
+		}
+	}
+
+	/**
+	 * Deletes the jobs older than MAX_JOB_AGE_MILLIS, finished or not, along with their uploaded bytes, as a job
+	 * whose tasks were given up on is never finished. Returns the number of deleted jobs.
+	 *
+	 * @methodtype command
+	 */
+	public int deleteExpiredJobs() {
+		long expiryTime = System.currentTimeMillis() - MAX_JOB_AGE_MILLIS;
+		countDatastoreCall();
+		List<UploadJob> expiredJobs = OfyService.ofy().load().type(UploadJob.class).
+				filter(UploadJob.CREATION_TIME + " <", expiryTime).list();
+
+		for (UploadJob job : expiredJobs) {
+			deleteUpload(job);
+		}
+		deleteObjects(expiredJobs);
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("delete expired upload jobs").
+				addParameter("jobs", expiredJobs.size()).toString());
+		return expiredJobs.size();
+	}
+
+	/**
+	 * Creates and saves the photo under the id reserved in the job; a photo that an earlier attempt already created is
+	 * saved again rather than created twice. The owner is saved as well, as the photos of a user are persisted with it.
+	 *
+	 * @methodtype command
+	 */
+	protected Photo doProcessJob(UploadJob job) throws Exception {
+		PhotoManager pm = PhotoManager.getInstance();
+		PhotoId photoId = PhotoId.getIdFromString(job.getPhotoId());
+		Photo photo = pm.getPhoto(photoId);
+		if (photo != null) {
+			pm.savePhoto(photo);
+			return photo;
+		}
+
+		UserManager um = UserManager.getInstance();
+		User user = um.loadUserById(job.getOwnerId());
+		if (user == null) {
+			throw new IllegalStateException("Could not find owner " + job.getOwnerId());
+		}
+
+		Image uploadedImage = (Image) ImageStorage.getInstance().readImage(job.getUploadIdAsString(), UPLOAD_SIZE);
+		if (uploadedImage == null) {
+			throw new IllegalStateException("Could not find uploaded image of " + job.asString());
+		}
+
+		photo = pm.createPhoto(photoId, job.getFileName(), uploadedImage);
+		user.addPhoto(photo);
+		photo.setTags(new Tags(job.getTags()));
+		pm.savePhoto(photo);
+		um.saveClient(user);
+
+		return photo;
+	}
+
+}
@@ -248,6 +248,7 @@ public class User extends Client {
 	 */
 	public void removePhoto(Photo notMyPhoto) {
 		photos.remove(notMyPhoto);
+		PhotoOwnerIndex.getInstance().removePhoto(id, notMyPhoto.getId());
 		incWriteCount();
 	}
 
@@ -24,6 +24,7 @@ import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.services.mailing.EmailService;
 import org.wahlzeit.services.mailing.EmailServiceManager;
 
@@ -166,4 +167,23 @@ public class UserManager extends ClientManager {
 		}
 	}
 
+	/**
+	 * Like getUserById, but reads users that are not known to this instance, e.g. because they registered with
+	 * another one, from the datastore.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized User loadUserById(String name) {
+		User result = getUserById(name);
+		if (result == null) {
+			countDatastoreCall();
+			result = OfyService.ofy().load().type(User.class).parent(applicationRootKey).id(name).now();
+			if (result != null) {
+				doAddClient(result);
+			}
+		}
+
+		return result;
+	}
+
 }
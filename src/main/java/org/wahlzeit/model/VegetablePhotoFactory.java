@@ -46,7 +46,7 @@ public class VegetablePhotoFactory extends PhotoFactory {
 
     @Override
     public VegetablePhoto createPhoto() {
-        return new VegetablePhoto();
+        return new VegetablePhoto(PhotoId.getNextId());
     }
 
     @Override
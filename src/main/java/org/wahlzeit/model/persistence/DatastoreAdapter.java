@@ -22,17 +22,24 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 /**
  * Adapter for the Google Datastore. Use default constructor to create an instance.
@@ -49,21 +56,55 @@ public class DatastoreAdapter extends ImageStorage {
 			throws IOException, InvalidParameterException {
 		if (image instanceof Image) {
 			final ImageWrapper imageWrapper = new ImageWrapper(photoIdAsString + size);
-			imageWrapper.setImage((Image) image);
+			final List<Object> entities = new ArrayList<Object>();
+			entities.addAll(imageWrapper.setImageData(((Image) image).getImageData()));
+			entities.add(imageWrapper);
 
+			// chunks and manifest in one batch; a manifest that does not match its chunks is caught on read
 			ObjectifyService.run(new Work<Boolean>() {
 				@Override
 				public Boolean run() {
-					OfyService.ofy().save().entity(imageWrapper).now();
+					OfyService.ofy().save().entities(entities).now();
+					deleteObsoleteChunks(imageWrapper);
 					return null;
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			log.config(LogBuilder.createSystemMessage().
+					addMessage("image successfully written").
+					addParameter("chunks", imageWrapper.getNoChunks()).toString());
 		} else {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("did not get an Image type to store").
-					addParameter("image type", image.toString()).toString());
+			throw new InvalidParameterException("not an Image object!");
+		}
+	}
+
+	/**
+	 * Deletes the chunks that a previous, larger version of the image left behind. Their keys are found by a
+	 * keys-only query over the key range of the chunks of the image; ones not found yet by the eventually consistent
+	 * query are harmless, as the manifest only refers to the chunks of the current version.
+	 *
+	 * @methodtype command
+	 */
+	protected void deleteObsoleteChunks(ImageWrapper imageWrapper) {
+		String firstChunkId = imageWrapper.getChunkIdPrefix();
+		String lastChunkId = firstChunkId + Character.MAX_VALUE;
+		List<Key<ImageChunk>> chunkKeys = OfyService.ofy().load().type(ImageChunk.class).
+				filterKey(">=", Key.create(ImageChunk.class, firstChunkId)).
+				filterKey("<", Key.create(ImageChunk.class, lastChunkId)).keys().list();
+
+		List<String> chunkIds = imageWrapper.getChunkIds();
+		List<Key<ImageChunk>> obsoleteChunkKeys = new ArrayList<Key<ImageChunk>>();
+		for (Key<ImageChunk> chunkKey : chunkKeys) {
+			if (!chunkIds.contains(chunkKey.getName())) {
+				obsoleteChunkKeys.add(chunkKey);
+			}
+		}
+
+		if (!obsoleteChunkKeys.isEmpty()) {
+			OfyService.ofy().delete().keys(obsoleteChunkKeys).now();
+			log.config(LogBuilder.createSystemMessage().
+					addMessage("obsolete chunks deleted").
+					addParameter("chunks", obsoleteChunkKeys.size()).toString());
 		}
 	}
 
@@ -71,7 +112,7 @@ public class DatastoreAdapter extends ImageStorage {
 	protected Image doReadImage(final String photoIdAsString, final int size) throws IOException {
 		Image result = null;
 
-		ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
+		final ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
 			@Override
 			public ImageWrapper run() {
 				return OfyService.ofy().load().type(ImageWrapper.class).id(photoIdAsString + size).now();
@@ -81,6 +122,17 @@ public class DatastoreAdapter extends ImageStorage {
 		if (imageWrapper == null) {
 			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
 		} else {
+			if (imageWrapper.getNoChunks() > 0) {
+				// one batch get, whose entities the Datastore fetches in parallel
+				Map<String, ImageChunk> chunks = ObjectifyService.run(new Work<Map<String, ImageChunk>>() {
+					@Override
+					public Map<String, ImageChunk> run() {
+						return OfyService.ofy().load().type(ImageChunk.class).ids(imageWrapper.getChunkIds());
+					}
+				});
+				imageWrapper.setChunks(chunks);
+			}
+
 			result = imageWrapper.getImage();
 			if (result != null) {
 				log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
@@ -91,26 +143,55 @@ public class DatastoreAdapter extends ImageStorage {
 		return result;
 	}
 
+	/**
+	 * Deletes the manifest along with its chunks in one batch.
+	 */
+	@Override
+	protected void doDeleteImage(final String photoIdAsString, final int size) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				ImageWrapper imageWrapper =
+						OfyService.ofy().load().type(ImageWrapper.class).id(photoIdAsString + size).now();
+				if (imageWrapper == null) {
+					return null;
+				}
+
+				List<Key<?>> keys = new ArrayList<Key<?>>();
+				keys.add(Key.create(imageWrapper));
+				for (String chunkId : imageWrapper.getChunkIds()) {
+					keys.add(Key.create(ImageChunk.class, chunkId));
+				}
+				OfyService.ofy().delete().keys(keys).now();
+				return null;
+			}
+		});
+
+		log.config(LogBuilder.createSystemMessage().addMessage("image deleted").toString());
+	}
+
+	/**
+	 * Runs a keys-only query, so the image data is neither fetched nor decoded.
+	 */
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
-		}
-		if (image != null) {
-			result = true;
-		}
+		final Key<ImageWrapper> key = Key.create(ImageWrapper.class, photoIdAsString + size);
+		Key<ImageWrapper> storedKey = ObjectifyService.run(new Work<Key<ImageWrapper>>() {
+			@Override
+			public Key<ImageWrapper> run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).filterKey(key).keys().first().now();
+			}
+		});
+
+		boolean result = storedKey != null;
 		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
 		return result;
 	}
 
 	/**
-	 * Wrapper class to store {@link Image}s in the Google Datastore with Objectify.
+	 * Wrapper class to store {@link Image}s in the Google Datastore with Objectify. Images that do not fit into one
+	 * entity are split into {@link ImageChunk}s; the wrapper then serves as their manifest, holding their number as
+	 * well as the length and checksum of the whole image.
 	 * 
  	 * @review
 	 */
@@ -118,13 +199,25 @@ public class DatastoreAdapter extends ImageStorage {
 	public static class ImageWrapper {
 
 		// see https://cloud.google.com/datastore/docs/tools/administration
-		public final int maxEntitySize = 1024 * 1024; // = 1 MB
+		public static final int MAX_ENTITY_SIZE = 1024 * 1024; // = 1 MB
+
+		/**
+		 * Leaves room for the id and the other properties of an entity
+		 */
+		public static final int CHUNK_SIZE = MAX_ENTITY_SIZE - 16 * 1024;
 
 		@Id
 		private String id;
 
 		private byte[] imageData;
 
+		private int noChunks = 0;
+		private int length = 0;
+		private long checksum = 0;
+
+		@Ignore
+		private transient Map<String, ImageChunk> chunks = null;
+
 		public ImageWrapper() {
 			// just for Objectify to load it from Datastore
 		}
@@ -135,23 +228,133 @@ public class DatastoreAdapter extends ImageStorage {
 
 		/**
 		 * @methodtype get
+		 *
+		 * Returns null if the image is chunked and its chunks are missing or do not match the manifest.
 		 */
 		public Image getImage() {
-			return ImagesServiceFactory.makeImage(imageData);
+			if (noChunks == 0) {
+				return ImagesServiceFactory.makeImage(imageData);
+			}
+
+			byte[] result = new byte[length];
+			int offset = 0;
+			for (String chunkId : getChunkIds()) {
+				ImageChunk chunk = (chunks == null) ? null : chunks.get(chunkId);
+				if (chunk == null || offset + chunk.getData().length > length) {
+					return null;
+				}
+				System.arraycopy(chunk.getData(), 0, result, offset, chunk.getData().length);
+				offset += chunk.getData().length;
+			}
+
+			if (offset != length || getChecksum(result) != checksum) {
+				return null;
+			}
+			return ImagesServiceFactory.makeImage(result);
 		}
 
 		/**
 		 * @methodtype set
 		 *
-		 * Can not handle images >= 1 MB because this is the upper limit of entities in Google Datastore.
+		 * Keeps small images in the wrapper itself; larger ones are split into chunks of at most CHUNK_SIZE bytes,
+		 * which are returned to be saved along with the wrapper.
 		 */
-		public void setImage(Image image) throws ArrayIndexOutOfBoundsException {
-			if(image.getImageData().length >= maxEntitySize) {
-				throw new ArrayIndexOutOfBoundsException("Can not store images >= 1 MB in the Google Datastore.");
+		public List<ImageChunk> setImageData(byte[] newImageData) {
+			List<ImageChunk> result = new ArrayList<ImageChunk>();
+			if (newImageData.length <= CHUNK_SIZE) {
+				imageData = newImageData;
+				noChunks = 0;
+				length = 0;
+				checksum = 0;
+				return result;
+			}
+
+			imageData = null;
+			noChunks = (newImageData.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			length = newImageData.length;
+			checksum = getChecksum(newImageData);
+			for (int i = 0; i < noChunks; i++) {
+				int from = i * CHUNK_SIZE;
+				int to = Math.min(from + CHUNK_SIZE, newImageData.length);
+				result.add(new ImageChunk(getChunkId(i), Arrays.copyOfRange(newImageData, from, to)));
 			}
-			else {
-				imageData = image.getImageData();
+			return result;
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		public void setChunks(Map<String, ImageChunk> newChunks) {
+			chunks = newChunks;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getNoChunks() {
+			return noChunks;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public List<String> getChunkIds() {
+			List<String> result = new ArrayList<String>(noChunks);
+			for (int i = 0; i < noChunks; i++) {
+				result.add(getChunkId(i));
 			}
+			return result;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected String getChunkId(int index) {
+			return getChunkIdPrefix() + index;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected String getChunkIdPrefix() {
+			return id + "#";
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected static long getChecksum(byte[] bytes) {
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length);
+			return crc.getValue();
+		}
+	}
+
+	/**
+	 * Part of an image that is too large for a single {@link ImageWrapper}.
+	 */
+	@Entity
+	public static class ImageChunk {
+
+		@Id
+		private String id;
+
+		private byte[] data;
+
+		public ImageChunk() {
+			// just for Objectify to load it from Datastore
+		}
+
+		public ImageChunk(String id, byte[] data) {
+			this.id = id;
+			this.data = data;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public byte[] getData() {
+			return data;
 		}
 	}
 }
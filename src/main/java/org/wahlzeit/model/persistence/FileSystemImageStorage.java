@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Image storage on the local file system, e.g. to run or benchmark image I/O without Google Cloud Storage. Images
+ * are spread over shard directories by the hash of their photo id, written to a temporary file and then renamed, so
+ * readers never see a partially written image, and read through a FileChannel; large images are memory-mapped.
+ */
+public class FileSystemImageStorage extends ImageStorage {
+
+	/**
+	 * Number of shard directories, as a power of two
+	 */
+	public static final int NO_SHARDS = 256;
+
+	/**
+	 * Images of at least this size are memory-mapped rather than read into a buffer
+	 */
+	public static final int MIN_MAPPED_SIZE = 64 * 1024;
+
+	/**
+	 * Photo ids, and the ids of uploads, only consist of letters and digits
+	 */
+	protected static final Pattern VALID_FILE_NAME = Pattern.compile("[A-Za-z0-9]+");
+
+	private static final Logger log = Logger.getLogger(FileSystemImageStorage.class.getName());
+
+	/**
+	 *
+	 */
+	protected final Path rootDir;
+
+	/**
+	 * Stores the images in the photos directory of the SysConfig.
+	 *
+	 * @methodtype constructor
+	 */
+	public FileSystemImageStorage() {
+		this(Paths.get(SysConfig.getPhotosDir().asString()));
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public FileSystemImageStorage(Path rootDir) {
+		this.rootDir = rootDir;
+	}
+
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			throw new InvalidParameterException("not an Image object!");
+		}
+
+		Path file = getFile(photoIdAsString, size);
+		Files.createDirectories(file.getParent());
+
+		Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+			try {
+				ByteBuffer bytes = ByteBuffer.wrap(((Image) image).getImageData());
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+			moveFile(tempFile, file);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addMessage("image successfully written").
+				addParameter("file", file).toString());
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		Path file = getFile(photoIdAsString, size);
+
+		byte[] imageData;
+		try {
+			imageData = doReadBytes(file);
+		} catch (NoSuchFileException e) {
+			log.info(LogBuilder.createSystemMessage().addParameter("does not exist", file).toString());
+			return null;
+		}
+
+		log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = isValidFileName(photoIdAsString) && Files.isRegularFile(getFile(photoIdAsString, size));
+		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		return result;
+	}
+
+	@Override
+	protected void doDeleteImage(String photoIdAsString, int size) throws IOException {
+		Path file = getFile(photoIdAsString, size);
+		boolean isDeleted = Files.deleteIfExists(file);
+		log.config(LogBuilder.createSystemMessage().addParameter("image deleted", isDeleted).toString());
+	}
+
+	@Override
+	protected FileChannel doOpenImageChannel(String photoIdAsString, int size) throws IOException {
+		try {
+			return FileChannel.open(getFile(photoIdAsString, size), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the whole file, through a memory mapping if it is large.
+	 *
+	 * @methodtype get
+	 */
+	protected byte[] doReadBytes(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("file too large to be read: " + file);
+			}
+
+			byte[] result = new byte[(int) length];
+			if (length >= MIN_MAPPED_SIZE) {
+				MappedByteBuffer mappedBytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+				mappedBytes.get(result);
+			} else {
+				ByteBuffer bytes = ByteBuffer.wrap(result);
+				while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+					// continue until the buffer is full
+				}
+			}
+			return result;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Replaces the target atomically if the file system supports it.
+	 *
+	 * @methodtype command
+	 */
+	protected void moveFile(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Creates the path of the image file in the specified size. The path structure is:
+	 *
+	 * rootDir/shard/photoIdAsString + size
+	 *
+	 * Ids come from requests, so only letters and digits are accepted, and the path must not leave the root dir.
+	 *
+	 * @methodtype get
+	 */
+	protected Path getFile(String photoIdAsString, int size) throws IllegalArgumentException {
+		assertIsValidFileName(photoIdAsString);
+
+		String shard = Integer.toHexString(NO_SHARDS | (photoIdAsString.hashCode() & (NO_SHARDS - 1))).substring(1);
+		Path result = rootDir.resolve(shard).resolve(photoIdAsString + size).normalize();
+		if (!result.startsWith(rootDir.normalize())) {
+			throw new IllegalArgumentException("image file outside of root dir: " + photoIdAsString);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean isValidFileName(String photoIdAsString) {
+		return photoIdAsString != null && VALID_FILE_NAME.matcher(photoIdAsString).matches();
+	}
+
+	/**
+	 * @methodtype assert
+	 */
+	protected void assertIsValidFileName(String photoIdAsString) throws IllegalArgumentException {
+		if (!isValidFileName(photoIdAsString)) {
+			throw new IllegalArgumentException("Invalid photoId:" + photoIdAsString);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Path getRootDir() {
+		return rootDir;
+	}
+
+}
@@ -32,13 +32,16 @@ import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
 import com.google.appengine.tools.cloudstorage.RetryParams;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.caching.LruCache;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 /**
@@ -51,12 +54,23 @@ public class GcsAdapter extends ImageStorage {
 
 	private static final Logger log = Logger.getLogger(GcsAdapter.class.getName());
 
+	/**
+	 * Maximum number of file metadata entries kept in memory
+	 */
+	public static final int METADATA_CACHE_CAPACITY = 10000;
+
 	private String bucketName;
 	private String photoFolder;
 	private String defaultImageMimeTypeName;
 	private int bufferLength;
 	private GcsService gcsService;
 
+	/**
+	 * Metadata of existing files, by object name; files that do not exist are not cached
+	 */
+	protected final LruCache<String, GcsFileMetadata> metadataCache =
+			new LruCache<String, GcsFileMetadata>(METADATA_CACHE_CAPACITY);
+
 	/**
 	 * Do not use directly, instead use {@link org.wahlzeit.model.persistence.GcsAdapter.Builder} to create an object.
 	 */
@@ -76,6 +90,7 @@ public class GcsAdapter extends ImageStorage {
 
 		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
 		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
+		metadataCache.remove(gcsFilename.getObjectName());
 
 		String fileType = URLConnection.guessContentTypeFromName(gcsFilename.getObjectName());
 		GcsFileOptions.Builder fileOptionsBuilder = new GcsFileOptions.Builder();
@@ -106,14 +121,13 @@ public class GcsAdapter extends ImageStorage {
 		GcsFilename gcsFilename = getGcsFileName(filename, size);
 		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
 
-		GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
-		ByteBuffer bb = ByteBuffer.allocate(bufferLength);
 		Image result = null;
-		try {
-			readChannel.read(bb);
-			result = ImagesServiceFactory.makeImage(bb.array());
-		} catch (IOException e) {
-			// when image does not exist, IOException is thrown
+		GcsFileMetadata gcsFileMetadata = getMetadata(gcsFilename);
+		if (gcsFileMetadata != null) {
+			byte[] imageData = doReadBytes(gcsFilename, gcsFileMetadata.getLength());
+			if (imageData != null) {
+				result = ImagesServiceFactory.makeImage(imageData);
+			}
 		}
 		if (result == null) {
 			log.warning(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
@@ -123,21 +137,120 @@ public class GcsAdapter extends ImageStorage {
 		return result;
 	}
 
-	@Override
-	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
-		boolean result;
+	/**
+	 * Reads the file in chunks of at most bufferLength bytes, expecting it to have the given length. A file replaced
+	 * since its metadata was cached may be shorter or longer, so it is always read until its end. Returns null if
+	 * the file no longer exists.
+	 *
+	 * @methodtype get
+	 */
+	protected byte[] doReadBytes(GcsFilename gcsFilename, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("file too large to be read: " + gcsFilename);
+		}
+
+		ByteBuffer bb = ByteBuffer.allocate((int) length);
+		GcsInputChannel readChannel = null;
 		try {
-			// will be null if file does not exist
-			GcsFileMetadata gcsFileMetadata = gcsService.getMetadata(gcsFilename);
-			result = gcsFileMetadata != null;
-		} catch (IOException e) {
-			result = false;
+			readChannel = gcsService.openReadChannel(gcsFilename, 0);
+			readChunks(readChannel, bb);
+
+			ByteBuffer probe = ByteBuffer.allocate(1);
+			while (!bb.hasRemaining() && readChannel.read(probe) > 0) {
+				// file was replaced by a longer one since its metadata was cached
+				metadataCache.remove(gcsFilename.getObjectName());
+				bb = growBuffer(bb, gcsFilename);
+				probe.flip();
+				bb.put(probe);
+				probe.clear();
+				readChunks(readChannel, bb);
+			}
+		} catch (FileNotFoundException e) {
+			metadataCache.remove(gcsFilename.getObjectName());
+			return null;
+		} finally {
+			if (readChannel != null) {
+				readChannel.close();
+			}
+		}
+
+		if (bb.position() < length) {
+			// file was replaced by a shorter one since its metadata was cached
+			metadataCache.remove(gcsFilename.getObjectName());
+		}
+		return (bb.position() < bb.capacity()) ? Arrays.copyOf(bb.array(), bb.position()) : bb.array();
+	}
+
+	/**
+	 * Reads from the channel in chunks of at most bufferLength bytes, until the buffer is full or the end of the file
+	 * is reached.
+	 *
+	 * @methodtype command
+	 */
+	protected void readChunks(GcsInputChannel readChannel, ByteBuffer bb) throws IOException {
+		int noBytesRead = 0;
+		while (bb.hasRemaining() && noBytesRead >= 0) {
+			bb.limit(Math.min(bb.capacity(), bb.position() + bufferLength));
+			noBytesRead = readChannel.read(bb);
 		}
+		bb.limit(bb.capacity());
+	}
+
+	/**
+	 * Returns a buffer of twice the capacity that holds the bytes read so far.
+	 *
+	 * @methodtype factory
+	 */
+	protected ByteBuffer growBuffer(ByteBuffer bb, GcsFilename gcsFilename) throws IOException {
+		long newCapacity = Math.max(2L * bb.capacity(), bufferLength);
+		if (bb.capacity() == Integer.MAX_VALUE) {
+			throw new IOException("file too large to be read: " + gcsFilename);
+		}
+
+		ByteBuffer result = ByteBuffer.allocate((int) Math.min(newCapacity, Integer.MAX_VALUE));
+		bb.flip();
+		result.put(bb);
+		return result;
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		GcsFileMetadata gcsFileMetadata = getMetadata(getGcsFileName(photoIdAsString, size));
+		boolean result = gcsFileMetadata != null;
 		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
 		return result;
 	}
 
+	@Override
+	protected void doDeleteImage(String photoIdAsString, int size) throws IOException {
+		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
+		metadataCache.remove(gcsFilename.getObjectName());
+		boolean isDeleted = gcsService.delete(gcsFilename);
+		log.config(LogBuilder.createSystemMessage().addParameter("image deleted", isDeleted).toString());
+	}
+
+	/**
+	 * Returns the metadata of the specified file, asking Cloud Storage only if it is not cached yet. When the file
+	 * does not exist, null is returned.
+	 *
+	 * @methodtype get
+	 */
+	protected GcsFileMetadata getMetadata(GcsFilename gcsFilename) {
+		String objectName = gcsFilename.getObjectName();
+		GcsFileMetadata result = metadataCache.get(objectName);
+		if (result == null) {
+			try {
+				// will be null if file does not exist
+				result = gcsService.getMetadata(gcsFilename);
+			} catch (IOException e) {
+				result = null;
+			}
+			if (result != null) {
+				metadataCache.put(objectName, result);
+			}
+		}
+		return result;
+	}
 
 	/**
 	 * Creates a <code>GcsFilename</code> for the photo in the specified size. The name structure is:
@@ -164,8 +277,8 @@ public class GcsAdapter extends ImageStorage {
 			photoFolderName = "photos";
 			defaultImageMimeTypeName = "image/jpeg";
 			/**
-			 * 1 MB Buffer, does not limit the size of the files. A valid compromise between unused allocation and
-			 * reallocation.
+			 * 1 MB chunks per read call; reads are sized from the file length, so this does not limit the size of
+			 * the files.
 			 */
 			bufferLength = 1024 * 1024;
 			gcsService = GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
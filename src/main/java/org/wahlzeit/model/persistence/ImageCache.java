@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.caching.Cache;
+import org.wahlzeit.services.caching.CacheLoader;
+import org.wahlzeit.services.caching.CacheStats;
+import org.wahlzeit.services.caching.LruCache;
+import org.wahlzeit.services.caching.Weigher;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Read-through cache for the bytes of scaled images, keyed by photo id and size and bounded by their total size.
+ * Images are loaded from the ImageStorage when they are first requested, so nothing needs to be preloaded on startup.
+ * Optionally, the bytes are kept in direct buffers outside the Java heap, so that a large cache does not add to the
+ * garbage collector's work.
+ */
+public class ImageCache {
+
+	/**
+	 * Names of the system properties (see appengine-web.xml) to configure the cache
+	 */
+	public static final String MAX_BYTES_PROPERTY = "wahlzeit.imageCache.maxBytes";
+
+	/**
+	 * Off-heap buffers are best served with getImageBuffer; getImage then copies the bytes into a new array on every
+	 * hit, as an Image cannot be made from a direct buffer.
+	 */
+	public static final String OFF_HEAP_PROPERTY = "wahlzeit.imageCache.offHeap";
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	/**
+	 * Largest image the segments of the cache are sized for; the cache is split into fewer segments if needed
+	 */
+	public static final long MAX_IMAGE_BYTES = 4L * 1024 * 1024;
+
+	private static final Logger log = Logger.getLogger(ImageCache.class.getName());
+
+	/**
+	 *
+	 */
+	protected static ImageCache instance = null;
+
+	/**
+	 *
+	 */
+	protected final Cache<Key, ByteBuffer> cache;
+	protected final long maxImageBytes;
+	protected final boolean isOffHeap;
+
+	/**
+	 * Number of images too large to be cached
+	 */
+	protected final AtomicLong noRejectedImages = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected final CacheLoader<Key, ByteBuffer> imageLoader = new CacheLoader<Key, ByteBuffer>() {
+		@Override
+		public ByteBuffer load(Key key) {
+			return doLoadImage(key);
+		}
+	};
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageCache(long maxBytes, boolean isOffHeap) {
+		this.isOffHeap = isOffHeap;
+		LruCache<Key, ByteBuffer> lruCache = new LruCache<Key, ByteBuffer>(maxBytes, getConcurrencyLevel(maxBytes),
+				new Weigher<ByteBuffer>() {
+					@Override
+					public int weigh(ByteBuffer value) {
+						return value.capacity();
+					}
+				});
+		this.maxImageBytes = lruCache.getMaxEntryWeight();
+		this.cache = lruCache;
+	}
+
+	/**
+	 * Returns the largest number of segments, up to the default, that still fit an image of MAX_IMAGE_BYTES each.
+	 *
+	 * @methodtype get
+	 */
+	protected static int getConcurrencyLevel(long maxBytes) {
+		int result = 1;
+		while (result < LruCache.DEFAULT_CONCURRENCY_LEVEL && 2 * result * MAX_IMAGE_BYTES <= maxBytes) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the cache as configured by the system properties on first use.
+	 *
+	 * @methodtype get
+	 */
+	public static synchronized ImageCache getInstance() {
+		if (instance == null) {
+			long maxBytes = SysConfig.getPropertyAsLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+			boolean isOffHeap = SysConfig.getPropertyAsBoolean(OFF_HEAP_PROPERTY, false);
+			log.config(LogBuilder.createSystemMessage().
+					addAction("create ImageCache").
+					addParameter("max bytes", maxBytes).
+					addParameter("off heap", isOffHeap).toString());
+			instance = new ImageCache(maxBytes, isOffHeap);
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(ImageCache imageCache) {
+		instance = imageCache;
+	}
+
+	/**
+	 * Returns the image from the cache or loads it from the ImageStorage; returns null if it does not exist. If the
+	 * cache is kept off-heap, the bytes are copied into a new array on every call.
+	 *
+	 * @methodtype get
+	 */
+	public Image getImage(String photoIdAsString, int size) {
+		ByteBuffer bytes = cache.get(new Key(photoIdAsString, size), imageLoader);
+		return (bytes == null) ? null : ImagesServiceFactory.makeImage(asByteArray(bytes));
+	}
+
+	/**
+	 * Returns the cached bytes of the image in a buffer of their own position and limit, so they can be written to a
+	 * response without an intermediate array; the bytes are shared and must not be changed. If isLoading, the image
+	 * is loaded from the ImageStorage first if needed; returns null if it does not exist, or if it is not cached and
+	 * not to be loaded. A lookup without loading records a hit but no miss, as the caller is expected to look further.
+	 *
+	 * @methodtype get
+	 */
+	public ByteBuffer getImageBuffer(String photoIdAsString, int size, boolean isLoading) {
+		Key key = new Key(photoIdAsString, size);
+		ByteBuffer bytes;
+		if (isLoading) {
+			bytes = cache.get(key, imageLoader);
+		} else {
+			bytes = cache.peek(key);
+			if (bytes != null) {
+				cache.getStats().recordHit();
+			}
+		}
+
+		if (bytes == null) {
+			return null;
+		}
+
+		ByteBuffer result = bytes.duplicate();
+		result.clear();
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void putImage(String photoIdAsString, int size, Image image) {
+		Key key = new Key(photoIdAsString, size);
+		byte[] bytes = image.getImageData();
+		if (isCacheable(key, bytes.length)) {
+			cache.put(key, asByteBuffer(bytes));
+		} else {
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removeImage(String photoIdAsString, int size) {
+		cache.remove(new Key(photoIdAsString, size));
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean hasImage(String photoIdAsString, int size) {
+		return cache.containsKey(new Key(photoIdAsString, size));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStats getStats() {
+		return cache.getStats();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getSizeInBytes() {
+		return cache.getWeight();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxImageBytes() {
+		return maxImageBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoRejectedImages() {
+		return noRejectedImages.get();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Images too large to be cached are still returned, but evicted again right away.
+	 *
+	 * @methodtype command
+	 */
+	protected ByteBuffer doLoadImage(Key key) {
+		try {
+			Serializable rawImage = ImageStorage.getInstance().readImage(key.photoIdAsString, key.size);
+			if (rawImage instanceof Image) {
+				byte[] bytes = ((Image) rawImage).getImageData();
+				isCacheable(key, bytes.length);
+				return asByteBuffer(bytes);
+			}
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("photo ID", key.photoIdAsString).
+					addParameter("size", key.size).
+					addException("Problem when reading image", e).toString());
+		}
+		return null;
+	}
+
+	/**
+	 * Counts and logs images that exceed the share of a segment, as the cache would evict them right away.
+	 *
+	 * @methodtype boolean query
+	 */
+	protected boolean isCacheable(Key key, long noBytes) {
+		if (noBytes <= maxImageBytes) {
+			return true;
+		}
+
+		noRejectedImages.incrementAndGet();
+		log.warning(LogBuilder.createSystemMessage().
+				addAction("reject image too large for ImageCache").
+				addParameter("photo ID", key.photoIdAsString).
+				addParameter("size", key.size).
+				addParameter("bytes", noBytes).
+				addParameter("max bytes", maxImageBytes).toString());
+		return false;
+	}
+
+	/**
+	 * Wraps the bytes on the heap, or copies them into a direct buffer if the cache is kept off-heap.
+	 *
+	 * @methodtype conversion
+	 */
+	protected ByteBuffer asByteBuffer(byte[] bytes) {
+		if (!isOffHeap) {
+			return ByteBuffer.wrap(bytes);
+		}
+
+		ByteBuffer result = ByteBuffer.allocateDirect(bytes.length);
+		result.put(bytes);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected byte[] asByteArray(ByteBuffer bytes) {
+		if (bytes.hasArray() && bytes.arrayOffset() == 0 && bytes.array().length == bytes.capacity()) {
+			return bytes.array();
+		}
+
+		byte[] result = new byte[bytes.capacity()];
+		ByteBuffer source = bytes.duplicate();
+		source.clear();
+		source.get(result);
+		return result;
+	}
+
+	/**
+	 * Identifies a scaled image by photo id and size.
+	 */
+	protected static class Key {
+
+		/**
+		 *
+		 */
+		protected final String photoIdAsString;
+		protected final int size;
+
+		/**
+		 *
+		 */
+		protected Key(String photoIdAsString, int size) {
+			this.photoIdAsString = photoIdAsString;
+			this.size = size;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return size == key.size && photoIdAsString.equals(key.photoIdAsString);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * photoIdAsString.hashCode() + size;
+		}
+	}
+
+}
@@ -1,11 +1,23 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.ThreadManager;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.caching.Cache;
+import org.wahlzeit.services.caching.LruCache;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.security.InvalidParameterException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -15,9 +27,37 @@ import java.util.logging.Logger;
  */
 public abstract class ImageStorage {
 
+	/**
+	 * Name of the system property (see appengine-web.xml) that bounds the threads of the I/O executor
+	 */
+	public static final String IO_THREADS_PROPERTY = "wahlzeit.images.ioThreads";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_IO_THREADS = 4;
+	public static final int MAX_PENDING_IO_TASKS = 1000;
+
+	/**
+	 * Number of photo ids whose stored sizes are remembered, a few dozen bytes each
+	 */
+	public static final int MAX_KNOWN_PHOTO_IDS = 100000;
+
 	private static final Logger log = Logger.getLogger(ImageStorage.class.getName());
 	private static ImageStorage instance = null;
 
+	/**
+	 * Shared by all storages, so the number of concurrent image transfers is bounded per instance
+	 */
+	private static Executor ioExecutor = null;
+
+	/**
+	 * Bit masks of the sizes known to be stored, by photo id, so a known image needs no further lookup. Only uploads
+	 * are deleted, through deleteImage, which clears their bits; absence is not remembered, as other instances may
+	 * write the image meanwhile. The least recently used ids are dropped, which only costs another lookup.
+	 */
+	protected final Cache<String, Integer> storedSizes = new LruCache<String, Integer>(MAX_KNOWN_PHOTO_IDS);
+
 	/**
 	 * @methodtype get
 	 */
@@ -31,15 +71,41 @@ public abstract class ImageStorage {
 	}
 
 	/**
+	 * Null resets the instance, e.g. after a test.
+	 *
 	 * @methodtype set
 	 */
 	public static void setInstance(ImageStorage newInstance) {
 		log.config(LogBuilder.createSystemMessage().
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", String.valueOf(newInstance)).toString());
 		instance = newInstance;
 	}
 
+	/**
+	 * Creates a bounded pool of background threads on first use; when it is full, the calling thread runs the task.
+	 *
+	 * @methodtype get
+	 */
+	public static synchronized Executor getIoExecutor() {
+		if (ioExecutor == null) {
+			int noThreads = (int) SysConfig.getPropertyAsLong(IO_THREADS_PROPERTY, DEFAULT_NO_IO_THREADS);
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(noThreads, noThreads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(MAX_PENDING_IO_TASKS), ThreadManager.backgroundThreadFactory(),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			ioExecutor = executor;
+		}
+		return ioExecutor;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setIoExecutor(Executor newIoExecutor) {
+		ioExecutor = newIoExecutor;
+	}
+
 
 	// write-methods ---------------------------------------------------------------------------------------------------
 
@@ -64,6 +130,22 @@ public abstract class ImageStorage {
 				addParameter("size", size).toString());
 
 		doWriteImage(image, photoIdAsString, size);
+		setIsStored(photoIdAsString, size);
+	}
+
+	/**
+	 * Writes the image on the I/O executor; failures are reported by the returned Future.
+	 *
+	 * @methodtype command
+	 */
+	public Future<Void> writeImageAsync(final Serializable image, final String photoIdAsString, final int size) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				writeImage(image, photoIdAsString, size);
+				return null;
+			}
+		});
 	}
 
 	/**
@@ -98,6 +180,20 @@ public abstract class ImageStorage {
 		return doReadImage(photoIdAsString, size);
 	}
 
+	/**
+	 * Reads the image on the I/O executor; the returned Future yields null if the image is not found.
+	 *
+	 * @methodtype get
+	 */
+	public Future<Serializable> readImageAsync(final String photoIdAsString, final int size) {
+		return submit(new Callable<Serializable>() {
+			@Override
+			public Serializable call() throws IOException {
+				return readImage(photoIdAsString, size);
+			}
+		});
+	}
+
 	/**
 	 * Actually reads the specified file from the storage. When not found, null is returned.
 	 *
@@ -108,6 +204,40 @@ public abstract class ImageStorage {
 			throws IOException;
 
 
+	// delete methods --------------------------------------------------------------------------------------------------
+
+	/**
+	 * Deletes the image from the storage, e.g. an uploaded image once it is processed. An image that does not exist
+	 * is ignored.
+	 *
+	 * @methodtype command
+	 * @methodproperty wrapper
+	 */
+	public void deleteImage(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("delete image from storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("size", size).toString());
+
+		doDeleteImage(photoIdAsString, size);
+		setIsNotStored(photoIdAsString, size);
+	}
+
+	/**
+	 * Actually deletes the image from the storage
+	 *
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected abstract void doDeleteImage(String photoIdAsString, int size)
+			throws IOException;
+
+
 	// exist method ----------------------------------------------------------------------------------------------------
 
 	/**
@@ -127,7 +257,15 @@ public abstract class ImageStorage {
 				addParameter("photo id", photoIdAsString).
 				addParameter("size", size).toString());
 
-		return doDoesImageExist(photoIdAsString, size);
+		if (isKnownToBeStored(photoIdAsString, size)) {
+			return true;
+		}
+
+		boolean result = doDoesImageExist(photoIdAsString, size);
+		if (result) {
+			setIsStored(photoIdAsString, size);
+		}
+		return result;
 	}
 
 
@@ -139,6 +277,94 @@ public abstract class ImageStorage {
 	 */
 	protected abstract boolean doDoesImageExist(String photoIdAsString, int size);
 
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean isKnownToBeStored(String photoIdAsString, int size) {
+		Integer sizes = storedSizes.get(photoIdAsString);
+		return sizes != null && (sizes & (1 << size)) != 0;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void setIsStored(String photoIdAsString, int size) {
+		int sizeBit = 1 << size;
+		synchronized (storedSizes) {
+			Integer sizes = storedSizes.get(photoIdAsString);
+			storedSizes.put(photoIdAsString, (sizes == null) ? sizeBit : sizes | sizeBit);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void setIsNotStored(String photoIdAsString, int size) {
+		int sizeBit = 1 << size;
+		synchronized (storedSizes) {
+			Integer sizes = storedSizes.get(photoIdAsString);
+			if (sizes == null) {
+				return;
+			}
+
+			int remainingSizes = sizes & ~sizeBit;
+			if (remainingSizes == 0) {
+				storedSizes.remove(photoIdAsString);
+			} else {
+				storedSizes.put(photoIdAsString, remainingSizes);
+			}
+		}
+	}
+
+
+	/**
+	 * Runs the task on the I/O executor; where no background threads are available, it runs in the calling thread.
+	 *
+	 * @methodtype command
+	 */
+	protected <T> Future<T> submit(Callable<T> task) {
+		FutureTask<T> result = new FutureTask<T>(task);
+		try {
+			getIoExecutor().execute(result);
+		} catch (RuntimeException e) {
+			result.run();
+		}
+		return result;
+	}
+
+	/**
+	 * Opens the stored image as a file channel, so it can be served without reading it into memory; returns null if
+	 * the image is not stored in a file of this storage. The caller closes the channel.
+	 *
+	 * @methodtype factory
+	 * @methodproperty wrapper
+	 */
+	public FileChannel openImageChannel(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		return doOpenImageChannel(photoIdAsString, size);
+	}
+
+	/**
+	 * Actually opens the file of the image; storages that do not keep images in files return null.
+	 *
+	 * @methodtype factory
+	 * @methodproperty hook
+	 */
+	protected FileChannel doOpenImageChannel(String photoIdAsString, int size) throws IOException {
+		return null;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return getClass().getSimpleName();
+	}
+
 
 	// assertion methods -----------------------------------------------------------------------------------------------
 
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.ThreadManager;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Image storage that chains other storages as tiers, fastest first, e.g. the local file system in front of Cloud
+ * Storage. Reads try the tiers in order and copy the image to the faster tiers that missed it; writes return once
+ * the first tier has the image and replicate it to the slower tiers in the background. The in-memory tier in front
+ * of all of them is the ImageCache.
+ */
+public class TieredImageStorage extends ImageStorage {
+
+	/**
+	 * Bounds of the default replicator; when its queue is full, the writing thread replicates itself
+	 */
+	public static final int MAX_REPLICATION_THREADS = 2;
+	public static final int MAX_PENDING_REPLICATIONS = 1000;
+
+	private static final Logger log = Logger.getLogger(TieredImageStorage.class.getName());
+
+	/**
+	 *
+	 */
+	protected final List<ImageStorage> tiers;
+	protected final List<TierStats> tierStats;
+	protected final Executor replicator;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public TieredImageStorage(List<ImageStorage> tiers) {
+		this(tiers, createReplicator());
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public TieredImageStorage(List<ImageStorage> tiers, Executor replicator) {
+		if (tiers.isEmpty()) {
+			throw new IllegalArgumentException("no image storage tiers given");
+		}
+
+		this.tiers = Collections.unmodifiableList(new ArrayList<ImageStorage>(tiers));
+		this.replicator = replicator;
+
+		List<TierStats> stats = new ArrayList<TierStats>(tiers.size());
+		for (ImageStorage tier : tiers) {
+			stats.add(new TierStats(tier.getClass().getSimpleName()));
+		}
+		this.tierStats = Collections.unmodifiableList(stats);
+	}
+
+	/**
+	 * Replicates on background threads; where those are not available, execute fails and the writing thread
+	 * replicates itself.
+	 *
+	 * @methodtype factory
+	 */
+	protected static Executor createReplicator() {
+		ThreadPoolExecutor result = new ThreadPoolExecutor(MAX_REPLICATION_THREADS, MAX_REPLICATION_THREADS,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_PENDING_REPLICATIONS),
+				ThreadManager.backgroundThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+		result.allowCoreThreadTimeOut(true);
+		return result;
+	}
+
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		long startTime = System.nanoTime();
+		tiers.get(0).writeImage(image, photoIdAsString, size);
+		tierStats.get(0).recordWrite(System.nanoTime() - startTime);
+
+		replicate(image, photoIdAsString, size, 1, tiers.size());
+	}
+
+	@Override
+	protected Serializable doReadImage(String photoIdAsString, int size) throws IOException {
+		for (int i = 0; i < tiers.size(); i++) {
+			long startTime = System.nanoTime();
+			Serializable result = tiers.get(i).readImage(photoIdAsString, size);
+			tierStats.get(i).recordRead(result != null, System.nanoTime() - startTime);
+
+			if (result != null) {
+				replicate(result, photoIdAsString, size, 0, i);
+				return result;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		for (ImageStorage tier : tiers) {
+			if (tier.doesImageExist(photoIdAsString, size)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes the image from all tiers, slowest first, so that a concurrent read does not copy it back from a slower
+	 * tier into a faster one.
+	 */
+	@Override
+	protected void doDeleteImage(String photoIdAsString, int size) throws IOException {
+		for (int i = tiers.size() - 1; i >= 0; i--) {
+			tiers.get(i).deleteImage(photoIdAsString, size);
+		}
+	}
+
+	/**
+	 * Opens the file of the first tier that keeps the image in a file.
+	 */
+	@Override
+	protected FileChannel doOpenImageChannel(String photoIdAsString, int size) throws IOException {
+		for (ImageStorage tier : tiers) {
+			FileChannel result = tier.openImageChannel(photoIdAsString, size);
+			if (result != null) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the image to the tiers from fromTier (inclusive) to toTier (exclusive) in the background; failures are
+	 * counted and logged, as the image is safe in another tier.
+	 *
+	 * @methodtype command
+	 */
+	protected void replicate(final Serializable image, final String photoIdAsString, final int size,
+							 final int fromTier, final int toTier) {
+		if (fromTier >= toTier) {
+			return;
+		}
+
+		Runnable replication = new Runnable() {
+			@Override
+			public void run() {
+				for (int i = fromTier; i < toTier; i++) {
+					long startTime = System.nanoTime();
+					try {
+						tiers.get(i).writeImage(image, photoIdAsString, size);
+						tierStats.get(i).recordWrite(System.nanoTime() - startTime);
+					} catch (IOException | RuntimeException e) {
+						tierStats.get(i).recordFailedWrite();
+						log.warning(LogBuilder.createSystemMessage().
+								addParameter("tier", tierStats.get(i).getName()).
+								addParameter("photo ID", photoIdAsString).
+								addParameter("size", size).
+								addException("could not replicate image", e).toString());
+					}
+				}
+			}
+		};
+
+		try {
+			replicator.execute(replication);
+		} catch (RuntimeException e) {
+			replication.run();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<ImageStorage> getTiers() {
+		return tiers;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<TierStats> getTierStats() {
+		return tierStats;
+	}
+
+	@Override
+	public String asString() {
+		StringBuilder result = new StringBuilder();
+		for (TierStats stats : tierStats) {
+			if (result.length() > 0) {
+				result.append("; ");
+			}
+			result.append(stats.asString());
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Counters of one tier; updated lock-free by concurrent request threads.
+	 */
+	public static class TierStats {
+
+		/**
+		 *
+		 */
+		protected final String name;
+
+		/**
+		 *
+		 */
+		protected final AtomicLong hitCount = new AtomicLong();
+		protected final AtomicLong missCount = new AtomicLong();
+		protected final AtomicLong readNanos = new AtomicLong();
+		protected final AtomicLong writeCount = new AtomicLong();
+		protected final AtomicLong failedWriteCount = new AtomicLong();
+		protected final AtomicLong writeNanos = new AtomicLong();
+
+		/**
+		 * @methodtype constructor
+		 */
+		protected TierStats(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void recordRead(boolean isHit, long nanos) {
+			(isHit ? hitCount : missCount).incrementAndGet();
+			readNanos.addAndGet(nanos);
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void recordWrite(long nanos) {
+			writeCount.incrementAndGet();
+			writeNanos.addAndGet(nanos);
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void recordFailedWrite() {
+			failedWriteCount.incrementAndGet();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getHitCount() {
+			return hitCount.get();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getMissCount() {
+			return missCount.get();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public double getHitRatio() {
+			long noReads = getHitCount() + getMissCount();
+			return (noReads == 0) ? 0.0 : (double) getHitCount() / noReads;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getWriteCount() {
+			return writeCount.get();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getFailedWriteCount() {
+			return failedWriteCount.get();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public double getAverageReadMillis() {
+			long noReads = getHitCount() + getMissCount();
+			return (noReads == 0) ? 0.0 : readNanos.get() / 1e6 / noReads;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public double getAverageWriteMillis() {
+			long noWrites = getWriteCount();
+			return (noWrites == 0) ? 0.0 : writeNanos.get() / 1e6 / noWrites;
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		public String asString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(name);
+			builder.append(" - hits: ").append(getHitCount());
+			builder.append(", misses: ").append(getMissCount());
+			builder.append(", hit rate: ").append(Math.round(getHitRatio() * 100)).append("%");
+			builder.append(", read: ").append(Math.round(getAverageReadMillis())).append(" ms");
+			builder.append(", writes: ").append(getWriteCount());
+			builder.append(", failed: ").append(getFailedWriteCount());
+			builder.append(", write: ").append(Math.round(getAverageWriteMillis())).append(" ms");
+			return builder.toString();
+		}
+	}
+
+}
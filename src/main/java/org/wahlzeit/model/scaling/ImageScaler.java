@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.scaling;
+
+import com.google.appengine.api.images.Image;
+
+import java.io.IOException;
+
+/**
+ * Scales images in the form the scaler works on, so that a cascade of sizes needs to decode the source only once
+ * and to encode each size only once.
+ *
+ * @param <T> the decoded form of an image
+ */
+public interface ImageScaler<T> {
+
+	/**
+	 * @methodtype conversion
+	 */
+	T decode(Image image) throws IOException;
+
+	/**
+	 * @methodtype get
+	 */
+	int getWidth(T image);
+
+	/**
+	 * @methodtype get
+	 */
+	int getHeight(T image);
+
+	/**
+	 * @methodtype factory
+	 */
+	T scale(T source, int width, int height) throws IOException;
+
+	/**
+	 * Encodes the scaled image in the format of the given source image.
+	 *
+	 * @methodtype conversion
+	 */
+	Image encode(T image, Image source) throws IOException;
+
+}
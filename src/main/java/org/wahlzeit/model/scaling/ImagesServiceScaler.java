@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.scaling;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.Transform;
+
+/**
+ * Scales images with the Images service of Google App Engine, which decodes and encodes them itself.
+ */
+public class ImagesServiceScaler implements ImageScaler<Image> {
+
+	@Override
+	public Image decode(Image image) {
+		return image;
+	}
+
+	@Override
+	public int getWidth(Image image) {
+		return image.getWidth();
+	}
+
+	@Override
+	public int getHeight(Image image) {
+		return image.getHeight();
+	}
+
+	@Override
+	public Image scale(Image source, int width, int height) {
+		ImagesService imagesService = ImagesServiceFactory.getImagesService();
+		Transform resize = ImagesServiceFactory.makeResize(width, height);
+		// the service may alter the image it is given, so it works on a copy
+		return imagesService.applyTransform(resize, ImagesServiceFactory.makeImage(source.getImageData()));
+	}
+
+	@Override
+	public Image encode(Image image, Image source) {
+		return image;
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.scaling;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pure-Java scaler based on Java 2D and ImageIO, so uploads can be processed and benchmarked without the Images
+ * service, e.g. locally. The rows of a scaled image are drawn in parallel bands on a fork-join pool; images are
+ * reduced by at most half per step, so that bilinear interpolation does not skip source pixels.
+ */
+public class Java2dImageScaler implements ImageScaler<BufferedImage> {
+
+	/**
+	 * Bands of fewer rows are not split further
+	 */
+	public static final int MIN_BAND_HEIGHT = 64;
+
+	/**
+	 *
+	 */
+	protected final ForkJoinPool pool;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public Java2dImageScaler() {
+		this(new ForkJoinPool());
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public Java2dImageScaler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public BufferedImage decode(Image image) throws IOException {
+		BufferedImage result = ImageIO.read(new ByteArrayInputStream(image.getImageData()));
+		if (result == null) {
+			throw new IOException("image format not supported by ImageIO");
+		}
+		return result;
+	}
+
+	@Override
+	public int getWidth(BufferedImage image) {
+		return image.getWidth();
+	}
+
+	@Override
+	public int getHeight(BufferedImage image) {
+		return image.getHeight();
+	}
+
+	@Override
+	public BufferedImage scale(BufferedImage source, int width, int height) {
+		BufferedImage result = source;
+		do {
+			int stepWidth = Math.max(width, result.getWidth() / 2);
+			int stepHeight = Math.max(height, result.getHeight() / 2);
+			result = doScale(result, stepWidth, stepHeight);
+		} while (result.getWidth() != width || result.getHeight() != height);
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected BufferedImage doScale(BufferedImage source, int width, int height) {
+		int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage result = new BufferedImage(width, height, type);
+		pool.invoke(new ScaleBand(source, result, 0, height));
+		return result;
+	}
+
+	@Override
+	public Image encode(BufferedImage image, Image source) throws IOException {
+		String formatName = getFormatName(source);
+		BufferedImage encodable = image;
+		if ("jpeg".equals(formatName) && image.getColorModel().hasAlpha()) {
+			encodable = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D graphics = encodable.createGraphics();
+			graphics.drawImage(image, 0, 0, null);
+			graphics.dispose();
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (!ImageIO.write(encodable, formatName, bytes)) {
+			throw new IOException("no ImageIO writer for " + formatName);
+		}
+		return ImagesServiceFactory.makeImage(bytes.toByteArray());
+	}
+
+	/**
+	 * Keeps PNG and GIF, which may be transparent; all other formats become JPEG.
+	 *
+	 * @methodtype get
+	 */
+	protected String getFormatName(Image source) {
+		Image.Format format = source.getFormat();
+		if (format == Image.Format.PNG) {
+			return "png";
+		} else if (format == Image.Format.GIF) {
+			return "gif";
+		}
+		return "jpeg";
+	}
+
+	/**
+	 * Draws the rows from fromY to toY of the scaled image, splitting them in halves while they are large.
+	 */
+	protected static class ScaleBand extends RecursiveAction {
+
+		/**
+		 *
+		 */
+		protected final BufferedImage source;
+		protected final BufferedImage target;
+		protected final int fromY;
+		protected final int toY;
+
+		/**
+		 *
+		 */
+		protected ScaleBand(BufferedImage source, BufferedImage target, int fromY, int toY) {
+			this.source = source;
+			this.target = target;
+			this.fromY = fromY;
+			this.toY = toY;
+		}
+
+		@Override
+		protected void compute() {
+			if (toY - fromY <= MIN_BAND_HEIGHT) {
+				Graphics2D graphics = target.createGraphics();
+				try {
+					graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+							RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+					graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+					graphics.clipRect(0, fromY, target.getWidth(), toY - fromY);
+					graphics.drawImage(source, 0, 0, target.getWidth(), target.getHeight(), null);
+				} finally {
+					graphics.dispose();
+				}
+			} else {
+				int middleY = (fromY + toY) >>> 1;
+				invokeAll(new ScaleBand(source, target, fromY, middleY), new ScaleBand(source, target, middleY, toY));
+			}
+		}
+	}
+
+}
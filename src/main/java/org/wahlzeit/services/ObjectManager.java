@@ -23,6 +23,7 @@ package org.wahlzeit.services;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.logging.Logger;
@@ -40,6 +41,31 @@ public abstract class ObjectManager {
 
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
+	/**
+	 * Number of datastore calls made by the current thread, so that the cost of a save can be reported
+	 */
+	private static final ThreadLocal<int[]> noDatastoreCalls = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	/**
+	 * @methodtype get
+	 */
+	public static int getNoDatastoreCalls() {
+		return noDatastoreCalls.get()[0];
+	}
+
+	/**
+	 * To be called for every call to the datastore made on behalf of an ObjectManager.
+	 *
+	 * @methodtype command
+	 */
+	public static void countDatastoreCall() {
+		noDatastoreCalls.get()[0]++;
+	}
 
 	/**
 	 * Reads the first Entity with the given key in the Datastore
@@ -50,6 +76,7 @@ public abstract class ObjectManager {
 
 		log.config(LogBuilder.createSystemMessage().
 				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		countDatastoreCall();
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -71,6 +98,7 @@ public abstract class ObjectManager {
 
 		log.config(LogBuilder.createSystemMessage().
 				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		countDatastoreCall();
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -87,6 +115,7 @@ public abstract class ObjectManager {
 				addMessage("Load Type " + type.toString() + " with parameter " +
 						parameterName + " == " + value + " from datastore.").toString());
 
+		countDatastoreCall();
 		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
 				.now();
 	}
@@ -100,6 +129,7 @@ public abstract class ObjectManager {
 
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("Datastore: load all entities of type", type.getName()).toString());
+		countDatastoreCall();
 		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("Datastore: number of loaded objects", objects.size()).toString());
@@ -119,6 +149,7 @@ public abstract class ObjectManager {
 		log.info(LogBuilder.createSystemMessage().
 				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
 						+ propertyName + " = " + value.toString() + " from datastore.").toString());
+		countDatastoreCall();
 		List<E> objects = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).list();
 		log.config(LogBuilder.createSystemMessage().
@@ -151,6 +182,7 @@ public abstract class ObjectManager {
 		if (object.isDirty()) {
 			log.info(LogBuilder.createSystemMessage().
 					addParameter("Datastore: Write object of type", object).toString());
+			countDatastoreCall();
 			OfyService.ofy().save().entity(object).now();
 			updateDependents(object);
 			object.resetWriteCount();
@@ -160,6 +192,32 @@ public abstract class ObjectManager {
 		}
 	}
 
+	/**
+	 * Writes all dirty entities of the given collection to the datastore in one batch.
+	 */
+	protected void writeObjects(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		List<Persistent> dirtyObjects = new ArrayList<Persistent>();
+		for (Persistent object : collection) {
+			if (object.isDirty()) {
+				dirtyObjects.add(object);
+			}
+		}
+		if (dirtyObjects.isEmpty()) {
+			return;
+		}
+
+		log.info(LogBuilder.createSystemMessage().
+				addParameter("Datastore: Write objects", dirtyObjects.size()).toString());
+		countDatastoreCall();
+		OfyService.ofy().save().entities(dirtyObjects).now();
+		for (Persistent object : dirtyObjects) {
+			updateDependents(object);
+			object.resetWriteCount();
+		}
+	}
+
 	/**
 	 * Updates all dependencies of the object.
 	 */
@@ -174,9 +232,25 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(object, "object");
 
 		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		countDatastoreCall();
 		OfyService.ofy().delete().entity(object).now();
 	}
 
+	/**
+	 * Deletes all given entities from the datastore in one batch.
+	 */
+	protected void deleteObjects(Collection<?> objects) {
+		assertIsNonNullArgument(objects, "objects");
+		if (objects.isEmpty()) {
+			return;
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Datastore: delete entities", objects.size()).toString());
+		countDatastoreCall();
+		OfyService.ofy().delete().entities(objects).now();
+	}
+
 	/**
 	 * Deletes all entities of the type that have a property with the specified value, e.g.
 	 * deleteObjects(PhotoCase.class, "wasDecided", true) to delete all cases that have been decided.
@@ -189,8 +263,10 @@ public abstract class ObjectManager {
 		log.info(LogBuilder.createSystemMessage().
 				addMessage("Datastore: delete entities of type " + type
 						+ " where property " + propertyName + " == " + value).toString());
+		countDatastoreCall();
 		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
+		countDatastoreCall();
 		OfyService.ofy().delete().keys(keys);
 	}
 
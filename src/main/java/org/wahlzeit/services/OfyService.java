@@ -4,6 +4,7 @@ import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
 import org.wahlzeit.model.*;
+import org.wahlzeit.model.persistence.DatastoreAdapter.ImageChunk;
 import org.wahlzeit.model.persistence.DatastoreAdapter.ImageWrapper;
 
 /**
@@ -27,7 +28,9 @@ public class OfyService {
 		factory().register(Client.class);
 		factory().register(Guest.class);
 		factory().register(PhotoCase.class);
+		factory().register(UploadJob.class);
 		factory().register(ImageWrapper.class);
+		factory().register(ImageChunk.class);
 	}
 
 	public static Objectify ofy() {
@@ -169,4 +169,40 @@ public class SysConfig extends AbstractConfig {
 		return getInstance().tempDir;
 	}
 
+	/**
+	 * Returns the system property of the given name as set in appengine-web.xml, or defaultValue if it is not set.
+	 */
+	public static String getProperty(String name, String defaultValue) {
+		String value = System.getProperty(name);
+		return (value == null || value.trim().isEmpty()) ? defaultValue : value.trim();
+	}
+
+	/**
+	 *
+	 */
+	public static long getPropertyAsLong(String name, long defaultValue) {
+		String value = getProperty(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("property", name).
+					addParameter("value", value).
+					addException("property is not a number, using default", e).toString());
+			return defaultValue;
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static boolean getPropertyAsBoolean(String name, boolean defaultValue) {
+		String value = getProperty(name, null);
+		return (value == null) ? defaultValue : Boolean.parseBoolean(value);
+	}
+
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.caching;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of byte buffers that are reused across requests, so copying image bytes does not allocate a new buffer each
+ * time. Buffers are pooled in power-of-two size classes; buffers larger than the largest class are not pooled.
+ */
+public class BufferPool {
+
+	/**
+	 *
+	 */
+	public static final int MIN_BUFFER_SIZE = 4 * 1024;
+	public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Maximum number of idle buffers kept per size class
+	 */
+	public static final int DEFAULT_MAX_IDLE_BUFFERS = 16;
+
+	/**
+	 *
+	 */
+	protected static BufferPool instance = null;
+
+	/**
+	 *
+	 */
+	protected final boolean isDirect;
+	protected final int maxIdleBuffers;
+
+	/**
+	 * Idle buffers and their number, by size class
+	 */
+	protected final Queue<ByteBuffer>[] idleBuffers;
+	protected final AtomicInteger[] noIdleBuffers;
+
+	/**
+	 * @methodtype constructor
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(boolean isDirect, int maxIdleBuffers) {
+		this.isDirect = isDirect;
+		this.maxIdleBuffers = maxIdleBuffers;
+
+		int noSizeClasses = getSizeClass(MAX_BUFFER_SIZE) + 1;
+		idleBuffers = new Queue[noSizeClasses];
+		noIdleBuffers = new AtomicInteger[noSizeClasses];
+		for (int i = 0; i < noSizeClasses; i++) {
+			idleBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			noIdleBuffers[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized BufferPool getInstance() {
+		if (instance == null) {
+			instance = new BufferPool(false, DEFAULT_MAX_IDLE_BUFFERS);
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(BufferPool bufferPool) {
+		instance = bufferPool;
+	}
+
+	/**
+	 * Returns a cleared buffer with at least the given capacity; release it when done.
+	 *
+	 * @methodtype factory
+	 */
+	public ByteBuffer acquire(int minCapacity) {
+		if (minCapacity > MAX_BUFFER_SIZE) {
+			return allocate(minCapacity);
+		}
+
+		int sizeClass = getSizeClass(minCapacity);
+		ByteBuffer result = idleBuffers[sizeClass].poll();
+		if (result == null) {
+			return allocate(MIN_BUFFER_SIZE << sizeClass);
+		}
+
+		noIdleBuffers[sizeClass].decrementAndGet();
+		result.clear();
+		return result;
+	}
+
+	/**
+	 * Returns the buffer to the pool; it must not be used by the caller afterwards.
+	 *
+	 * @methodtype command
+	 */
+	public void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (buffer.isDirect() != isDirect || capacity > MAX_BUFFER_SIZE || Integer.bitCount(capacity) != 1) {
+			return;
+		}
+
+		int sizeClass = getSizeClass(capacity);
+		if ((MIN_BUFFER_SIZE << sizeClass) != capacity) {
+			return;
+		}
+
+		if (noIdleBuffers[sizeClass].incrementAndGet() <= maxIdleBuffers) {
+			idleBuffers[sizeClass].offer(buffer);
+		} else {
+			noIdleBuffers[sizeClass].decrementAndGet();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoIdleBuffers() {
+		int result = 0;
+		for (AtomicInteger noBuffers : noIdleBuffers) {
+			result += noBuffers.get();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isDirect() {
+		return isDirect;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ByteBuffer allocate(int capacity) {
+		return isDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Returns the index of the smallest size class that holds the given number of bytes.
+	 *
+	 * @methodtype get
+	 */
+	protected static int getSizeClass(int capacity) {
+		if (capacity <= MIN_BUFFER_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.caching;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A Cache keeps a bounded number of values in memory and evicts entries when it runs full.
+ * Implementations must be safe for use by concurrent request threads.
+ */
+public interface Cache<K, V> {
+
+	/**
+	 * Returns the cached value or null if there is none.
+	 *
+	 * @methodtype get
+	 */
+	V get(K key);
+
+	/**
+	 * Returns the cached value; on a miss, the value is read through the loader and cached. Returns null if the
+	 * loader could not provide a value.
+	 *
+	 * @methodtype get
+	 */
+	V get(K key, CacheLoader<K, V> loader);
+
+	/**
+	 * Returns the cached value or null if there is none, without recording a hit or miss.
+	 *
+	 * @methodtype get
+	 */
+	V peek(K key);
+
+	/**
+	 * Adds the value to the cache, replacing and returning a previous value if there was one.
+	 *
+	 * @methodtype set
+	 */
+	V put(K key, V value);
+
+	/**
+	 * Adds the value only if no value is cached for the key yet. Returns the value that was already cached or null.
+	 *
+	 * @methodtype set
+	 */
+	V putIfAbsent(K key, V value);
+
+	/**
+	 * @methodtype set
+	 */
+	V remove(K key);
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	boolean containsKey(K key);
+
+	/**
+	 * @methodtype command
+	 */
+	void clear();
+
+	/**
+	 * @methodtype get
+	 */
+	int size();
+
+	/**
+	 * Returns the total weight of all entries; equals size() unless the cache weighs its values.
+	 *
+	 * @methodtype get
+	 */
+	long getWeight();
+
+	/**
+	 * Returns a snapshot of all keys currently cached.
+	 *
+	 * @methodtype get
+	 */
+	Set<K> keySet();
+
+	/**
+	 * Returns a snapshot of all values currently cached.
+	 *
+	 * @methodtype get
+	 */
+	Collection<V> values();
+
+	/**
+	 * @methodtype get
+	 */
+	CacheStats getStats();
+
+	/**
+	 * @methodtype set
+	 */
+	void setEvictionListener(EvictionListener<K, V> evictionListener);
+
+	/**
+	 * Entries the filter rejects are skipped when the cache evicts, so it may hold more than its capacity while they
+	 * are cached.
+	 *
+	 * @methodtype set
+	 */
+	void setEvictionFilter(EvictionFilter<? super V> evictionFilter);
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.caching;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a cache; updated lock-free by concurrent request threads.
+ */
+public class CacheStats {
+
+	/**
+	 *
+	 */
+	protected final AtomicLong hitCount = new AtomicLong();
+	protected final AtomicLong missCount = new AtomicLong();
+	protected final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordHit() {
+		hitCount.incrementAndGet();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordMiss() {
+		missCount.incrementAndGet();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordEviction() {
+		evictionCount.incrementAndGet();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Returns the share of requests that were served from the cache, 1.0 if there was no request yet.
+	 *
+	 * @methodtype get
+	 */
+	public double getHitRate() {
+		long hits = getHitCount();
+		long requests = hits + getMissCount();
+		return (requests == 0) ? 1.0 : (double) hits / requests;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void reset() {
+		hitCount.set(0);
+		missCount.set(0);
+		evictionCount.set(0);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("hits: ").append(getHitCount());
+		builder.append(", misses: ").append(getMissCount());
+		builder.append(", evictions: ").append(getEvictionCount());
+		builder.append(", hit rate: ").append(Math.round(getHitRate() * 100)).append("%");
+		return builder.toString();
+	}
+
+}
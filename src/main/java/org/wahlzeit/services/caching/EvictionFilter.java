@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.caching;
+
+/**
+ * An EvictionFilter keeps values in a full cache that must not leave it yet, e.g. values with unsaved changes.
+ * It is called while the cache holds a lock, so it must be cheap and must not access the cache.
+ */
+public interface EvictionFilter<V> {
+
+	/**
+	 * Returns whether the value may be evicted.
+	 */
+	boolean isEvictable(V value);
+
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.caching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache that evicts the least recently used entries first.
+ * Entries are spread over segments that are locked independently (lock striping), so that request threads working on
+ * different keys rarely wait for each other. Each segment holds its share of the capacity, so the bound is enforced
+ * per segment and thus approximate for the cache as a whole.
+ * By default, every entry weighs 1 and the capacity is a number of entries; with a Weigher, the capacity is a total
+ * weight, e.g. a number of bytes.
+ */
+public class LruCache<K, V> implements Cache<K, V> {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	/**
+	 *
+	 */
+	protected final Segment<K, V>[] segments;
+	protected final int segmentMask;
+
+	/**
+	 *
+	 */
+	protected final CacheStats stats = new CacheStats();
+
+	/**
+	 *
+	 */
+	protected volatile EvictionListener<K, V> evictionListener = null;
+	protected volatile EvictionFilter<? super V> evictionFilter = null;
+
+	/**
+	 *
+	 */
+	public LruCache(int capacity) {
+		this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 *
+	 */
+	public LruCache(int capacity, int concurrencyLevel) {
+		this(capacity, concurrencyLevel, new Weigher<V>() {
+			@Override
+			public int weigh(V value) {
+				return 1;
+			}
+		});
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	@SuppressWarnings("unchecked")
+	public LruCache(long maxWeight, int concurrencyLevel, Weigher<? super V> weigher) {
+		assertIsPositive(maxWeight, "maxWeight");
+		assertIsPositive(concurrencyLevel, "concurrencyLevel");
+
+		int noSegments = 1;
+		while (noSegments < concurrencyLevel && noSegments < maxWeight) {
+			noSegments <<= 1;
+		}
+
+		long segmentCapacity = (maxWeight + noSegments - 1) / noSegments;
+		segments = new Segment[noSegments];
+		for (int i = 0; i < noSegments; i++) {
+			segments[i] = new Segment<K, V>(segmentCapacity, weigher);
+		}
+		segmentMask = noSegments - 1;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsPositive(long value, String label) {
+		if (value <= 0) {
+			throw new IllegalArgumentException(label + " must be positive, but is " + value);
+		}
+	}
+
+	/**
+	 * Returns the largest weight an entry may have without being evicted right away, i.e. the capacity of a segment.
+	 *
+	 * @methodtype get
+	 */
+	public long getMaxEntryWeight() {
+		return segments[0].capacity;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Segment<K, V> getSegment(Object key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & segmentMask];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public V get(K key) {
+		V result = getSegment(key).get(key);
+		if (result != null) {
+			stats.recordHit();
+		} else {
+			stats.recordMiss();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public V peek(K key) {
+		return getSegment(key).get(key);
+	}
+
+	/**
+	 * Loads outside of the segment lock; if two threads miss the same key concurrently, the value that was cached
+	 * first wins and is returned to both.
+	 *
+	 * @methodtype get
+	 */
+	public V get(K key, CacheLoader<K, V> loader) {
+		V result = get(key);
+		if (result == null) {
+			V loaded = loader.load(key);
+			if (loaded != null) {
+				V previous = putIfAbsent(key, loaded);
+				result = (previous != null) ? previous : loaded;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public V put(K key, V value) {
+		assertIsNonNullArgument(key, value);
+
+		List<Map.Entry<K, V>> evicted = new ArrayList<Map.Entry<K, V>>(1);
+		V result = getSegment(key).put(key, value, false, evictionFilter, evicted);
+		notifyEvictions(evicted);
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public V putIfAbsent(K key, V value) {
+		assertIsNonNullArgument(key, value);
+
+		List<Map.Entry<K, V>> evicted = new ArrayList<Map.Entry<K, V>>(1);
+		V result = getSegment(key).put(key, value, true, evictionFilter, evicted);
+		notifyEvictions(evicted);
+		return result;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsNonNullArgument(K key, V value) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException("cache does not accept null keys or values");
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void notifyEvictions(List<Map.Entry<K, V>> evicted) {
+		EvictionListener<K, V> listener = evictionListener;
+		for (Map.Entry<K, V> entry : evicted) {
+			stats.recordEviction();
+			if (listener != null) {
+				listener.onEviction(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public V remove(K key) {
+		return getSegment(key).remove(key);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean containsKey(K key) {
+		return getSegment(key).containsKey(key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		int result = 0;
+		for (Segment<K, V> segment : segments) {
+			result += segment.size();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getWeight() {
+		long result = 0;
+		for (Segment<K, V> segment : segments) {
+			result += segment.getWeight();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<K> keySet() {
+		Set<K> result = new HashSet<K>();
+		for (Segment<K, V> segment : segments) {
+			segment.collectKeys(result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Collection<V> values() {
+		List<V> result = new ArrayList<V>();
+		for (Segment<K, V> segment : segments) {
+			segment.collectValues(result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setEvictionListener(EvictionListener<K, V> newEvictionListener) {
+		evictionListener = newEvictionListener;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setEvictionFilter(EvictionFilter<? super V> newEvictionFilter) {
+		evictionFilter = newEvictionFilter;
+	}
+
+	/**
+	 * One lock stripe of the cache; an access-ordered LinkedHashMap keeps its entries in LRU order.
+	 */
+	protected static class Segment<K, V> {
+
+		/**
+		 *
+		 */
+		protected final long capacity;
+		protected final Weigher<? super V> weigher;
+		protected final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+		protected long weight = 0;
+
+		/**
+		 *
+		 */
+		protected Segment(long capacity, Weigher<? super V> weigher) {
+			this.capacity = capacity;
+			this.weigher = weigher;
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized V get(Object key) {
+			return entries.get(key);
+		}
+
+		/**
+		 * Adds the entry and removes the least recently used entries beyond capacity into evicted, skipping those the
+		 * filter rejects. A value that is heavier than the whole segment is evicted right away.
+		 */
+		protected synchronized V put(K key, V value, boolean onlyIfAbsent, EvictionFilter<? super V> filter,
+				List<Map.Entry<K, V>> evicted) {
+			V result = entries.get(key);
+			if (result == null || !onlyIfAbsent) {
+				entries.put(key, value);
+				weight += weigher.weigh(value);
+				if (result != null) {
+					weight -= weigher.weigh(result);
+				}
+
+				Iterator<Map.Entry<K, V>> i = entries.entrySet().iterator();
+				while (weight > capacity && i.hasNext()) {
+					Map.Entry<K, V> eldest = i.next();
+					if (filter != null && !filter.isEvictable(eldest.getValue())) {
+						continue;
+					}
+					evicted.add(new Entry<K, V>(eldest.getKey(), eldest.getValue()));
+					weight -= weigher.weigh(eldest.getValue());
+					i.remove();
+				}
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized V remove(Object key) {
+			V result = entries.remove(key);
+			if (result != null) {
+				weight -= weigher.weigh(result);
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized boolean containsKey(Object key) {
+			return entries.containsKey(key);
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized void clear() {
+			entries.clear();
+			weight = 0;
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized int size() {
+			return entries.size();
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized long getWeight() {
+			return weight;
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized void collectKeys(Collection<K> result) {
+			result.addAll(entries.keySet());
+		}
+
+		/**
+		 *
+		 */
+		protected synchronized void collectValues(Collection<V> result) {
+			result.addAll(entries.values());
+		}
+	}
+
+	/**
+	 * Immutable copy of an evicted entry; LinkedHashMap entries must not be used after removal.
+	 */
+	protected static class Entry<K, V> implements Map.Entry<K, V> {
+
+		/**
+		 *
+		 */
+		protected final K key;
+		protected final V value;
+
+		/**
+		 *
+		 */
+		protected Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		/**
+		 *
+		 */
+		public K getKey() {
+			return key;
+		}
+
+		/**
+		 *
+		 */
+		public V getValue() {
+			return value;
+		}
+
+		/**
+		 *
+		 */
+		public V setValue(V value) {
+			throw new UnsupportedOperationException("evicted entries are immutable");
+		}
+	}
+
+}
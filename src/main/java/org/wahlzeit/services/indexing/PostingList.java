@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.indexing;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A compressed set of non-negative ints, e.g. the ids of the documents that contain a term of an inverted index.
+ * In the style of Roaring bitmaps, the ints are grouped by their upper 16 bits; each group keeps its lower 16 bits in
+ * a sorted array while it is sparse and in a bitmap once it is dense. Posting lists are not thread-safe.
+ */
+public class PostingList {
+
+	/**
+	 * Groups with more values than this are kept as bitmaps, which then take less space
+	 */
+	protected static final int MAX_ARRAY_SIZE = 4096;
+
+	/**
+	 *
+	 */
+	protected char[] keys = new char[4];
+	protected Container[] containers = new Container[4];
+	protected int noContainers = 0;
+	protected int size = 0;
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+		int i = indexOf(highBits(value));
+		return i >= 0 && containers[i].contains(lowBits(value));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int value) {
+		assertIsNonNegative(value);
+
+		char key = highBits(value);
+		int i = indexOf(key);
+		if (i < 0) {
+			i = -i - 1;
+			insertContainer(i, key, new ArrayContainer());
+		}
+
+		int oldCardinality = containers[i].getCardinality();
+		containers[i] = containers[i].add(lowBits(value));
+		if (containers[i].getCardinality() == oldCardinality) {
+			return false;
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(int value) {
+		if (value < 0) {
+			return false;
+		}
+
+		int i = indexOf(highBits(value));
+		if (i < 0) {
+			return false;
+		}
+
+		int oldCardinality = containers[i].getCardinality();
+		containers[i] = containers[i].remove(lowBits(value));
+		if (containers[i].getCardinality() == oldCardinality) {
+			return false;
+		}
+		size--;
+		if (containers[i].getCardinality() == 0) {
+			removeContainer(i);
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the values contained in both posting lists.
+	 */
+	public static PostingList and(PostingList first, PostingList second) {
+		PostingList result = new PostingList();
+		int i = 0;
+		int j = 0;
+		while (i < first.noContainers && j < second.noContainers) {
+			if (first.keys[i] < second.keys[j]) {
+				i++;
+			} else if (first.keys[i] > second.keys[j]) {
+				j++;
+			} else {
+				result.appendContainer(first.keys[i], first.containers[i].and(second.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the values contained in either posting list.
+	 */
+	public static PostingList or(PostingList first, PostingList second) {
+		PostingList result = new PostingList();
+		int i = 0;
+		int j = 0;
+		while (i < first.noContainers || j < second.noContainers) {
+			if (j >= second.noContainers || (i < first.noContainers && first.keys[i] < second.keys[j])) {
+				result.appendContainer(first.keys[i], first.containers[i].copy());
+				i++;
+			} else if (i >= first.noContainers || first.keys[i] > second.keys[j]) {
+				result.appendContainer(second.keys[j], second.containers[j].copy());
+				j++;
+			} else {
+				result.appendContainer(first.keys[i], first.containers[i].or(second.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public PostingList copy() {
+		PostingList result = new PostingList();
+		for (int i = 0; i < noContainers; i++) {
+			result.appendContainer(keys[i], containers[i].copy());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public BitSet asBitSet() {
+		BitSet result = new BitSet();
+		for (int i = 0; i < noContainers; i++) {
+			containers[i].addTo(result, keys[i] << 16);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public int[] asArray() {
+		int[] result = new int[size];
+		int noValues = 0;
+		BitSet bits = asBitSet();
+		for (int value = bits.nextSetBit(0); value >= 0; value = bits.nextSetBit(value + 1)) {
+			result[noValues++] = value;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static char highBits(int value) {
+		return (char) (value >>> 16);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static char lowBits(int value) {
+		return (char) value;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsNonNegative(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("posting lists only hold non-negative values: " + value);
+		}
+	}
+
+	/**
+	 * Returns the index of the container for key, or (-(insertion point) - 1) if there is none.
+	 */
+	protected int indexOf(char key) {
+		return Arrays.binarySearch(keys, 0, noContainers, key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void insertContainer(int index, char key, Container container) {
+		if (noContainers == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * noContainers);
+			containers = Arrays.copyOf(containers, 2 * noContainers);
+		}
+		System.arraycopy(keys, index, keys, index + 1, noContainers - index);
+		System.arraycopy(containers, index, containers, index + 1, noContainers - index);
+		keys[index] = key;
+		containers[index] = container;
+		noContainers++;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void removeContainer(int index) {
+		System.arraycopy(keys, index + 1, keys, index, noContainers - index - 1);
+		System.arraycopy(containers, index + 1, containers, index, noContainers - index - 1);
+		noContainers--;
+		containers[noContainers] = null;
+	}
+
+	/**
+	 * Adds a container behind all others, unless it is empty.
+	 */
+	protected void appendContainer(char key, Container container) {
+		if (container.getCardinality() > 0) {
+			insertContainer(noContainers, key, container);
+			size += container.getCardinality();
+		}
+	}
+
+	/**
+	 * The lower 16 bits of the values that share the same upper 16 bits
+	 */
+	protected abstract static class Container {
+
+		/**
+		 * Returns the container that holds the result, which may be a new one of a different kind.
+		 */
+		protected abstract Container add(char value);
+
+		/**
+		 * Returns the container that holds the result, which may be a new one of a different kind.
+		 */
+		protected abstract Container remove(char value);
+
+		/**
+		 *
+		 */
+		protected abstract boolean contains(char value);
+
+		/**
+		 *
+		 */
+		protected abstract int getCardinality();
+
+		/**
+		 * Returns a new container; neither operand is changed.
+		 */
+		protected abstract Container and(Container other);
+
+		/**
+		 * Returns a new container; neither operand is changed.
+		 */
+		protected abstract Container or(Container other);
+
+		/**
+		 *
+		 */
+		protected abstract Container copy();
+
+		/**
+		 *
+		 */
+		protected abstract void addTo(BitSet bits, int base);
+	}
+
+	/**
+	 * Keeps a sparse group as a sorted array
+	 */
+	protected static class ArrayContainer extends Container {
+
+		/**
+		 *
+		 */
+		protected char[] values;
+		protected int cardinality = 0;
+
+		/**
+		 *
+		 */
+		protected ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		/**
+		 *
+		 */
+		protected ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		protected Container add(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if (i >= 0) {
+				return this;
+			}
+			if (cardinality == MAX_ARRAY_SIZE) {
+				return asBitmapContainer().add(value);
+			}
+
+			i = -i - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(2 * cardinality, MAX_ARRAY_SIZE));
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		protected Container remove(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+				cardinality--;
+			}
+			return this;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		protected int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		protected Container and(Container other) {
+			ArrayContainer result = new ArrayContainer(new char[cardinality], 0);
+			for (int i = 0; i < cardinality; i++) {
+				if (other.contains(values[i])) {
+					result.values[result.cardinality++] = values[i];
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected Container or(Container other) {
+			if (!(other instanceof ArrayContainer)) {
+				return other.or(this);
+			}
+
+			ArrayContainer that = (ArrayContainer) other;
+			char[] merged = new char[cardinality + that.cardinality];
+			int noMerged = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < that.cardinality) {
+				if (j >= that.cardinality || (i < cardinality && values[i] < that.values[j])) {
+					merged[noMerged++] = values[i++];
+				} else if (i >= cardinality || values[i] > that.values[j]) {
+					merged[noMerged++] = that.values[j++];
+				} else {
+					merged[noMerged++] = values[i++];
+					j++;
+				}
+			}
+
+			ArrayContainer result = new ArrayContainer(merged, noMerged);
+			return (noMerged > MAX_ARRAY_SIZE) ? result.asBitmapContainer() : result;
+		}
+
+		@Override
+		protected Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+		}
+
+		@Override
+		protected void addTo(BitSet bits, int base) {
+			for (int i = 0; i < cardinality; i++) {
+				bits.set(base + values[i]);
+			}
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		protected BitmapContainer asBitmapContainer() {
+			BitmapContainer result = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				result.add(values[i]);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Keeps a dense group as a bitmap of 2^16 bits
+	 */
+	protected static class BitmapContainer extends Container {
+
+		/**
+		 *
+		 */
+		protected final long[] words;
+		protected int cardinality = 0;
+
+		/**
+		 *
+		 */
+		protected BitmapContainer() {
+			this(new long[1 << 10], 0);
+		}
+
+		/**
+		 *
+		 */
+		protected BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		protected Container add(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		protected Container remove(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) != 0) {
+				words[value >>> 6] &= ~bit;
+				cardinality--;
+			}
+			return (cardinality <= MAX_ARRAY_SIZE) ? asArrayContainer() : this;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		protected int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		protected Container and(Container other) {
+			if (!(other instanceof BitmapContainer)) {
+				return other.and(this);
+			}
+
+			long[] otherWords = ((BitmapContainer) other).words;
+			long[] result = new long[words.length];
+			int resultCardinality = 0;
+			for (int i = 0; i < words.length; i++) {
+				result[i] = words[i] & otherWords[i];
+				resultCardinality += Long.bitCount(result[i]);
+			}
+
+			BitmapContainer container = new BitmapContainer(result, resultCardinality);
+			return (resultCardinality <= MAX_ARRAY_SIZE) ? container.asArrayContainer() : container;
+		}
+
+		@Override
+		protected Container or(Container other) {
+			BitmapContainer result = (BitmapContainer) copy();
+			if (other instanceof BitmapContainer) {
+				long[] otherWords = ((BitmapContainer) other).words;
+				result.cardinality = 0;
+				for (int i = 0; i < words.length; i++) {
+					result.words[i] |= otherWords[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			} else {
+				ArrayContainer that = (ArrayContainer) other;
+				for (int i = 0; i < that.cardinality; i++) {
+					result.add(that.values[i]);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		@Override
+		protected void addTo(BitSet bits, int base) {
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					bits.set(base + (i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		protected ArrayContainer asArrayContainer() {
+			ArrayContainer result = new ArrayContainer(new char[Math.max(cardinality, 1)], 0);
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					result.values[result.cardinality++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.indexing;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A trie of keys with counts, e.g. of the terms of an inverted index with the number of documents per term. Every
+ * node knows the highest count below it, so that the most frequent completions of a prefix are found without visiting
+ * all of them. Tries are not thread-safe.
+ */
+public class PrefixTrie {
+
+	/**
+	 *
+	 */
+	protected Node root = new Node('\0');
+	protected int size = 0;
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the count of the key, or 0 if it is not in the trie.
+	 *
+	 * @methodtype get
+	 */
+	public int getCount(String key) {
+		Node node = findNode(key);
+		return (node == null) ? 0 : node.count;
+	}
+
+	/**
+	 * Sets the count of the key; keys with a count of 0 or less are removed.
+	 *
+	 * @methodtype set
+	 */
+	public void setCount(String key, int count) {
+		int newCount = Math.max(count, 0);
+		Node[] path = new Node[key.length() + 1];
+		path[0] = root;
+		for (int i = 0; i < key.length(); i++) {
+			Node child = path[i].getChild(key.charAt(i));
+			if (child == null) {
+				if (newCount == 0) {
+					return;
+				}
+				child = path[i].addChild(key.charAt(i));
+			}
+			path[i + 1] = child;
+		}
+
+		Node node = path[key.length()];
+		if (node.count == 0 && newCount > 0) {
+			size++;
+		} else if (node.count > 0 && newCount == 0) {
+			size--;
+		}
+		node.count = newCount;
+
+		for (int i = key.length(); i >= 0; i--) {
+			path[i].updateMaxCount();
+			if (i > 0 && path[i].isObsolete()) {
+				path[i - 1].removeChild(path[i].c);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		root = new Node('\0');
+		size = 0;
+	}
+
+	/**
+	 * Returns up to limit keys that start with prefix, with their counts, most frequent first; keys with the same
+	 * count are ordered alphabetically.
+	 *
+	 * @methodtype query
+	 */
+	public Map<String, Integer> getCompletions(String prefix, int limit) {
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		Node node = findNode(prefix);
+		if (node == null || limit <= 0) {
+			return result;
+		}
+
+		PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+		candidates.add(new Candidate(prefix, node, false));
+		while (!candidates.isEmpty() && result.size() < limit) {
+			Candidate candidate = candidates.poll();
+			if (candidate.isKey) {
+				result.put(candidate.key, candidate.node.count);
+			} else {
+				if (candidate.node.count > 0) {
+					candidates.add(new Candidate(candidate.key, candidate.node, true));
+				}
+				for (int i = 0; i < candidate.node.noChildren; i++) {
+					Node child = candidate.node.children[i];
+					candidates.add(new Candidate(candidate.key + child.c, child, false));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected Node findNode(String key) {
+		Node node = root;
+		for (int i = 0; i < key.length() && node != null; i++) {
+			node = node.getChild(key.charAt(i));
+		}
+		return node;
+	}
+
+	/**
+	 * A node of the trie, with its children sorted by their char
+	 */
+	protected static class Node {
+
+		/**
+		 *
+		 */
+		protected static final Node[] NO_CHILDREN = new Node[0];
+
+		/**
+		 *
+		 */
+		protected final char c;
+		protected Node[] children = NO_CHILDREN;
+		protected int noChildren = 0;
+
+		/**
+		 * Count of the key that ends here, and the highest count of all keys that end here or below
+		 */
+		protected int count = 0;
+		protected int maxCount = 0;
+
+		/**
+		 *
+		 */
+		protected Node(char c) {
+			this.c = c;
+		}
+
+		/**
+		 *
+		 */
+		protected Node getChild(char childChar) {
+			int i = indexOf(childChar);
+			return (i >= 0) ? children[i] : null;
+		}
+
+		/**
+		 *
+		 */
+		protected Node addChild(char childChar) {
+			int i = -indexOf(childChar) - 1;
+			if (noChildren == children.length) {
+				children = Arrays.copyOf(children, Math.max(2, 2 * noChildren));
+			}
+			System.arraycopy(children, i, children, i + 1, noChildren - i);
+			children[i] = new Node(childChar);
+			noChildren++;
+			return children[i];
+		}
+
+		/**
+		 *
+		 */
+		protected void removeChild(char childChar) {
+			int i = indexOf(childChar);
+			if (i >= 0) {
+				System.arraycopy(children, i + 1, children, i, noChildren - i - 1);
+				children[--noChildren] = null;
+			}
+		}
+
+		/**
+		 *
+		 */
+		protected void updateMaxCount() {
+			maxCount = count;
+			for (int i = 0; i < noChildren; i++) {
+				maxCount = Math.max(maxCount, children[i].maxCount);
+			}
+		}
+
+		/**
+		 *
+		 */
+		protected boolean isObsolete() {
+			return count == 0 && noChildren == 0;
+		}
+
+		/**
+		 *
+		 */
+		protected int indexOf(char childChar) {
+			int low = 0;
+			int high = noChildren - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				if (children[middle].c < childChar) {
+					low = middle + 1;
+				} else if (children[middle].c > childChar) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -(low + 1);
+		}
+	}
+
+	/**
+	 * Either a key or a subtree still to be expanded; candidates with higher counts come first
+	 */
+	protected static class Candidate implements Comparable<Candidate> {
+
+		/**
+		 *
+		 */
+		protected final String key;
+		protected final Node node;
+		protected final boolean isKey;
+
+		/**
+		 *
+		 */
+		protected Candidate(String key, Node node, boolean isKey) {
+			this.key = key;
+			this.node = node;
+			this.isKey = isKey;
+		}
+
+		/**
+		 *
+		 */
+		protected int getPriority() {
+			return isKey ? node.count : node.maxCount;
+		}
+
+		/**
+		 * A subtree's keys all follow its own key, which thus goes first if counts are equal
+		 */
+		@Override
+		public int compareTo(Candidate other) {
+			if (getPriority() != other.getPriority()) {
+				return (getPriority() > other.getPriority()) ? -1 : 1;
+			}
+			int result = key.compareTo(other.key);
+			if (result != 0) {
+				return result;
+			}
+			return (isKey == other.isKey) ? 0 : (isKey ? -1 : 1);
+		}
+	}
+
+}
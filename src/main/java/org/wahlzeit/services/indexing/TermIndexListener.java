@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.indexing;
+
+/**
+ * Is told about every change of the posting lists of an inverted index, so that structures derived from them, e.g.
+ * suggestions or statistics of terms, can be kept up to date without being part of the index. Listeners are called
+ * while the index is locked for writing, so they must not call back into it.
+ */
+public interface TermIndexListener {
+
+	/**
+	 * Called after value was added to the posting list of term, which now holds noValues values.
+	 */
+	void onTermAdded(String term, int value, int noValues);
+
+	/**
+	 * Called after value was removed from the posting list of term, which now holds noValues values.
+	 */
+	void onTermRemoved(String term, int value, int noValues);
+
+	/**
+	 * Called after value was removed from all posting lists.
+	 */
+	void onValueRemoved(int value);
+
+	/**
+	 * Called after the index was emptied.
+	 */
+	void onCleared();
+
+}
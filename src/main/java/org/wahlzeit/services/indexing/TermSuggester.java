@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.indexing;
+
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Suggests completions of incomplete terms, most frequent first, from a PrefixTrie of the terms of an inverted index
+ * with the sizes of their posting lists. It follows the index as a listener and has a lock of its own, so suggestions
+ * are not held up by queries of the index.
+ */
+public class TermSuggester implements TermIndexListener {
+
+	/**
+	 *
+	 */
+	protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 *
+	 */
+	protected PrefixTrie termTrie = new PrefixTrie();
+
+	/**
+	 * Returns up to limit terms that start with prefix, with their number of values, most frequent first.
+	 *
+	 * @methodtype query
+	 */
+	public Map<String, Integer> getSuggestions(String prefix, int limit) {
+		lock.readLock().lock();
+		try {
+			return termTrie.getCompletions(prefix, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCount(String term) {
+		lock.readLock().lock();
+		try {
+			return termTrie.getCount(term);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void onTermAdded(String term, int value, int noValues) {
+		setCount(term, noValues);
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void onTermRemoved(String term, int value, int noValues) {
+		setCount(term, noValues);
+	}
+
+	/**
+	 * The counts of the terms of the value have been updated one by one already.
+	 */
+	@Override
+	public void onValueRemoved(int value) {
+		// do nothing
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void onCleared() {
+		lock.writeLock().lock();
+		try {
+			termTrie = new PrefixTrie();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void setCount(String term, int count) {
+		lock.writeLock().lock();
+		try {
+			termTrie.setCount(term, count);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+}
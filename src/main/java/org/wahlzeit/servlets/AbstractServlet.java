@@ -21,6 +21,7 @@
 package org.wahlzeit.servlets;
 
 import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.model.IdBlockAllocator;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
@@ -50,27 +51,21 @@ public abstract class AbstractServlet extends HttpServlet {
 	/**
 	 *
 	 */
-	protected static int lastSessionId = 0; // system and agent are named differently
+	protected static final IdBlockAllocator sessionIdAllocator =
+			new IdBlockAllocator(IdBlockAllocator.Sequence.SESSION); // system and agent are named differently
 
 	/**
 	 *
 	 */
-	public static synchronized int getLastSessionId() {
-		return lastSessionId;
+	public static int getLastSessionId() {
+		return (int) sessionIdAllocator.getLastId();
 	}
 
 	/**
 	 *
 	 */
-	public static void setLastSessionId(int newSessionId) {
-		lastSessionId = newSessionId;
-	}
-
-	/**
-	 *
-	 */
-	public static synchronized int getNextSessionId() {
-		return ++lastSessionId;
+	public static int getNextSessionId() {
+		return (int) sessionIdAllocator.getNextId();
 	}
 
 	/**
@@ -35,15 +35,16 @@ import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -55,6 +56,19 @@ import java.util.logging.Logger;
 public class MainServlet extends AbstractServlet {
 
 	private static final Logger log = Logger.getLogger(MainServlet.class.getName());
+
+	/**
+	 * Name of the system property (see appengine-web.xml) for the maximum size of an uploaded image
+	 */
+	public static final String MAX_UPLOAD_BYTES_PROPERTY = "wahlzeit.uploads.maxBytes";
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_MAX_UPLOAD_BYTES = 8L * 1024 * 1024;
+	protected static final long MAX_FORM_FIELDS_BYTES = 64 * 1024;
+	protected static final int MIN_READ_BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 *
 	 */
@@ -153,7 +167,10 @@ public class MainServlet extends AbstractServlet {
 		Map<String, String> result = new HashMap<String, String>();
 		result.putAll(request.getParameterMap());
 		try {
+			long maxBytes = getMaxUploadBytes();
 			ServletFileUpload upload = new ServletFileUpload();
+			upload.setFileSizeMax(maxBytes);
+			upload.setSizeMax(maxBytes + MAX_FORM_FIELDS_BYTES);
 			FileItemIterator iterator = upload.getItemIterator(request);
 
 			while (iterator.hasNext()) {
@@ -162,7 +179,7 @@ public class MainServlet extends AbstractServlet {
 
 				if (!fileItemStream.isFormField()) {
 					InputStream inputStream = fileItemStream.openStream();
-					Image image = getImage(inputStream);
+					Image image = getImage(inputStream, request.getContentLength(), maxBytes);
 					User user = (User) us.getClient();
 					user.setUploadedImage(image);
 					result.put("fileName", filename);
@@ -185,22 +202,40 @@ public class MainServlet extends AbstractServlet {
 	}
 
 	/**
-	 * Create an Image object from the Input stream.
+	 * Create an Image object from the Input stream. The bytes are read directly into an array sized from the length of
+	 * the request, if known, and trimmed once at the end; an upload larger than maxBytes is rejected while it is read.
 	 */
-	private Image getImage(InputStream input) throws IOException {
-		Image image;
+	protected Image getImage(InputStream input, int expectedLength, long maxBytes) throws IOException {
 		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024 * 1024];
-			int bytesRead = input.read(buffer);
+			int length = (int) Math.min(maxBytes, Math.max(MIN_READ_BUFFER_SIZE, expectedLength));
+			byte[] buffer = new byte[length];
+			int noBytes = 0;
+			int bytesRead = 0;
 			while (bytesRead != -1) {
-				outputStream.write(buffer, 0, bytesRead);
-				bytesRead = input.read(buffer);
+				if (noBytes == buffer.length) {
+					if (noBytes >= maxBytes) {
+						if (input.read() == -1) {
+							break;
+						}
+						throw new IOException("upload exceeds limit of " + maxBytes + " bytes");
+					}
+					buffer = Arrays.copyOf(buffer, (int) Math.min(maxBytes, 2L * buffer.length));
+				}
+				bytesRead = input.read(buffer, noBytes, buffer.length - noBytes);
+				if (bytesRead > 0) {
+					noBytes += bytesRead;
+				}
 			}
-			image = ImagesServiceFactory.makeImage(outputStream.toByteArray());
+			return ImagesServiceFactory.makeImage((noBytes == buffer.length) ? buffer : Arrays.copyOf(buffer, noBytes));
 		} finally {
 			input.close();
 		}
-		return image;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getMaxUploadBytes() {
+		return Math.max(1, SysConfig.getPropertyAsLong(MAX_UPLOAD_BYTES_PROPERTY, DEFAULT_MAX_UPLOAD_BYTES));
 	}
 }
@@ -2,16 +2,26 @@ package org.wahlzeit.servlets;
 
 import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
+import org.wahlzeit.model.DerivedImageGenerator;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.persistence.ImageCache;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.caching.BufferPool;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.logging.Logger;
 
 /**
@@ -24,6 +34,22 @@ import java.util.logging.Logger;
  */
 public class StaticDataServlet extends AbstractServlet {
 
+	/**
+	 *
+	 */
+	private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Result of getRange if the requested range lies outside the image
+	 */
+	protected static final long[] NO_SATISFIABLE_RANGE = new long[0];
+
+	/**
+	 * The image of a photo id and size never changes once written, so it may be cached for as long as HTTP allows
+	 */
+	protected static final long IMAGE_MAX_AGE_SECONDS = 365L * 24 * 60 * 60;
+	protected static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
 	@Override
@@ -40,11 +66,35 @@ public class StaticDataServlet extends AbstractServlet {
 					addParameter("size", size).toString());
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
+				if (!isValidImageRequest(photoId, size)) {
+					log.warning(LogBuilder.createSystemMessage().addMessage("invalid image requested").toString());
+					response.setStatus(HttpStatus.SC_NOT_FOUND);
+					return;
+				}
+
+				// an entity tag, even "*", only matches an image that exists
+				Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+				String eTag = getETag(photoId, size);
+				if (matchesETag(request.getHeader("If-None-Match"), eTag) && isExistingImage(photo, size)) {
+					setNotModified(response, eTag);
+					return;
+				}
+
+				long lastModified = (photo != null) ? photo.getCreationTime() : -1;
+				if (request.getHeader("If-None-Match") == null && isNotModifiedSince(request, lastModified)) {
+					setNotModified(response, eTag);
+					return;
+				}
+
+				ImageContent content = openImageContent(photo, photoId, size);
+				if (content != null) {
+					try {
+						setCacheHeaders(response, eTag, lastModified);
+						response.setContentType(getContentType(photo));
+						writeImageContent(request, response, content, eTag, lastModified);
+					} finally {
+						content.close();
+					}
 				} else {
 					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
 					response.setStatus(HttpStatus.SC_NOT_FOUND);
@@ -63,29 +113,369 @@ public class StaticDataServlet extends AbstractServlet {
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Opens the image either from the <@link>Photo</@link>, if it is not stored yet, from the
+	 * <@link>ImageCache</@link>, or from a file of the <@link>ImageStorage</@link>, which is served without reading
+	 * it into memory. Otherwise the image is loaded into the cache, and sizes that were not created on upload are
+	 * created now by the <@link>DerivedImageGenerator</@link>. If image does not exist, null is returned.
+	 */
+	private ImageContent openImageContent(Photo photo, String photoId, int size) throws IOException {
+		if (photo != null) {
+			Image image = photo.getUnsavedImage(PhotoSize.getFromInt(size));
+			if (image != null) {
+				return new BufferContent(ByteBuffer.wrap(image.getImageData()));
+			}
+		}
+
+		ImageCache imageCache = ImageCache.getInstance();
+		ByteBuffer cachedImage = imageCache.getImageBuffer(photoId, size, false);
+		if (cachedImage != null) {
+			return new BufferContent(cachedImage);
+		}
+
+		FileChannel imageFile = ImageStorage.getInstance().openImageChannel(photoId, size);
+		if (imageFile != null) {
+			return new ChannelContent(imageFile);
+		}
+
+		cachedImage = imageCache.getImageBuffer(photoId, size, true);
+		if (cachedImage != null) {
+			return new BufferContent(cachedImage);
+		}
+
+		if (photo != null) {
+			Image image = DerivedImageGenerator.getInstance().getImage(photo, PhotoSize.getFromInt(size));
+			if (image != null) {
+				return new BufferContent(ByteBuffer.wrap(image.getImageData()));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the whole image, or the single byte range requested by a Range header. Ranges are ignored if an If-Range
+	 * header names another version of the image, and a range outside the image is answered with 416.
+	 */
+	private void writeImageContent(HttpServletRequest request, HttpServletResponse response, ImageContent content,
+								   String eTag, long lastModified) throws IOException {
+		long length = content.getLength();
+		response.setHeader("Accept-Ranges", "bytes");
+
+		long[] range = null;
+		if (isRangeApplicable(request, eTag, lastModified)) {
+			range = getRange(request.getHeader("Range"), length);
+		}
+
+		if (range == null) {
+			response.setStatus(HttpStatus.SC_OK);
+			response.setContentLength((int) length);
+			content.writeTo(response.getOutputStream(), 0, length);
+		} else if (range == NO_SATISFIABLE_RANGE) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		} else {
+			long rangeLength = range[1] - range[0] + 1;
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+			response.setContentLength((int) rangeLength);
+			content.writeTo(response.getOutputStream(), range[0], rangeLength);
+		}
+		response.getOutputStream().flush();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Checks the photo id and size before they are used to look up any image, as they come from the request.
+	 */
+	protected static boolean isValidImageRequest(String photoId, int size) {
+		try {
+			PhotoSize.assertIsValidPhotoSizeAsInt(size);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return PhotoId.isValidIdAsString(photoId);
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * The image of an existing photo exists in every size up to its largest one, as missing sizes are derived on
+	 * request; unknown photos have no images, so no storage needs to be asked.
+	 */
+	protected boolean isExistingImage(Photo photo, int size) {
+		return photo != null && photo.hasPhotoSize(PhotoSize.getFromInt(size));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Images are immutable, so their photo id and size are a strong validator.
+	 */
+	protected static String getETag(String photoId, int size) {
+		return "\"" + photoId + "-" + size + "\"";
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Compares the entity tags of an If-None-Match header weakly, as HTTP requires for GET.
+	 */
+	protected static boolean matchesETag(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected static boolean isNotModifiedSince(HttpServletRequest request, long lastModified) {
+		if (lastModified < 0) {
+			return false;
+		}
+
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		// HTTP dates have a resolution of seconds
+		return ifModifiedSince >= 0 && ifModifiedSince >= (lastModified / 1000) * 1000;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void setNotModified(HttpServletResponse response, String eTag) {
+		response.setHeader("ETag", eTag);
+		response.setHeader("Cache-Control", getCacheControl());
+		response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void setCacheHeaders(HttpServletResponse response, String eTag, long lastModified) {
+		response.setHeader("ETag", eTag);
+		response.setHeader("Cache-Control", getCacheControl());
+		if (lastModified >= 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static String getCacheControl() {
+		return "public, max-age=" + IMAGE_MAX_AGE_SECONDS + ", immutable";
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Scaled images keep the format of the uploaded photo, so its file ending tells the type of all sizes.
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+	protected static String getContentType(Photo photo) {
+		String result = null;
 		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
+			result = URLConnection.guessContentTypeFromName("image." + photo.getEnding().toLowerCase());
+		}
+		return (result != null) ? result : DEFAULT_CONTENT_TYPE;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * An If-Range header holds either the entity tag or the modification date of the version the client has.
+	 */
+	protected static boolean isRangeApplicable(HttpServletRequest request, String eTag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null || ifRange.trim().equals(eTag)) {
+			return true;
+		}
+		if (lastModified < 0 || ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/")) {
+			return false;
+		}
+
+		try {
+			return request.getDateHeader("If-Range") == (lastModified / 1000) * 1000;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the first and last byte of a single byte range like "bytes=100-199", "bytes=100-" or "bytes=-100",
+	 * NO_SATISFIABLE_RANGE if it lies outside the image, or null if the whole image is to be served: for a missing or
+	 * malformed header and for multiple ranges, which HTTP allows to ignore.
+	 */
+	protected static long[] getRange(String rangeHeader, long length) {
+		if (rangeHeader == null || !rangeHeader.startsWith("bytes=") || rangeHeader.indexOf(',') >= 0) {
+			return null;
+		}
+
+		String range = rangeHeader.substring("bytes=".length()).trim();
+		int dash = range.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+
+		long first;
+		long last;
+		try {
+			if (dash == 0) { // suffix range of the last bytes
+				long suffixLength = Long.parseLong(range.substring(1));
+				if (suffixLength <= 0) {
+					return NO_SATISFIABLE_RANGE;
+				}
+				first = Math.max(0, length - suffixLength);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(range.substring(0, dash));
+				last = (dash == range.length() - 1) ? Long.MAX_VALUE : Long.parseLong(range.substring(dash + 1));
+			}
+		} catch (NumberFormatException e) {
+			return null;
 		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
-			Serializable rawImage = null;
+
+		if (first < 0 || last < first) {
+			return null;
+		} else if (first >= length) {
+			return NO_SATISFIABLE_RANGE;
+		}
+		return new long[] {first, Math.min(last, length - 1)};
+	}
+
+	/**
+	 * The bytes of an image, wherever they are kept.
+	 */
+	protected abstract static class ImageContent {
+
+		/**
+		 * @methodtype get
+		 */
+		protected abstract long getLength() throws IOException;
+
+		/**
+		 * @methodtype command
+		 */
+		protected abstract void writeTo(OutputStream out, long start, long length) throws IOException;
+
+		/**
+		 * @methodtype command
+		 */
+		protected void close() throws IOException {
+			// nothing to release by default
+		}
+	}
+
+	/**
+	 * An image in a buffer: heap buffers are written from their array, direct buffers through a pooled buffer, so
+	 * neither is copied into an array of the image size.
+	 */
+	protected static class BufferContent extends ImageContent {
+
+		/**
+		 *
+		 */
+		protected final ByteBuffer bytes;
+
+		/**
+		 *
+		 */
+		protected BufferContent(ByteBuffer sharedBytes) {
+			bytes = sharedBytes.duplicate();
+			bytes.clear();
+		}
+
+		@Override
+		protected long getLength() {
+			return bytes.capacity();
+		}
+
+		@Override
+		protected void writeTo(OutputStream out, long start, long length) throws IOException {
+			if (bytes.hasArray()) {
+				out.write(bytes.array(), bytes.arrayOffset() + (int) start, (int) length);
+				return;
+			}
+
+			ByteBuffer source = bytes.duplicate();
+			source.position((int) start);
+			source.limit((int) (start + length));
+
+			BufferPool bufferPool = BufferPool.getInstance();
+			ByteBuffer buffer = bufferPool.acquire(COPY_BUFFER_SIZE);
 			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+				byte[] chunk = buffer.hasArray() ? buffer.array() : new byte[COPY_BUFFER_SIZE];
+				while (source.hasRemaining()) {
+					int noBytes = Math.min(chunk.length, source.remaining());
+					source.get(chunk, 0, noBytes);
+					out.write(chunk, 0, noBytes);
+				}
+			} finally {
+				bufferPool.release(buffer);
 			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
+		}
+	}
+
+	/**
+	 * An image in a file, transferred by the channel itself, so its bytes do not pass through the heap when the
+	 * platform can avoid it.
+	 */
+	protected static class ChannelContent extends ImageContent {
+
+		/**
+		 *
+		 */
+		protected final FileChannel channel;
+
+		/**
+		 *
+		 */
+		protected ChannelContent(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		protected long getLength() throws IOException {
+			return channel.size();
+		}
+
+		@Override
+		protected void writeTo(OutputStream out, long start, long length) throws IOException {
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = start;
+			long end = start + length;
+			while (position < end) {
+				long noBytes = channel.transferTo(position, end - position, target);
+				if (noBytes <= 0) {
+					throw new EOFException("image file ended at " + position + " of " + end + " bytes");
+				}
+				position += noBytes;
 			}
 		}
-		return image;
+
+		@Override
+		protected void close() throws IOException {
+			channel.close();
+		}
 	}
 }
-
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.model.PhotoTagIndex;
+import org.wahlzeit.model.Tags;
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Suggests completions of partly typed tags or user names, e.g. for the filter form, with their number of photos. A
+ * request like /suggest?field=tags&prefix=flo is answered from the PhotoTagIndex as a JSON array; it needs no session
+ * and no datastore access.
+ */
+public class SuggestionServlet extends HttpServlet {
+
+	private static final Logger log = Logger.getLogger(SuggestionServlet.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String FIELD = "field";
+	public static final String PREFIX = "prefix";
+	public static final String LIMIT = "limit";
+
+	/**
+	 *
+	 */
+	public static final String TAGS_FIELD = "tags";
+	public static final String USER_NAME_FIELD = "userName";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_LIMIT = 10;
+	public static final int MAX_LIMIT = 50;
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String termPrefix = getTermPrefix(request.getParameter(FIELD));
+		String prefix = request.getParameter(PREFIX);
+		if (termPrefix == null || prefix == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		Map<String, Integer> suggestions = PhotoTagIndex.getInstance().getSuggestions(termPrefix + Tags.asTag(prefix),
+				getLimit(request.getParameter(LIMIT)));
+		log.config(LogBuilder.createSystemMessage().
+				addAction("suggest").
+				addParameter("prefix", prefix).
+				addParameter("number of suggestions", suggestions.size()).toString());
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "private, max-age=60");
+		response.getWriter().write(asJson(suggestions, termPrefix.length()));
+	}
+
+	/**
+	 * Returns the prefix of the terms that hold the values of the form field, or null for unknown fields.
+	 *
+	 * @methodtype conversion
+	 */
+	protected String getTermPrefix(String field) {
+		if (TAGS_FIELD.equals(field)) {
+			return "tg:";
+		} else if (USER_NAME_FIELD.equals(field)) {
+			return "un:";
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected int getLimit(String limit) {
+		if (limit == null) {
+			return DEFAULT_LIMIT;
+		}
+		try {
+			return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limit)));
+		} catch (NumberFormatException e) {
+			return DEFAULT_LIMIT;
+		}
+	}
+
+	/**
+	 * Terms only consist of lowercase letters and digits (see Tags.asTag), so they need no escaping.
+	 *
+	 * @methodtype conversion
+	 */
+	protected String asJson(Map<String, Integer> suggestions, int termPrefixLength) {
+		StringBuilder result = new StringBuilder("[");
+		for (Map.Entry<String, Integer> suggestion : suggestions.entrySet()) {
+			if (result.length() > 1) {
+				result.append(',');
+			}
+			result.append("{\"value\":\"").append(suggestion.getKey().substring(termPrefixLength)).
+					append("\",\"count\":").append(suggestion.getValue()).append('}');
+		}
+		return result.append(']').toString();
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.agents.ProcessUploadAgent;
+import org.wahlzeit.model.UploadJob;
+import org.wahlzeit.model.UploadJobManager;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reports the state of an upload job, so the upload page can poll until its photo is processed. A request like
+ * /uploadStatus?jobId=42 is answered as a JSON object with the state and, once done, the id of the photo.
+ */
+public class UploadStatusServlet extends HttpServlet {
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Long jobId = getJobId(request.getParameter(ProcessUploadAgent.JOB_ID));
+		if (jobId == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		UploadJob job = UploadJobManager.getInstance().getJob(jobId);
+		if (job == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.getWriter().write(asJson(job));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected Long getJobId(String jobId) {
+		if (jobId == null) {
+			return null;
+		}
+		try {
+			return Long.valueOf(jobId);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * States and photo ids only consist of letters and digits, so they need no escaping.
+	 *
+	 * @methodtype conversion
+	 */
+	protected String asJson(UploadJob job) {
+		StringBuilder result = new StringBuilder("{\"state\":\"").append(job.getState()).append('"');
+		if (job.getState() == UploadJob.State.DONE) {
+			result.append(",\"photoId\":\"").append(job.getPhotoId()).append('"');
+		}
+		return result.append('}').toString();
+	}
+
+}
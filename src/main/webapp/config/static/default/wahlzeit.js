@@ -61,3 +61,68 @@ function validate(form) {
 	
 	form.submit();
 }
+
+function suggest(input, field, listId) {
+	var value, separator, prefix, request;
+
+	value = input.value;
+	separator = value.lastIndexOf(',');
+	prefix = value.substring(separator + 1).replace(/^\s+/, '');
+	if (prefix.length == 0) {
+		return;
+	}
+
+	request = new XMLHttpRequest();
+	request.onreadystatechange = function() {
+		var list, suggestions, option, i;
+		if ((request.readyState != 4) || (request.status != 200)) {
+			return;
+		}
+
+		list = document.getElementById(listId);
+		list.innerHTML = '';
+		suggestions = JSON.parse(request.responseText);
+		for (i = 0; i < suggestions.length; i++) {
+			option = document.createElement('option');
+			option.value = value.substring(0, separator + 1) + (separator >= 0 ? ' ' : '') + suggestions[i].value;
+			option.label = suggestions[i].value + ' (' + suggestions[i].count + ')';
+			list.appendChild(option);
+		}
+	};
+	request.open('GET', '/suggest?field=' + field + '&prefix=' + encodeURIComponent(prefix), true);
+	request.send();
+}
+
+function pollUploadStatus(jobId, statusId, processingText, doneText, failedText) {
+	var status, request;
+
+	if (jobId.length == 0) {
+		return;
+	}
+
+	status = document.getElementById(statusId);
+	request = new XMLHttpRequest();
+	request.onreadystatechange = function() {
+		var job;
+		if (request.readyState != 4) {
+			return;
+		} else if (request.status != 200) {
+			status.innerHTML = failedText;
+			return;
+		}
+
+		job = JSON.parse(request.responseText);
+		if (job.state == 'DONE') {
+			status.innerHTML = doneText + ' <a href="' + job.photoId + '.html">' + job.photoId + '</a>';
+		} else if (job.state == 'FAILED') {
+			status.innerHTML = failedText;
+		} else {
+			status.innerHTML = processingText;
+			setTimeout(function() {
+				pollUploadStatus(jobId, statusId, processingText, doneText, failedText);
+			}, 1000);
+		}
+	};
+	request.open('GET', '/uploadStatus?jobId=' + encodeURIComponent(jobId), true);
+	request.send();
+}
@@ -0,0 +1,93 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test class for {@link DerivedImageGenerator}.
+ */
+public class DerivedImageGeneratorTest {
+
+	private final Image createdImage = ImagesServiceFactory.makeImage(new byte[16]);
+	private final AtomicInteger noCreations = new AtomicInteger();
+	private final CountDownLatch creationLatch = new CountDownLatch(1);
+
+	private DerivedImageGenerator generator;
+	private Photo photo;
+
+	@Before
+	public void initGenerator() {
+		generator = new DerivedImageGenerator() {
+			@Override
+			protected Image doGetImage(Photo photo, PhotoSize size) throws Exception {
+				noCreations.incrementAndGet();
+				creationLatch.await();
+				return createdImage;
+			}
+		};
+		photo = new Photo(PhotoId.getIdFromInt(1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentRequestsShareOneCreation() throws Exception {
+		final List<Image> results = new ArrayList<Image>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					Image result = generator.getImage(photo, PhotoSize.THUMB);
+					synchronized (results) {
+						results.add(result);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		// one thread waits for the latch, the others for its result
+		for (Thread thread : threads) {
+			while (thread.getState() != Thread.State.WAITING) {
+				Thread.sleep(1);
+			}
+		}
+		creationLatch.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(4, results.size());
+		for (Image result : results) {
+			assertSame(createdImage, result);
+		}
+		assertEquals(0, generator.getNoComputations());
+		assertEquals(1, noCreations.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSizesLargerThanThePhotoAreNotCreated() {
+		creationLatch.countDown();
+		assertNull(generator.getImage(photo, PhotoSize.EXTRA_LARGE));
+		assertEquals(0, noCreations.get());
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for {@link IdBlockAllocator}.
+ */
+public class IdBlockAllocatorTest {
+
+	private List<Long> leasedBlocks;
+
+	@Before
+	public void initLeaser() {
+		leasedBlocks = new ArrayList<Long>();
+		IdBlockAllocator.setBlockLeaser(new IdBlockLeaser() {
+			private long lastId = 0;
+
+			@Override
+			public synchronized long leaseIdBlock(IdBlockAllocator.Sequence sequence, int size) {
+				long first = lastId + 1;
+				lastId += size;
+				leasedBlocks.add(first);
+				return first;
+			}
+		});
+	}
+
+	@After
+	public void resetLeaser() {
+		IdBlockAllocator.setBlockLeaser(null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHandsOutIdsFromLeasedBlocks() {
+		IdBlockAllocator allocator = new IdBlockAllocator(IdBlockAllocator.Sequence.PHOTO, 3);
+		assertEquals(0, allocator.getLastId());
+
+		for (long expected = 1; expected <= 7; expected++) {
+			assertEquals(expected, allocator.getNextId());
+		}
+		assertEquals(7, allocator.getLastId());
+		assertEquals(3, leasedBlocks.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAllocatorsDoNotShareIds() {
+		IdBlockAllocator first = new IdBlockAllocator(IdBlockAllocator.Sequence.PHOTO, 2);
+		IdBlockAllocator second = new IdBlockAllocator(IdBlockAllocator.Sequence.PHOTO, 2);
+
+		Set<Long> ids = new HashSet<Long>();
+		for (int i = 0; i < 5; i++) {
+			ids.add(first.getNextId());
+			ids.add(second.getNextId());
+		}
+		assertEquals(10, ids.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsThreadSafe() throws InterruptedException {
+		final IdBlockAllocator allocator = new IdBlockAllocator(IdBlockAllocator.Sequence.CLIENT, 5);
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 250; j++) {
+						ids.add(allocator.getNextId());
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1000, ids.size());
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoFilterCache}.
+ */
+public class PhotoFilterCacheTest {
+
+	private PhotoFilterCache cache;
+	private PhotoId red;
+	private PhotoId blue;
+
+	@Before
+	public void initCache() {
+		PhotoTagIndex.getInstance().clear();
+		cache = PhotoFilterCache.getInstance();
+
+		red = PhotoId.getIdFromInt(1);
+		blue = PhotoId.getIdFromInt(2);
+		PhotoTagIndex.getInstance().updatePhoto(red, new HashSet<String>(Arrays.asList("tg:red")), true);
+		PhotoTagIndex.getInstance().updatePhoto(blue, new HashSet<String>(Arrays.asList("tg:blue")), true);
+	}
+
+	@After
+	public void clearCache() {
+		PhotoTagIndex.getInstance().clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResultsAreSharedAndFrozen() {
+		PhotoIdSet result = cache.getVisiblePhotoIds(Arrays.asList("tg:red", "tg:blue"));
+		assertEquals(2, result.size());
+		assertTrue(result.isFrozen());
+		assertSame(result, cache.getVisiblePhotoIds(Arrays.asList("tg:blue", "tg:red", "tg:blue")));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = UnsupportedOperationException.class)
+	public void testResultsCannotBeChanged() {
+		cache.getVisiblePhotoIds(Arrays.asList("tg:red")).clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidatesOnlyAffectedResults() {
+		List<String> redConditions = Arrays.asList("tg:red");
+		List<String> blueConditions = Arrays.asList("tg:blue");
+		PhotoIdSet redResult = cache.getVisiblePhotoIds(redConditions);
+		PhotoIdSet allResult = cache.getVisiblePhotoIds(Arrays.<String>asList());
+
+		PhotoTagIndex.getInstance().updatePhoto(red, new HashSet<String>(Arrays.asList("tg:red", "tg:big")), true);
+		assertSame(redResult, cache.getVisiblePhotoIds(redConditions));
+		assertSame(allResult, cache.getVisiblePhotoIds(Arrays.<String>asList()));
+
+		PhotoTagIndex.getInstance().updatePhoto(red, new HashSet<String>(Arrays.asList("tg:blue")), true);
+		assertNotSame(redResult, cache.getVisiblePhotoIds(redConditions));
+		assertEquals(2, cache.getVisiblePhotoIds(blueConditions).size());
+
+		PhotoTagIndex.getInstance().setVisible(blue, false);
+		assertEquals(1, cache.getVisiblePhotoIds(blueConditions).size());
+		assertEquals(1, cache.getVisiblePhotoIds(Arrays.<String>asList()).size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDroppedResultsAreUnregistered() {
+		PhotoFilterCache smallCache = new PhotoFilterCache(1);
+		smallCache.getVisiblePhotoIds(Arrays.asList("tg:red", "tg:blue"));
+		smallCache.invalidate(Arrays.asList("tg:red"), false);
+		assertEquals(0, smallCache.size());
+		assertTrue(smallCache.keysByCondition.isEmpty());
+
+		smallCache.getVisiblePhotoIds(Arrays.asList("tg:red"));
+		smallCache.getVisiblePhotoIds(Arrays.asList("tg:blue"));
+		assertEquals(1, smallCache.size());
+		assertEquals(1, smallCache.keysByCondition.size());
+		assertTrue(smallCache.keysByCondition.containsKey("tg:blue"));
+	}
+
+}
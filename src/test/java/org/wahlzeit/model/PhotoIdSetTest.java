@@ -0,0 +1,121 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoIdSet}.
+ */
+public class PhotoIdSetTest {
+
+	private PhotoIdSet photoIds;
+
+	@Before
+	public void initPhotoIds() {
+		photoIds = new PhotoIdSet(Arrays.asList(PhotoId.getIdFromInt(1), PhotoId.getIdFromInt(5),
+				PhotoId.getIdFromInt(70)));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddRemoveContains() {
+		assertEquals(3, photoIds.size());
+		assertTrue(photoIds.contains(PhotoId.getIdFromInt(70)));
+		assertFalse(photoIds.contains(PhotoId.getIdFromInt(2)));
+
+		assertFalse(photoIds.add(PhotoId.getIdFromInt(5)));
+		assertTrue(photoIds.remove(PhotoId.getIdFromInt(5)));
+		assertFalse(photoIds.remove(PhotoId.getIdFromInt(5)));
+		assertEquals(2, photoIds.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSetOperations() {
+		PhotoIdSet other = new PhotoIdSet(Arrays.asList(PhotoId.getIdFromInt(5), PhotoId.getIdFromInt(9)));
+
+		PhotoIdSet union = new PhotoIdSet(photoIds);
+		union.addAll(other);
+		assertEquals(4, union.size());
+
+		PhotoIdSet difference = new PhotoIdSet(photoIds);
+		difference.removeAll(other);
+		assertEquals(2, difference.size());
+		assertFalse(difference.contains(PhotoId.getIdFromInt(5)));
+
+		PhotoIdSet intersection = new PhotoIdSet(photoIds);
+		intersection.retainAll(other);
+		assertEquals(1, intersection.size());
+		assertTrue(intersection.contains(PhotoId.getIdFromInt(5)));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIteratorInOrder() {
+		Iterator<PhotoId> i = photoIds.iterator();
+		assertEquals(PhotoId.getIdFromInt(1), i.next());
+		i.remove();
+		assertEquals(PhotoId.getIdFromInt(5), i.next());
+		assertEquals(PhotoId.getIdFromInt(70), i.next());
+		assertFalse(i.hasNext());
+		assertEquals(2, photoIds.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomPhotoId() {
+		Random random = new Random(42);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(photoIds.contains(photoIds.getRandomPhotoId(random)));
+		}
+		assertSame(PhotoId.NULL_ID, new PhotoIdSet().getRandomPhotoId(random));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomPhotoIdIsUniform() {
+		PhotoIdSet sparseIds = new PhotoIdSet(Arrays.asList(PhotoId.getIdFromInt(1), PhotoId.getIdFromInt(2),
+				PhotoId.getIdFromInt(1000)));
+		Map<PhotoId, Integer> counts = countRandomPhotoIds(sparseIds, new Random(42), 3000);
+
+		assertEquals(3, counts.size());
+		for (int count : counts.values()) {
+			assertTrue(count > 800 && count < 1200);
+		}
+		assertEquals(counts, countRandomPhotoIds(sparseIds.freeze(), new Random(42), 3000));
+	}
+
+	/**
+	 *
+	 */
+	protected Map<PhotoId, Integer> countRandomPhotoIds(PhotoIdSet ids, Random random, int noPicks) {
+		Map<PhotoId, Integer> result = new HashMap<PhotoId, Integer>();
+		for (int i = 0; i < noPicks; i++) {
+			PhotoId photoId = ids.getRandomPhotoId(random);
+			result.put(photoId, result.containsKey(photoId) ? result.get(photoId) + 1 : 1);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,615 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.caching.LruCache;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link PhotoManager}.
+ */
+public class PhotoManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private PhotoManager photoManager;
+	private List<String> savedDependents;
+
+	@Before
+	public void initPhotoManager() {
+		savedDependents = new ArrayList<String>();
+		photoManager = new RecordingPhotoManager();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictedLegacyPhotoIsLoadedAgain() {
+		final PhotoId id = new PhotoId(4711);
+		saveLegacyPhoto(id, 123456789L);
+
+		Photo photo = ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				photoManager.loadPhotos();
+				photoManager.getPhotoCache().remove(id);
+				assertFalse(photoManager.getPhotoCache().containsKey(id));
+				return photoManager.getPhoto(id);
+			}
+		});
+
+		assertNotNull(photo);
+		assertEquals(id, photo.getId());
+		assertEquals(123456789L, photo.getDatastoreId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictedLegacyPhotoIsLoadedInBatch() {
+		final PhotoId id = new PhotoId(4712);
+		saveLegacyPhoto(id, 123456790L);
+
+		Map<PhotoId, Photo> photos = ObjectifyService.run(new Work<Map<PhotoId, Photo>>() {
+			@Override
+			public Map<PhotoId, Photo> run() {
+				photoManager.loadPhotos();
+				photoManager.getPhotoCache().remove(id);
+				return photoManager.getPhotos(Collections.singleton(id));
+			}
+		});
+
+		assertEquals(1, photos.size());
+		assertNotNull(photos.get(id));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictedPhotosAreLoadedInBatch() {
+		final PhotoId id = new PhotoId(4713);
+		final PhotoId unknownId = new PhotoId(4714);
+
+		Map<PhotoId, Photo> photos = ObjectifyService.run(new Work<Map<PhotoId, Photo>>() {
+			@Override
+			public Map<PhotoId, Photo> run() {
+				OfyService.ofy().save().entity(new Photo(id)).now();
+				photoManager.loadPhotos();
+				photoManager.getPhotoCache().remove(id);
+				return photoManager.getPhotos(Arrays.asList(id, unknownId));
+			}
+		});
+
+		assertEquals(1, photos.size());
+		assertNotNull(photos.get(id));
+		assertTrue(photoManager.getPhotoCache().containsKey(id));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPhotosWithUnsavedChangesAreNotEvicted() {
+		photoManager.setPhotoCache(new LruCache<PhotoId, Photo>(1, 1));
+		Photo changedPhoto = new Photo(new PhotoId(4715));
+		Photo savedPhoto = new Photo(new PhotoId(4716));
+		savedPhoto.resetWriteCount();
+
+		photoManager.getPhotoCache().put(changedPhoto.getId(), changedPhoto);
+		photoManager.getPhotoCache().put(savedPhoto.getId(), savedPhoto);
+		assertTrue(photoManager.getPhotoCache().containsKey(changedPhoto.getId()));
+		assertFalse(photoManager.getPhotoCache().containsKey(savedPhoto.getId()));
+
+		changedPhoto.resetWriteCount();
+		photoManager.getPhotoCache().put(savedPhoto.getId(), savedPhoto);
+		assertFalse(photoManager.getPhotoCache().containsKey(changedPhoto.getId()));
+		assertTrue(photoManager.getPhotoCache().containsKey(savedPhoto.getId()));
+		assertEquals(0, photoManager.getNoPhotoSaves());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPraiseChangeOnlyWritesPhoto() {
+		int noCalls = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				Photo photo = saveNewPhoto(new PhotoId(4721));
+				int noCallsBefore = ObjectManager.getNoDatastoreCalls();
+				photo.addToPraise(7);
+				photoManager.savePhoto(photo);
+				return ObjectManager.getNoDatastoreCalls() - noCallsBefore;
+			}
+		});
+
+		assertEquals(1, noCalls);
+		assertTrue(savedDependents.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStatusChangeOnlyWritesPhoto() {
+		int noCalls = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				Photo photo = saveNewPhoto(new PhotoId(4722));
+				int noCallsBefore = ObjectManager.getNoDatastoreCalls();
+				photo.setStatus(PhotoStatus.INVISIBLE);
+				photoManager.savePhoto(photo);
+				return ObjectManager.getNoDatastoreCalls() - noCallsBefore;
+			}
+		});
+
+		assertEquals(1, noCalls);
+		assertTrue(savedDependents.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnchangedPhotoIsNotWritten() {
+		int noCalls = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				Photo photo = saveNewPhoto(new PhotoId(4723));
+				int noCallsBefore = ObjectManager.getNoDatastoreCalls();
+				photoManager.savePhoto(photo);
+				return ObjectManager.getNoDatastoreCalls() - noCallsBefore;
+			}
+		});
+
+		assertEquals(0, noCalls);
+		assertTrue(savedDependents.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTagsChangeUpdatesTags() {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				Photo photo = saveNewPhoto(new PhotoId(4724));
+				photo.setTags(new Tags("flower, garden"));
+				photoManager.savePhoto(photo);
+				return null;
+			}
+		});
+
+		assertEquals(Collections.singletonList(RecordingPhotoManager.TAGS), savedDependents);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOwnerChangeUpdatesTagsAndOwner() {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				Photo photo = saveNewPhoto(new PhotoId(4725));
+				photo.setOwnerId("newOwner");
+				photoManager.savePhoto(photo);
+				return null;
+			}
+		});
+
+		assertEquals(Arrays.asList(RecordingPhotoManager.TAGS, RecordingPhotoManager.OWNER), savedDependents);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImagesChangeSavesImages() {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				Photo photo = saveNewPhoto(new PhotoId(4726));
+				photo.setImage(PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[1024]));
+				photoManager.savePhoto(photo);
+				return null;
+			}
+		});
+
+		assertEquals(Collections.singletonList(RecordingPhotoManager.IMAGES), savedDependents);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOnlyPhotosWithNewPraiseAreFound() {
+		Collection<Photo> photos = ObjectifyService.run(new Work<Collection<Photo>>() {
+			@Override
+			public Collection<Photo> run() {
+				saveNewPhoto(new PhotoId(4727));
+				Photo praisedPhoto = saveNewPhoto(new PhotoId(4728));
+				praisedPhoto.addToPraise(5);
+				photoManager.savePhoto(praisedPhoto);
+				Photo notifiedPhoto = saveNewPhoto(new PhotoId(4729));
+				notifiedPhoto.addToPraise(5);
+				notifiedPhoto.setNoNewPraise();
+				photoManager.savePhoto(notifiedPhoto);
+				return photoManager.findPhotosWithNewPraise();
+			}
+		});
+
+		assertEquals(1, photos.size());
+		assertEquals(new PhotoId(4728), photos.iterator().next().getId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnknownPhotoIsLookedUpOnce() {
+		final int[] noLoads = new int[1];
+		PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo doLoadPhoto(PhotoId id) {
+				noLoads[0]++;
+				return null;
+			}
+		};
+
+		PhotoId id = PhotoId.getIdFromInt(4731);
+		assertNull(photoManager.getPhotoFromId(id));
+		assertNull(photoManager.getPhotoFromId(PhotoId.getIdFromInt(4731)));
+		assertEquals(1, noLoads[0]);
+
+		Photo photo = new Photo(id);
+		photoManager.doAddPhoto(photo);
+		photoManager.getPhotoCache().remove(id);
+		assertNull(photoManager.getPhotoFromId(id));
+		assertEquals(2, noLoads[0]);
+	}
+
+	/**
+	 * Saves a new photo, which updates all of its dependents, and forgets about them.
+	 */
+	protected Photo saveNewPhoto(PhotoId id) {
+		Photo photo = new Photo(id);
+		photo.setOwnerId("owner");
+		photoManager.savePhoto(photo);
+		savedDependents.clear();
+		return photo;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTagsOfPhotoWithoutSavedTermsAreReadFirst() {
+		TagRecordingPhotoManager tagManager = new TagRecordingPhotoManager(PhotoManager.TagStorage.ENTITIES, "a", "c");
+		Photo photo = newPhotoWithTerms(4731, "a", "b");
+
+		tagManager.updateTags(photo, null);
+
+		assertEquals(1, tagManager.noTagQueries);
+		assertEquals(Collections.singletonList("c"), tagManager.deletedTerms);
+		assertEquals(Collections.singletonList(Collections.singletonList("b")), tagManager.writtenTermBatches);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTagsOfRemovedTermsAreDeleted() {
+		TagRecordingPhotoManager tagManager =
+				new TagRecordingPhotoManager(PhotoManager.TagStorage.ENTITIES, "a", "b", "c");
+		Photo photo = newPhotoWithTerms(4732, "a", "b");
+
+		tagManager.updateTags(photo, Arrays.asList("a", "b", "c"));
+
+		assertEquals(1, tagManager.noTagQueries);
+		assertEquals(Collections.singletonList("c"), tagManager.deletedTerms);
+		assertTrue(tagManager.writtenTermBatches.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTagsOfAddedTermsAreWrittenInOneBatch() {
+		TagRecordingPhotoManager tagManager = new TagRecordingPhotoManager(PhotoManager.TagStorage.ENTITIES, "a");
+		Photo photo = newPhotoWithTerms(4733, "a", "b", "c");
+
+		tagManager.updateTags(photo, Collections.singletonList("a"));
+
+		assertEquals(0, tagManager.noTagQueries);
+		assertTrue(tagManager.deletedTerms.isEmpty());
+		assertEquals(1, tagManager.writtenTermBatches.size());
+		assertEquals(Arrays.asList("b", "c"), tagManager.writtenTermBatches.get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPropertyTagStorageWritesNoTags() {
+		TagRecordingPhotoManager tagManager = new TagRecordingPhotoManager(PhotoManager.TagStorage.PROPERTY, "c");
+		Photo photo = newPhotoWithTerms(4734, "a", "b");
+
+		tagManager.updateTags(photo, null);
+
+		assertEquals(0, tagManager.noTagQueries);
+		assertTrue(tagManager.deletedTerms.isEmpty());
+		assertTrue(tagManager.writtenTermBatches.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTermsAreUnknownWhenSaveFails() {
+		final PhotoManager failingManager = new RecordingPhotoManager() {
+			@Override
+			protected void updateDependents(Persistent obj) {
+				throw new IllegalStateException("save failed");
+			}
+		};
+		final Photo photo = newPhotoWithTerms(4735, "a");
+		photo.setOwnerId("owner");
+
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				try {
+					failingManager.savePhoto(photo);
+					fail("saving should have failed");
+				} catch (IllegalStateException e) {
+					// expected
+				}
+				return null;
+			}
+		});
+
+		assertEquals(Collections.singletonList(RecordingPhotoManager.TAGS), savedDependents);
+		assertNull(photo.getTerms());
+		assertTrue(photo.getChangedFieldGroups().contains(Photo.FieldGroup.OWNER));
+	}
+
+	/**
+	 *
+	 */
+	protected Photo newPhotoWithTerms(int id, String... terms) {
+		Photo photo = new Photo(new PhotoId(id));
+		photo.setTerms(Arrays.asList(terms));
+		return photo;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEagerStartupLoadsPhotosAndWarmsUpBeforeServing() {
+		assertEquals(Arrays.asList("load photos", "warm up"), initWithStartupMode("eager"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMetadataStartupLoadsPhotosAndWarmsUpInBackground() {
+		assertEquals(Arrays.asList("load photos", "start warm-up"), initWithStartupMode("metadata"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLazyStartupLoadsPhotosInBackground() {
+		assertEquals(Collections.singletonList("start warm-up loading photos"), initWithStartupMode("lazy"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnknownStartupModeIsMetadata() {
+		assertEquals(Arrays.asList("load photos", "start warm-up"), initWithStartupMode("sometime"));
+	}
+
+	/**
+	 * Returns the startup steps that init takes in the given mode.
+	 */
+	protected List<String> initWithStartupMode(String startupMode) {
+		final List<String> steps = new ArrayList<String>();
+		PhotoManager startingManager = new PhotoManager() {
+			@Override
+			public void loadPhotos() {
+				steps.add("load photos");
+			}
+
+			@Override
+			protected void startWarmUp(boolean isLoadingPhotos) {
+				steps.add(isLoadingPhotos ? "start warm-up loading photos" : "start warm-up");
+			}
+
+			@Override
+			protected void runWarmUp(boolean isLoadingPhotos) {
+				steps.add(isLoadingPhotos ? "warm up loading photos" : "warm up");
+			}
+		};
+
+		System.setProperty(PhotoManager.STARTUP_MODE_PROPERTY, startupMode);
+		try {
+			startingManager.init();
+		} finally {
+			System.clearProperty(PhotoManager.STARTUP_MODE_PROPERTY);
+		}
+		return steps;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedImageSizeStaysUnsaved() {
+		Photo photo = new Photo(new PhotoId(4731));
+		photo.setImage(PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[16]));
+		photo.setImage(PhotoSize.SMALL, ImagesServiceFactory.makeImage(new byte[16]));
+
+		ImageStorage.setInstance(new ImageStorage() {
+			@Override
+			protected void doWriteImage(Serializable image, String photoIdAsString, int size) throws IOException {
+				if (size == PhotoSize.THUMB.asInt()) {
+					throw new IOException("image too large");
+				}
+			}
+
+			@Override
+			protected Serializable doReadImage(String filename, int size) {
+				return null;
+			}
+
+			@Override
+			protected boolean doDoesImageExist(String photoIdAsString, int size) {
+				return false;
+			}
+
+			@Override
+			protected void doDeleteImage(String photoIdAsString, int size) {
+			}
+		});
+		try {
+			new PhotoManager().saveScaledImages(photo);
+		} finally {
+			ImageStorage.setInstance(null);
+		}
+
+		assertNotNull(photo.getUnsavedImage(PhotoSize.THUMB));
+		assertNull(photo.getUnsavedImage(PhotoSize.SMALL));
+	}
+
+	/**
+	 * Saves a photo the way it was stored before its entity id was derived from the PhotoId.
+	 */
+	protected void saveLegacyPhoto(final PhotoId id, final long allocatedId) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				Photo legacyPhoto = new Photo(id);
+				legacyPhoto.idLong = allocatedId;
+				OfyService.ofy().save().entity(legacyPhoto).now();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Records which dependents of a photo are saved instead of saving them.
+	 */
+	protected class RecordingPhotoManager extends PhotoManager {
+
+		protected static final String TAGS = "tags";
+		protected static final String IMAGES = "images";
+		protected static final String OWNER = "owner";
+
+		@Override
+		protected void updateTags(Photo photo, List<String> savedTerms) {
+			savedDependents.add(TAGS);
+		}
+
+		@Override
+		protected void saveScaledImages(Photo photo) {
+			savedDependents.add(IMAGES);
+		}
+
+		@Override
+		protected void saveOwner(Photo photo) {
+			savedDependents.add(OWNER);
+		}
+	}
+
+	/**
+	 * Records the Tag entities that are read, deleted and written instead of accessing the datastore.
+	 */
+	protected static class TagRecordingPhotoManager extends PhotoManager {
+
+		protected final TagStorage tagStorage;
+		protected final List<String> storedTerms;
+		protected int noTagQueries = 0;
+		protected List<String> deletedTerms = new ArrayList<String>();
+		protected List<List<String>> writtenTermBatches = new ArrayList<List<String>>();
+
+		protected TagRecordingPhotoManager(TagStorage tagStorage, String... storedTerms) {
+			this.tagStorage = tagStorage;
+			this.storedTerms = Arrays.asList(storedTerms);
+		}
+
+		@Override
+		protected TagStorage getTagStorage() {
+			return tagStorage;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected <E> void readObjects(Collection<E> result, Class<E> type, String propertyName, Object value) {
+			noTagQueries++;
+			for (String term : storedTerms) {
+				result.add((E) new Tag(term, (String) value));
+			}
+		}
+
+		@Override
+		protected void deleteObjects(Collection<?> objects) {
+			for (Object tag : objects) {
+				deletedTerms.add(((Tag) tag).getText());
+			}
+		}
+
+		@Override
+		protected void writeObjects(Collection<? extends Persistent> collection) {
+			if (collection.isEmpty()) {
+				return;
+			}
+
+			List<String> terms = new ArrayList<String>();
+			for (Persistent tag : collection) {
+				terms.add(((Tag) tag).getText());
+			}
+			Collections.sort(terms);
+			writtenTermBatches.add(terms);
+		}
+	}
+
+}
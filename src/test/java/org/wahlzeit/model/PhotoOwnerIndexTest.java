@@ -0,0 +1,68 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoOwnerIndex}.
+ */
+public class PhotoOwnerIndexTest {
+
+	private PhotoOwnerIndex index;
+
+	@Before
+	public void initIndex() {
+		index = new PhotoOwnerIndex();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddAndRemovePhoto() {
+		PhotoId first = PhotoId.getIdFromInt(1);
+		PhotoId second = PhotoId.getIdFromInt(2);
+		index.addPhoto("Alice", first);
+		index.addPhoto("Alice", second);
+
+		assertEquals(2, index.getPhotoIds("Alice").size());
+
+		index.removePhoto("Alice", first);
+		assertEquals(1, index.getPhotoIds("Alice").size());
+		assertTrue(index.getPhotoIds("Alice").contains(second));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOwnersWithSameTagAreKeptApart() {
+		PhotoId first = PhotoId.getIdFromInt(4);
+		PhotoId second = PhotoId.getIdFromInt(5);
+		index.addPhoto("John.Doe", first);
+		index.addPhoto("johndoe", second);
+
+		assertEquals(1, index.getPhotoIds("John.Doe").size());
+		assertTrue(index.getPhotoIds("John.Doe").contains(first));
+		assertEquals(1, index.getPhotoIds("johndoe").size());
+		assertTrue(index.getPhotoIds("johndoe").contains(second));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangeOwner() {
+		PhotoId photoId = PhotoId.getIdFromInt(3);
+		index.addPhoto("Alice", photoId);
+		index.changeOwner(photoId, "Alice", "Bob");
+
+		assertTrue(index.getPhotoIds("Alice").isEmpty());
+		assertTrue(index.getPhotoIds("Bob").contains(photoId));
+		assertTrue(index.getPhotoIds(null).isEmpty());
+	}
+
+}
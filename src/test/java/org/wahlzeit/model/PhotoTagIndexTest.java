@@ -0,0 +1,92 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoTagIndex}.
+ */
+public class PhotoTagIndexTest {
+
+	private PhotoTagIndex index;
+
+	@Before
+	public void initIndex() {
+		index = new PhotoTagIndex();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMatchAnyAndAll() {
+		PhotoId first = PhotoId.getIdFromInt(1);
+		PhotoId second = PhotoId.getIdFromInt(2);
+		index.updatePhoto(first, new HashSet<String>(Arrays.asList("tg:red", "tg:big")), true);
+		index.updatePhoto(second, new HashSet<String>(Arrays.asList("tg:red")), false);
+
+		assertEquals(2, index.getPhotoIds("tg:red").size());
+		assertEquals(2, index.matchAny(Arrays.asList("tg:big", "tg:red")).size());
+		assertEquals(1, index.matchAll(Arrays.asList("tg:big", "tg:red")).size());
+		assertTrue(index.matchAll(Arrays.asList("tg:big", "tg:none")).isEmpty());
+		assertEquals(1, index.getVisiblePhotoIds().size());
+		assertTrue(index.getVisiblePhotoIds().contains(first));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateAndRemovePhoto() {
+		PhotoId photoId = PhotoId.getIdFromInt(1);
+		index.updatePhoto(photoId, new HashSet<String>(Arrays.asList("tg:red", "tg:big")), true);
+		index.updatePhoto(photoId, new HashSet<String>(Arrays.asList("tg:blue", "tg:big")), true);
+
+		assertTrue(index.getPhotoIds("tg:red").isEmpty());
+		assertTrue(index.getPhotoIds("tg:blue").contains(photoId));
+		assertEquals(2, index.getNoTerms());
+
+		index.removePhoto(photoId);
+		assertEquals(0, index.getNoTerms());
+		assertTrue(index.getVisiblePhotoIds().isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTermStatistics() {
+		PhotoId first = PhotoId.getIdFromInt(1);
+		PhotoId second = PhotoId.getIdFromInt(2);
+		index.setPraise(first, 10, 1);
+		index.updatePhoto(first, new HashSet<String>(Arrays.asList("tg:red", "tg:big")), true);
+		index.updatePhoto(second, new HashSet<String>(Arrays.asList("tg:red")), true);
+		index.setPraise(second, 50, 5);
+
+		List<TermStatistics> mostFrequentTerms = index.getMostFrequentTerms("tg:", 10);
+		assertEquals(2, mostFrequentTerms.size());
+		assertEquals("tg:red", mostFrequentTerms.get(0).getTerm());
+		assertEquals(2, mostFrequentTerms.get(0).getNoPhotos());
+		assertEquals(60, mostFrequentTerms.get(0).getPraiseSum());
+
+		index.setPraise(first, 100, 2);
+		assertEquals(100, index.getStatistics("tg:big").getPraiseSum());
+		assertEquals("tg:red", index.getMostPraisedTerms("tg:", 1).get(0).getTerm());
+
+		index.updatePhoto(second, new HashSet<String>(Arrays.asList("tg:small")), true);
+		assertEquals(100, index.getStatistics("tg:red").getPraiseSum());
+		assertEquals(1, index.getMostFrequentTerms("tg:s", 10).size());
+
+		index.removePhoto(first);
+		assertNull(index.getStatistics("tg:red"));
+	}
+
+}
@@ -0,0 +1,146 @@
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoWarmUp}.
+ */
+public class PhotoWarmUpTest {
+
+	private List<PhotoId> warmedPhotoIds;
+	private CountDownLatch releaseLatch;
+	private boolean isLoaded;
+	private PhotoManager photoManager;
+
+	@Before
+	public void initPhotoManager() {
+		warmedPhotoIds = new CopyOnWriteArrayList<PhotoId>();
+		releaseLatch = new CountDownLatch(0);
+		isLoaded = false;
+		photoManager = new PhotoManager() {
+			@Override
+			public void loadPhotos() {
+				isLoaded = true;
+			}
+
+			@Override
+			protected void loadScaledImages(Photo photo) {
+				try {
+					releaseLatch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (photo.getId().asInt() == 13) {
+					throw new IllegalStateException("image not found");
+				}
+				warmedPhotoIds.add(photo.getId());
+			}
+		};
+	}
+
+	@After
+	public void clearProperties() {
+		System.clearProperty(PhotoWarmUp.MAX_PHOTOS_PROPERTY);
+		System.clearProperty(PhotoWarmUp.THREADS_PROPERTY);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWarmUpLoadsPhotosOnlyIfAsked() {
+		PhotoWarmUp warmUp = new PhotoWarmUp(photoManager, false, Executors.defaultThreadFactory());
+		warmUp.run();
+		assertFalse(isLoaded);
+		assertEquals(PhotoWarmUp.State.DONE, warmUp.getState());
+
+		warmUp = new PhotoWarmUp(photoManager, true, Executors.defaultThreadFactory());
+		warmUp.run();
+		assertTrue(isLoaded);
+		assertEquals(PhotoWarmUp.State.DONE, warmUp.getState());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWarmUpPrefetchesMostPraisedVisiblePhotos() {
+		System.setProperty(PhotoWarmUp.MAX_PHOTOS_PROPERTY, "2");
+		System.setProperty(PhotoWarmUp.THREADS_PROPERTY, "1");
+		addPhoto(1, 2, PhotoStatus.VISIBLE);
+		addPhoto(2, 9, PhotoStatus.VISIBLE);
+		addPhoto(3, 10, PhotoStatus.INVISIBLE);
+		addPhoto(4, 5, PhotoStatus.VISIBLE);
+
+		PhotoWarmUp warmUp = new PhotoWarmUp(photoManager, false, Executors.defaultThreadFactory());
+		warmUp.run();
+
+		assertEquals(PhotoWarmUp.State.DONE, warmUp.getState());
+		assertEquals(2, warmUp.getNoPhotosToWarm());
+		assertEquals(2, warmUp.getNoPhotosWarmed());
+		assertEquals(Arrays.asList(new PhotoId(2), new PhotoId(4)), warmedPhotoIds);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedPhotosAreCounted() {
+		addPhoto(12, 1, PhotoStatus.VISIBLE);
+		addPhoto(13, 1, PhotoStatus.VISIBLE);
+
+		PhotoWarmUp warmUp = new PhotoWarmUp(photoManager, false, Executors.defaultThreadFactory());
+		warmUp.run();
+
+		assertEquals(PhotoWarmUp.State.DONE, warmUp.getState());
+		assertEquals(1, warmUp.getNoPhotosWarmed());
+		assertEquals(1, warmUp.getNoPhotosFailed());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWarmUpFailsAfterTimeout() {
+		releaseLatch = new CountDownLatch(1);
+		addPhoto(21, 1, PhotoStatus.VISIBLE);
+
+		PhotoWarmUp warmUp = new PhotoWarmUp(photoManager, false, Executors.defaultThreadFactory()) {
+			@Override
+			protected long getMaxWaitMillis() {
+				return 50;
+			}
+		};
+		try {
+			warmUp.run();
+		} finally {
+			releaseLatch.countDown();
+		}
+
+		assertEquals(PhotoWarmUp.State.FAILED, warmUp.getState());
+		assertTrue(warmUp.isFinished());
+	}
+
+	/**
+	 *
+	 */
+	protected void addPhoto(int id, int praise, PhotoStatus status) {
+		Photo photo = new Photo(new PhotoId(id));
+		photo.addToPraise(praise);
+		photo.setStatus(status);
+		photoManager.getPhotoCache().put(photo.getId(), photo);
+	}
+
+}
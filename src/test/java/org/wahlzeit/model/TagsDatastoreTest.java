@@ -0,0 +1,97 @@
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for saving and loading {@link Tags} with the datastore.
+ */
+public class TagsDatastoreTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTagsSurviveRoundTrip() {
+		final Photo photo = new Photo(PhotoId.getIdFromInt(4741));
+		photo.setTags(new Tags("flower, garden"));
+
+		Photo loadedPhoto = ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				OfyService.ofy().save().entity(photo).now();
+				photo.getTags().afterSave();
+				OfyService.ofy().clear();
+				return PhotoFactory.getInstance().loadPhoto(photo.getId());
+			}
+		});
+
+		assertNotNull(loadedPhoto);
+		assertEquals(photo.getTags(), loadedPhoto.getTags());
+		assertTrue(loadedPhoto.getTags().hasTag("flower"));
+		assertTrue(loadedPhoto.getTags().hasTag("garden"));
+		assertNull(loadedPhoto.getTags().tags);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSavedPhotoKeepsNoPersistentTags() {
+		final Photo photo = new Photo(PhotoId.getIdFromInt(4742));
+		photo.resetChangedFieldGroups(EnumSet.allOf(Photo.FieldGroup.class));
+		photo.setTags(new Tags("flower"));
+
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				new PhotoManager().savePhoto(photo);
+				return null;
+			}
+		});
+
+		assertNull(photo.getTags().tags);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSavingEmptyTagsLeavesSharedInstanceUnchanged() {
+		final Photo photo = new Photo(PhotoId.getIdFromInt(4743));
+		assertSame(Tags.EMPTY_TAGS, photo.getTags());
+
+		Photo loadedPhoto = ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				OfyService.ofy().save().entity(photo).now();
+				OfyService.ofy().clear();
+				return PhotoFactory.getInstance().loadPhoto(photo.getId());
+			}
+		});
+
+		assertNull(Tags.EMPTY_TAGS.tags);
+		assertNotNull(loadedPhoto);
+		assertEquals(0, loadedPhoto.getTags().getSize());
+	}
+
+}
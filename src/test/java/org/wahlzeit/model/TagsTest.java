@@ -22,6 +22,10 @@ package org.wahlzeit.model;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Set;
 
 /**
@@ -268,4 +272,66 @@ public class TagsTest extends TestCase {
 		assertTrue(set.contains("zb"));
 		assertTrue(set.contains("nihao"));
 	}
+
+	/**
+	 *
+	 */
+	public void testSetOperations() {
+		Tags tags1 = new Tags("a, b, c");
+		Tags tags2 = new Tags("c, d");
+
+		assertTrue(tags1.intersects(tags2));
+		assertFalse(tags1.intersects(new Tags("x, y")));
+		assertEquals(new Tags("a, b, c, d"), tags1.union(tags2));
+		assertEquals(new Tags("c"), tags1.intersection(tags2));
+		assertTrue(tags1.containsAll(new Tags("c, a")));
+		assertFalse(tags1.containsAll(tags2));
+	}
+
+	/**
+	 *
+	 */
+	public void testSearchTagsAreNotAddedToDictionary() {
+		int noTags = TagDictionary.getInstance().getSize();
+		Tags tags1 = new Tags("neverwritten, nowhere");
+
+		assertEquals(noTags, TagDictionary.getInstance().getSize());
+		assertEquals(2, tags1.getSize());
+		assertTrue(tags1.hasTag("nowhere"));
+		assertEquals(TagDictionary.UNKNOWN_ID, tags1.getTagId(0));
+		assertEquals("neverwritten, nowhere", tags1.asString());
+	}
+
+	/**
+	 *
+	 */
+	public void testInternAddsTagsToDictionary() {
+		Tags tags1 = new Tags("interned, tags");
+		Tags tags2 = tags1.intern();
+
+		assertTrue(TagDictionary.getInstance().findId("interned") != TagDictionary.UNKNOWN_ID);
+		assertTrue(tags2.getTagId(0) != TagDictionary.UNKNOWN_ID);
+		assertTrue(tags2.getTagId(1) != TagDictionary.UNKNOWN_ID);
+		assertEquals(tags1, tags2);
+		assertEquals(tags1.hashCode(), tags2.hashCode());
+		assertTrue(tags1.containsAll(new Tags("tags")));
+		assertEquals(new Tags("interned, more, tags"), tags2.union(new Tags("more")));
+		assertEquals(new Tags("tags"), tags1.intersection(new Tags("more, tags")));
+	}
+
+	/**
+	 *
+	 */
+	public void testSerializesTagsRatherThanIds() throws Exception {
+		Tags tags1 = new Tags("serialized, tags");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(tags1);
+		out.close();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Tags tags2 = (Tags) in.readObject();
+		assertEquals(tags1, tags2);
+		assertEquals("serialized, tags", tags2.asString());
+	}
 }
@@ -0,0 +1,77 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link TermStatisticsIndex}.
+ */
+public class TermStatisticsIndexTest {
+
+	private TermStatisticsIndex statistics;
+
+	@Before
+	public void initStatistics() {
+		statistics = new TermStatisticsIndex();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPraiseIsAddedUpPerTerm() {
+		statistics.setPraise(1, 10, 1, null);
+		statistics.onTermAdded("tg:red", 1, 1);
+		statistics.onTermAdded("tg:red", 2, 2);
+		statistics.setPraise(2, 30, 3, Collections.singleton("tg:red"));
+		assertEquals(40, statistics.getStatistics("tg:red").getPraiseSum());
+		assertEquals(2, statistics.getStatistics("tg:red").getNoPhotos());
+
+		statistics.setPraise(2, 50, 4, Collections.singleton("tg:red"));
+		assertEquals(60, statistics.getStatistics("tg:red").getPraiseSum());
+
+		statistics.onTermRemoved("tg:red", 2, 1);
+		assertEquals(10, statistics.getStatistics("tg:red").getPraiseSum());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopTerms() {
+		statistics.onTermAdded("tg:red", 1, 1);
+		statistics.onTermAdded("tg:red", 2, 2);
+		statistics.onTermAdded("tg:big", 1, 1);
+		statistics.setPraise(1, 100, 2, Arrays.asList("tg:red", "tg:big"));
+
+		assertEquals("tg:red", statistics.getMostFrequentTerms("tg:", 1).get(0).getTerm());
+		assertEquals(2, statistics.getMostPraisedTerms("tg:", 10).size());
+		assertEquals("tg:big", statistics.getMostFrequentTerms("tg:b", 10).get(0).getTerm());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRemovedPhotoIsForgotten() {
+		statistics.setPraise(1, 10, 1, null);
+		statistics.onTermAdded("tg:red", 1, 1);
+		statistics.onTermRemoved("tg:red", 1, 0);
+		statistics.onValueRemoved(1);
+		assertNull(statistics.getStatistics("tg:red"));
+
+		statistics.onTermAdded("tg:red", 1, 1);
+		assertEquals(0, statistics.getStatistics("tg:red").getPraiseSum());
+
+		statistics.onCleared();
+		assertTrue(statistics.getMostFrequentTerms("", 10).isEmpty());
+	}
+
+}
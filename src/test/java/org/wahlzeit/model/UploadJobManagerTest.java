@@ -0,0 +1,267 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link UploadJobManager}.
+ */
+public class UploadJobManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private List<String> processedPhotoIds;
+	private Map<String, Serializable> storedImages;
+
+	@Before
+	public void initProcessedPhotoIds() {
+		processedPhotoIds = new ArrayList<String>();
+	}
+
+	@Before
+	public void initImageStorage() {
+		storedImages = new HashMap<String, Serializable>();
+		ImageStorage.setInstance(new ImageStorage() {
+			@Override
+			protected void doWriteImage(Serializable image, String photoIdAsString, int size) {
+				storedImages.put(photoIdAsString + size, image);
+			}
+
+			@Override
+			protected Serializable doReadImage(String filename, int size) {
+				return storedImages.get(filename + size);
+			}
+
+			@Override
+			protected boolean doDoesImageExist(String photoIdAsString, int size) {
+				return storedImages.containsKey(photoIdAsString + size);
+			}
+
+			@Override
+			protected void doDeleteImage(String photoIdAsString, int size) {
+				storedImages.remove(photoIdAsString + size);
+			}
+		});
+	}
+
+	@After
+	public void resetImageStorage() {
+		ImageStorage.setInstance(null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFinishedJobIsNotProcessedAgain() {
+		final TestUploadJobManager manager = new RecordingUploadJobManager(false);
+
+		UploadJob job = ObjectifyService.run(new Work<UploadJob>() {
+			@Override
+			public UploadJob run() {
+				UploadJob job = newJob(manager);
+				manager.processJob(job.getId());
+				manager.processJob(job.getId());
+				return manager.getJob(job.getId());
+			}
+		});
+
+		assertEquals(UploadJob.State.DONE, job.getState());
+		assertEquals(1, processedPhotoIds.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRetriedJobReusesReservedPhotoId() {
+		final RecordingUploadJobManager crashingManager = new RecordingUploadJobManager(true);
+		final TestUploadJobManager manager = new RecordingUploadJobManager(false);
+
+		UploadJob job = ObjectifyService.run(new Work<UploadJob>() {
+			@Override
+			public UploadJob run() {
+				UploadJob job = newJob(crashingManager);
+				try {
+					crashingManager.processJob(job.getId());
+					fail("processing should have been aborted");
+				} catch (AbortedTaskError e) {
+					// the task is retried while the job is left in PROCESSING
+				}
+
+				assertEquals(UploadJob.State.PROCESSING, manager.getJob(job.getId()).getState());
+				manager.processJob(job.getId());
+				return manager.getJob(job.getId());
+			}
+		});
+
+		assertEquals(UploadJob.State.DONE, job.getState());
+		assertEquals(2, processedPhotoIds.size());
+		assertNotNull(processedPhotoIds.get(0));
+		assertEquals(processedPhotoIds.get(0), processedPhotoIds.get(1));
+		assertEquals(processedPhotoIds.get(0), job.getPhotoId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testJobWithoutOwnerFails() {
+		final TestUploadJobManager manager = new TestUploadJobManager();
+
+		UploadJob job = ObjectifyService.run(new Work<UploadJob>() {
+			@Override
+			public UploadJob run() {
+				UploadJob job = newJob(manager);
+				manager.processJob(job.getId());
+				return manager.getJob(job.getId());
+			}
+		});
+
+		assertEquals(UploadJob.State.FAILED, job.getState());
+		assertTrue(job.isFinished());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUploadIsDeletedWhenJobIsFinished() {
+		final TestUploadJobManager manager = new RecordingUploadJobManager(false);
+
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				UploadJob job = newJob(manager);
+				storeUpload(job);
+				manager.processJob(job.getId());
+				return null;
+			}
+		});
+
+		assertTrue(storedImages.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTransientFailureIsRetriedUntilLastAttempt() {
+		final TestUploadJobManager manager = new TestUploadJobManager() {
+			@Override
+			protected Photo doProcessJob(UploadJob job) throws Exception {
+				throw new IOException("storage not available");
+			}
+		};
+
+		UploadJob job = ObjectifyService.run(new Work<UploadJob>() {
+			@Override
+			public UploadJob run() {
+				UploadJob job = newJob(manager);
+				storeUpload(job);
+				try {
+					manager.processJob(job.getId(), false);
+					fail("processing should have been retried");
+				} catch (IllegalStateException e) {
+					// the task is retried while the job is left in PROCESSING
+				}
+
+				assertEquals(UploadJob.State.PROCESSING, manager.getJob(job.getId()).getState());
+				assertFalse(storedImages.isEmpty());
+				manager.processJob(job.getId(), true);
+				return manager.getJob(job.getId());
+			}
+		});
+
+		assertEquals(UploadJob.State.FAILED, job.getState());
+		assertTrue(storedImages.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	protected void storeUpload(UploadJob job) {
+		try {
+			ImageStorage.getInstance().writeImage(ImagesServiceFactory.makeImage(new byte[16]),
+					job.getUploadIdAsString(), UploadJobManager.UPLOAD_SIZE);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Saves a queued job of an owner that does not exist.
+	 */
+	protected UploadJob newJob(TestUploadJobManager manager) {
+		UploadJob job = new UploadJob("unknownOwner", "upload.jpg", "flower");
+		manager.saveJob(job);
+		return job;
+	}
+
+	/**
+	 * Processes jobs only when asked to instead of queueing tasks.
+	 */
+	protected static class TestUploadJobManager extends UploadJobManager {
+
+		@Override
+		protected void startJob(UploadJob job) {
+		}
+
+		protected void saveJob(UploadJob job) {
+			writeObject(job);
+		}
+	}
+
+	/**
+	 * Records the photo id of each attempt instead of creating the photo.
+	 */
+	protected class RecordingUploadJobManager extends TestUploadJobManager {
+
+		protected final boolean isAborting;
+
+		protected RecordingUploadJobManager(boolean isAborting) {
+			this.isAborting = isAborting;
+		}
+
+		@Override
+		protected Photo doProcessJob(UploadJob job) throws Exception {
+			processedPhotoIds.add(job.getPhotoId());
+			if (isAborting) {
+				throw new AbortedTaskError();
+			}
+			return new Photo(PhotoId.getIdFromString(job.getPhotoId()));
+		}
+	}
+
+	/**
+	 * Stands in for an instance that stops while processing a job.
+	 */
+	protected static class AbortedTaskError extends Error {
+	}
+
+}
@@ -20,7 +20,11 @@
 
 package org.wahlzeit.model;
 
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
 
 import static org.junit.Assert.assertTrue;
 
@@ -29,6 +33,11 @@ import static org.junit.Assert.assertTrue;
  */
 public class ValueTest {
 
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
 	/**
 	 *
 	 */
@@ -127,4 +136,19 @@ public class ValueTest {
 		assert (test == PhotoId.getIdFromString(testString));
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testOnlyIdsOfPhotosAreInterned() {
+		int testInt = 987654321;
+		PhotoId lookupId = PhotoId.getIdFromInt(testInt);
+		assertTrue(lookupId != PhotoId.getIdFromInt(testInt));
+		assertTrue(lookupId.isEqual(PhotoId.getIdFromInt(testInt)));
+
+		Photo photo = new Photo(lookupId);
+		assertTrue(photo.getId() == PhotoId.getIdFromInt(testInt));
+		assertTrue(photo.getId() == new PhotoId(testInt).intern());
+	}
+
 }
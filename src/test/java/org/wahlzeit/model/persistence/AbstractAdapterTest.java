@@ -9,6 +9,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.fail;
 
@@ -128,4 +129,16 @@ public abstract class AbstractAdapterTest {
 		exists = imageStorage.doesImageExist("wrong file name", 1);
 		assert !exists;
 	}
+
+	@Test
+	public void testAsyncReadAndWrite() throws Exception {
+		Future<Void> write = imageStorage.writeImageAsync(smallTestImage, "async", 1);
+		write.get();
+
+		Serializable image = imageStorage.readImageAsync("async", 1).get();
+		assert image instanceof Image;
+
+		image = imageStorage.readImageAsync("async", 2).get();
+		assert image == null;
+	}
 }
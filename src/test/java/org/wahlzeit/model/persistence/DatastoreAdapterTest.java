@@ -2,16 +2,24 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.RuleChain;
 import org.junit.rules.TestRule;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
 import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.Serializable;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -26,24 +34,75 @@ public class DatastoreAdapterTest extends AbstractAdapterTest {
 			outerRule(new LocalDatastoreServiceTestConfigProvider()).
 			around(new RegisteredOfyEnvironmentProvider());
 
-	private Image tooLargeTestImage;
+	private byte[] largeImageData;
 
 
 	@Override
 	protected void storageDependentSetUp() {
 		imageStorage = new DatastoreAdapter();
 
-		ByteBuffer bb = ByteBuffer.allocate(1024 * 1025);
-		tooLargeTestImage = ImagesServiceFactory.makeImage(bb.array());
+		// larger than a single entity, so it is stored in chunks
+		largeImageData = new byte[1024 * 1025 * 2];
+		largeImageData[largeImageData.length - 1] = 42;
 	}
 
 
-	@Test(expected = ArrayIndexOutOfBoundsException.class)
-	public void testUpperSizeLimit() {
+	@Test
+	public void testLargeImageIsChunked() {
+		Serializable image = null;
 		try {
-			imageStorage.writeImage(tooLargeTestImage, "blub", 1);
+			imageStorage.writeImage(ImagesServiceFactory.makeImage(largeImageData), "blub", 1);
+			image = imageStorage.readImage("blub", 1);
 		} catch (IOException e) {
 			fail("IOException should not be thrown!");
 		}
+
+		assertTrue(image instanceof Image);
+		assertArrayEquals(largeImageData, ((Image) image).getImageData());
+	}
+
+	@Test
+	public void testImageExistenceIsQueriedByKey() throws IOException {
+		imageStorage.writeImage(smallTestImage, "queried", 1);
+
+		// a new adapter does not know about the images written by another one
+		DatastoreAdapter otherAdapter = new DatastoreAdapter();
+		assertTrue(otherAdapter.doDoesImageExist("queried", 1));
+		assertFalse(otherAdapter.doDoesImageExist("queried", 2));
+		assertFalse(otherAdapter.doDoesImageExist("notQueried", 1));
+	}
+
+	@Test
+	public void testRewrittenImageLeavesNoObsoleteChunks() throws IOException {
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(largeImageData), "rewritten", 1);
+		assertEquals(3, countChunks("rewritten1"));
+
+		byte[] smallerImageData = new byte[DatastoreAdapter.ImageWrapper.CHUNK_SIZE + 1];
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(smallerImageData), "rewritten", 1);
+		assertEquals(2, countChunks("rewritten1"));
+
+		imageStorage.writeImage(smallTestImage, "rewritten", 1);
+		assertEquals(0, countChunks("rewritten1"));
+		assertArrayEquals(smallTestImage.getImageData(),
+				((Image) imageStorage.readImage("rewritten", 1)).getImageData());
+	}
+
+	/**
+	 * Counts the chunks stored for the image of the given ImageWrapper id.
+	 */
+	protected int countChunks(final String imageWrapperId) {
+		return ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				int result = 0;
+				for (Key<DatastoreAdapter.ImageChunk> key :
+						OfyService.ofy().load().type(DatastoreAdapter.ImageChunk.class).keys()) {
+					if (key.getName().startsWith(imageWrapperId + "#")) {
+						result++;
+					}
+				}
+				return result;
+			}
+		});
 	}
 }
@@ -0,0 +1,112 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link FileSystemImageStorage}.
+ */
+public class FileSystemImageStorageTest extends AbstractAdapterTest {
+
+	private Path rootDir;
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			rootDir = Files.createTempDirectory("wahlzeit-images");
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+		imageStorage = new FileSystemImageStorage(rootDir);
+	}
+
+	@Override
+	protected void storageDependentTearDown() {
+		deleteRecursively(rootDir.toFile());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOverwriteAndMappedRead() throws IOException {
+		byte[] largeImageData = new byte[FileSystemImageStorage.MIN_MAPPED_SIZE * 2];
+		largeImageData[largeImageData.length - 1] = 42;
+
+		imageStorage.writeImage(smallTestImage, "blub", 1);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(largeImageData), "blub", 1);
+
+		Image image = (Image) imageStorage.readImage("blub", 1);
+		assertArrayEquals(largeImageData, image.getImageData());
+
+		// only the image itself is left in its shard, no temporary file
+		Path file = ((FileSystemImageStorage) imageStorage).getFile("blub", 1);
+		assertTrue(Files.isRegularFile(file));
+		assertEquals(1, file.getParent().toFile().list().length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOpenImageChannel() throws IOException {
+		assertNull(imageStorage.openImageChannel("blub", 1));
+
+		imageStorage.writeImage(smallTestImage, "blub", 1);
+		FileChannel channel = imageStorage.openImageChannel("blub", 1);
+		try {
+			assertEquals(smallTestImage.getImageData().length, channel.size());
+		} finally {
+			channel.close();
+		}
+
+		try {
+			imageStorage.openImageChannel("../../../..", 1);
+			fail("IllegalArgumentException should be thrown!");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIdsOutsideOfRootDirAreRejected() throws IOException {
+		for (String photoId : new String[] {"../../../..", "..", "x1/../x2", "x1\\..\\x2"}) {
+			try {
+				imageStorage.readImage(photoId, 1);
+				fail("IllegalArgumentException should be thrown for " + photoId);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -1,7 +1,14 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
 
 /**
  * Test cases for the Google Cloud Storage adapter.
@@ -21,4 +28,18 @@ public class GcsAdapterTest extends AbstractAdapterTest {
 	protected void storageDependentTearDown() {
 		helper.tearDown();
 	}
+
+	@Test
+	public void testImageReplacedByLargerOneIsReadCompletely() throws IOException {
+		imageStorage.writeImage(smallTestImage, "replaced", 1);
+		imageStorage.readImage("replaced", 1); // caches the metadata of the small image
+
+		// another instance replaces the image, so the cached metadata is not updated
+		byte[] largerImageData = new byte[smallTestImage.getImageData().length * 3];
+		largerImageData[largerImageData.length - 1] = 42;
+		new GcsAdapter.Builder().build().writeImage(ImagesServiceFactory.makeImage(largerImageData), "replaced", 1);
+
+		Image image = (Image) imageStorage.readImage("replaced", 1);
+		assertArrayEquals(largerImageData, image.getImageData());
+	}
 }
@@ -0,0 +1,95 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ImageCache}.
+ */
+public class ImageCacheTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSegmentsFitLargestExpectedImage() {
+		ImageCache imageCache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES, false);
+		assertEquals(ImageCache.MAX_IMAGE_BYTES, imageCache.getMaxImageBytes());
+
+		ImageCache smallCache = new ImageCache(1024, false);
+		assertEquals(1024, smallCache.getMaxImageBytes());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargeImageIsCached() {
+		ImageCache imageCache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES, false);
+		imageCache.putImage("blub", 1, ImagesServiceFactory.makeImage(new byte[3 * 1024 * 1024]));
+
+		assertTrue(imageCache.hasImage("blub", 1));
+		assertEquals(0, imageCache.getNoRejectedImages());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTooLargeImageIsCountedAndNotCached() {
+		ImageCache imageCache = new ImageCache(1024, false);
+		imageCache.putImage("blub", 1, ImagesServiceFactory.makeImage(new byte[16]));
+		imageCache.putImage("blub", 1, ImagesServiceFactory.makeImage(new byte[2048]));
+
+		assertFalse(imageCache.hasImage("blub", 1));
+		assertEquals(1, imageCache.getNoRejectedImages());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTooLargeImageIsStillLoaded() {
+		ImageCache imageCache = new ImageCache(1024, false) {
+			@Override
+			protected ByteBuffer doLoadImage(Key key) {
+				isCacheable(key, 2048);
+				return ByteBuffer.wrap(new byte[2048]);
+			}
+		};
+
+		assertNotNull(imageCache.getImage("blub", 1));
+		assertFalse(imageCache.hasImage("blub", 1));
+		assertEquals(1, imageCache.getNoRejectedImages());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupBeforeLoadingCountsOneMiss() {
+		ImageCache imageCache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES, false) {
+			@Override
+			protected ByteBuffer doLoadImage(Key key) {
+				return ByteBuffer.wrap(new byte[16]);
+			}
+		};
+
+		assertNull(imageCache.getImageBuffer("blub", 1, false));
+		assertNotNull(imageCache.getImageBuffer("blub", 1, true));
+		assertEquals(1, imageCache.getStats().getMissCount());
+		assertEquals(0, imageCache.getStats().getHitCount());
+
+		assertNotNull(imageCache.getImageBuffer("blub", 1, false));
+		assertEquals(1, imageCache.getStats().getHitCount());
+	}
+
+}
@@ -0,0 +1,195 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link ImageStorage}.
+ */
+public class ImageStorageTest {
+
+	private CountingImageStorage imageStorage;
+
+	@Before
+	public void initImageStorage() {
+		imageStorage = new CountingImageStorage();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWrittenSizesAreKnownWithoutLookup() throws IOException {
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[16]), "blub", 1);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[16]), "blub", 3);
+
+		assertTrue(imageStorage.doesImageExist("blub", 1));
+		assertTrue(imageStorage.doesImageExist("blub", 3));
+		assertEquals(0, imageStorage.noLookups);
+
+		assertFalse(imageStorage.doesImageExist("blub", 2));
+		assertEquals(1, imageStorage.noLookups);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDeletedImageIsNoLongerKnown() throws IOException {
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[16]), "blub", 1);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[16]), "blub", 3);
+		imageStorage.deleteImage("blub", 1);
+
+		assertFalse(imageStorage.doesImageExist("blub", 1));
+		assertEquals(1, imageStorage.noLookups);
+		assertTrue(imageStorage.doesImageExist("blub", 3));
+		assertEquals(1, imageStorage.noLookups);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExistingImageIsLookedUpOnce() {
+		imageStorage.images.put("blub4", new byte[16]);
+
+		assertTrue(imageStorage.doesImageExist("blub", 4));
+		assertTrue(imageStorage.doesImageExist("blub", 4));
+		assertEquals(1, imageStorage.noLookups);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMissingImageIsNotRemembered() {
+		assertFalse(imageStorage.doesImageExist("blub", 1));
+		imageStorage.images.put("blub1", new byte[16]);
+
+		assertTrue(imageStorage.doesImageExist("blub", 1));
+		assertEquals(2, imageStorage.noLookups);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKnownPhotoIdsAreBounded() {
+		for (int i = 0; i < ImageStorage.MAX_KNOWN_PHOTO_IDS + 10; i++) {
+			imageStorage.setIsStored("blub" + i, 1);
+		}
+
+		assertTrue(imageStorage.storedSizes.size() <= ImageStorage.MAX_KNOWN_PHOTO_IDS);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAsyncWriteAndRead() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		ImageStorage.setIoExecutor(executor);
+		try {
+			imageStorage.writeImageAsync(ImagesServiceFactory.makeImage(new byte[16]), "blub", 1).get();
+
+			assertTrue(imageStorage.doesImageExist("blub", 1));
+			assertNotNull(imageStorage.readImageAsync("blub", 1).get());
+			assertNull(imageStorage.readImageAsync("blub", 2).get());
+		} finally {
+			ImageStorage.setIoExecutor(null);
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedAsyncWriteIsReportedByFuture() throws Exception {
+		ImageStorage failingStorage = new CountingImageStorage() {
+			@Override
+			protected void doWriteImage(Serializable image, String photoIdAsString, int size) throws IOException {
+				throw new IOException("storage not available");
+			}
+		};
+
+		try {
+			failingStorage.writeImageAsync(ImagesServiceFactory.makeImage(new byte[16]), "blub", 1).get();
+			fail("write should have failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertFalse(failingStorage.isKnownToBeStored("blub", 1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRejectedTaskRunsInCallingThread() {
+		ImageStorage.setIoExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("queue is full");
+			}
+		});
+		try {
+			Future<Void> write = imageStorage.writeImageAsync(ImagesServiceFactory.makeImage(new byte[16]), "blub", 1);
+
+			assertTrue(write.isDone());
+			assertTrue(imageStorage.images.containsKey("blub1"));
+		} finally {
+			ImageStorage.setIoExecutor(null);
+		}
+	}
+
+	/**
+	 * Keeps images in memory and counts the lookups of the storage.
+	 */
+	protected static class CountingImageStorage extends ImageStorage {
+
+		protected final Map<String, Serializable> images = new HashMap<String, Serializable>();
+		protected int noLookups = 0;
+
+		@Override
+		protected void doWriteImage(Serializable image, String photoIdAsString, int size) throws IOException {
+			images.put(photoIdAsString + size, image);
+		}
+
+		@Override
+		protected Serializable doReadImage(String filename, int size) {
+			return images.get(filename + size);
+		}
+
+		@Override
+		protected boolean doDoesImageExist(String photoIdAsString, int size) {
+			noLookups++;
+			return images.containsKey(photoIdAsString + size);
+		}
+
+		@Override
+		protected void doDeleteImage(String photoIdAsString, int size) {
+			images.remove(photoIdAsString + size);
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.wahlzeit.model.persistence;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link TieredImageStorage}.
+ */
+public class TieredImageStorageTest extends AbstractAdapterTest {
+
+	private Path rootDir;
+	private FileSystemImageStorage fastTier;
+	private FileSystemImageStorage slowTier;
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			rootDir = Files.createTempDirectory("wahlzeit-tiers");
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+		fastTier = new FileSystemImageStorage(rootDir.resolve("fast"));
+		slowTier = new FileSystemImageStorage(rootDir.resolve("slow"));
+
+		// replicates in the writing thread, so the tests need not wait for it
+		Executor sameThreadExecutor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+		imageStorage = new TieredImageStorage(Arrays.<ImageStorage>asList(fastTier, slowTier), sameThreadExecutor);
+	}
+
+	@Override
+	protected void storageDependentTearDown() {
+		deleteRecursively(rootDir.toFile());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWritesReplicateAndReadsPromote() throws IOException {
+		imageStorage.writeImage(smallTestImage, "blub", 1);
+		assertTrue(fastTier.doesImageExist("blub", 1));
+		assertTrue(slowTier.doesImageExist("blub", 1));
+
+		slowTier.writeImage(smallTestImage, "bla", 1);
+		assertFalse(fastTier.doesImageExist("bla", 1));
+		assertNotNull(imageStorage.readImage("bla", 1));
+		assertTrue(fastTier.doesImageExist("bla", 1));
+
+		TieredImageStorage.TierStats fastStats = ((TieredImageStorage) imageStorage).getTierStats().get(0);
+		TieredImageStorage.TierStats slowStats = ((TieredImageStorage) imageStorage).getTierStats().get(1);
+		assertEquals(0, fastStats.getHitCount());
+		assertEquals(1, fastStats.getMissCount());
+		assertEquals(1, slowStats.getHitCount());
+		assertEquals(2, fastStats.getWriteCount());
+
+		assertNotNull(imageStorage.readImage("bla", 1));
+		assertEquals(1, fastStats.getHitCount());
+		assertEquals(1, slowStats.getHitCount());
+	}
+
+	/**
+	 *
+	 */
+	private void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.wahlzeit.model.scaling;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for {@link Java2dImageScaler}.
+ */
+public class Java2dImageScalerTest {
+
+	private Java2dImageScaler scaler;
+	private BufferedImage source;
+
+	@Before
+	public void initScaler() {
+		scaler = new Java2dImageScaler();
+
+		// left half black, right half white
+		source = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = source.createGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(500, 0, 500, 800);
+		graphics.dispose();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScaleInSteps() {
+		BufferedImage scaled = scaler.scale(source, 105, 84);
+		assertEquals(105, scaled.getWidth());
+		assertEquals(84, scaled.getHeight());
+
+		// all bands are drawn, and the content is kept
+		assertEquals(Color.BLACK.getRGB(), scaled.getRGB(10, 10));
+		assertEquals(Color.BLACK.getRGB(), scaled.getRGB(10, 80));
+		assertEquals(Color.WHITE.getRGB(), scaled.getRGB(95, 10));
+		assertEquals(Color.WHITE.getRGB(), scaled.getRGB(95, 80));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScaleTallImageInParallelBands() {
+		BufferedImage tall = new BufferedImage(100, 16 * Java2dImageScaler.MIN_BAND_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = tall.createGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, tall.getWidth(), tall.getHeight());
+		graphics.dispose();
+
+		BufferedImage scaled = scaler.scale(tall, 50, tall.getHeight() / 2);
+		for (int y = 0; y < scaled.getHeight(); y += 7) {
+			assertEquals(Color.WHITE.getRGB(), scaled.getRGB(25, y));
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.wahlzeit.services.caching;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test class for {@link BufferPool}.
+ */
+public class BufferPoolTest {
+
+	private BufferPool bufferPool;
+
+	@Before
+	public void initPool() {
+		bufferPool = new BufferPool(false, 2);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAcquireRoundsUpToSizeClass() {
+		assertEquals(BufferPool.MIN_BUFFER_SIZE, bufferPool.acquire(1).capacity());
+		assertEquals(BufferPool.MIN_BUFFER_SIZE, bufferPool.acquire(BufferPool.MIN_BUFFER_SIZE).capacity());
+		assertEquals(2 * BufferPool.MIN_BUFFER_SIZE, bufferPool.acquire(BufferPool.MIN_BUFFER_SIZE + 1).capacity());
+		assertEquals(BufferPool.MAX_BUFFER_SIZE, bufferPool.acquire(BufferPool.MAX_BUFFER_SIZE).capacity());
+		assertEquals(BufferPool.MAX_BUFFER_SIZE + 1, bufferPool.acquire(BufferPool.MAX_BUFFER_SIZE + 1).capacity());
+		assertFalse(bufferPool.acquire(1).isDirect());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReleasedBuffersAreReused() {
+		ByteBuffer buffer = bufferPool.acquire(10000);
+		buffer.put((byte) 1);
+		bufferPool.release(buffer);
+		assertEquals(1, bufferPool.getNoIdleBuffers());
+
+		ByteBuffer reused = bufferPool.acquire(9000);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(0, bufferPool.getNoIdleBuffers());
+
+		// only buffers of the pool's size classes are kept, and no more than the maximum per class
+		bufferPool.release(ByteBuffer.allocate(5000));
+		bufferPool.release(ByteBuffer.allocateDirect(BufferPool.MIN_BUFFER_SIZE));
+		bufferPool.release(ByteBuffer.allocate(2 * BufferPool.MAX_BUFFER_SIZE));
+		assertEquals(0, bufferPool.getNoIdleBuffers());
+
+		bufferPool.release(reused);
+		bufferPool.release(ByteBuffer.allocate(reused.capacity()));
+		bufferPool.release(ByteBuffer.allocate(reused.capacity()));
+		assertEquals(2, bufferPool.getNoIdleBuffers());
+	}
+
+}
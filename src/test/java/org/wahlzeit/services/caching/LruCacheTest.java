@@ -0,0 +1,186 @@
+package org.wahlzeit.services.caching;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link LruCache}.
+ */
+public class LruCacheTest {
+
+	private LruCache<Integer, String> cache;
+	private List<Integer> evictedKeys;
+
+	@Before
+	public void initCache() {
+		// one segment, so that the LRU order is global
+		cache = new LruCache<Integer, String>(3, 1);
+		evictedKeys = new ArrayList<Integer>();
+		cache.setEvictionListener(new EvictionListener<Integer, String>() {
+			@Override
+			public void onEviction(Integer key, String value) {
+				evictedKeys.add(key);
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutAndGet() {
+		cache.put(1, "one");
+		assertEquals("one", cache.get(1));
+		assertNull(cache.get(2));
+
+		assertEquals(1, cache.getStats().getHitCount());
+		assertEquals(1, cache.getStats().getMissCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		cache.put(1, "one");
+		cache.put(2, "two");
+		cache.put(3, "three");
+		cache.get(1);
+		cache.put(4, "four");
+
+		assertEquals(3, cache.size());
+		assertFalse(cache.containsKey(2));
+		assertTrue(cache.containsKey(1));
+		assertEquals(1, evictedKeys.size());
+		assertEquals(Integer.valueOf(2), evictedKeys.get(0));
+		assertEquals(1, cache.getStats().getEvictionCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutIfAbsentKeepsFirstValue() {
+		String first = "first";
+		assertNull(cache.putIfAbsent(1, first));
+		assertSame(first, cache.putIfAbsent(1, "second"));
+		assertSame(first, cache.get(1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadThrough() {
+		CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+			@Override
+			public String load(Integer key) {
+				return (key < 10) ? "value" + key : null;
+			}
+		};
+
+		assertEquals("value5", cache.get(5, loader));
+		assertTrue(cache.containsKey(5));
+		assertNull(cache.get(11, loader));
+		assertFalse(cache.containsKey(11));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPeekRecordsNoStats() {
+		cache.put(1, "one");
+
+		assertEquals("one", cache.peek(1));
+		assertNull(cache.peek(2));
+		assertEquals(0, cache.getStats().getHitCount());
+		assertEquals(0, cache.getStats().getMissCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCapacityIsSpreadOverSegments() {
+		LruCache<Integer, String> stripedCache = new LruCache<Integer, String>(64, 4);
+		for (int i = 0; i < 1000; i++) {
+			stripedCache.put(i, "value" + i);
+		}
+
+		assertEquals(64, stripedCache.size());
+		assertEquals(64, stripedCache.keySet().size());
+		assertEquals(64, stripedCache.values().size());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsNullValues() {
+		cache.put(1, null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictsByWeight() {
+		LruCache<Integer, String> weighedCache = new LruCache<Integer, String>(10, 1, new Weigher<String>() {
+			@Override
+			public int weigh(String value) {
+				return value.length();
+			}
+		});
+
+		weighedCache.put(1, "one");
+		weighedCache.put(2, "three");
+		assertEquals(8, weighedCache.getWeight());
+
+		weighedCache.put(3, "four");
+		assertFalse(weighedCache.containsKey(1));
+		assertEquals(9, weighedCache.getWeight());
+
+		weighedCache.put(4, "much too heavy");
+		assertEquals(0, weighedCache.size());
+		assertEquals(0, weighedCache.getWeight());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSkipsEntriesTheFilterRejects() {
+		cache.setEvictionFilter(new EvictionFilter<String>() {
+			@Override
+			public boolean isEvictable(String value) {
+				return !value.startsWith("pinned");
+			}
+		});
+
+		cache.put(1, "pinned one");
+		cache.put(2, "two");
+		cache.put(3, "three");
+		cache.put(4, "four");
+		assertTrue(cache.containsKey(1));
+		assertFalse(cache.containsKey(2));
+		assertEquals(Integer.valueOf(2), evictedKeys.get(0));
+
+		cache.put(5, "pinned five");
+		cache.put(6, "pinned six");
+		cache.put(7, "pinned seven");
+		assertEquals(4, cache.size());
+		assertTrue(cache.containsKey(1));
+		assertTrue(cache.containsKey(7));
+	}
+
+}
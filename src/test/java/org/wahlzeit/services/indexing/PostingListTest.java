@@ -0,0 +1,81 @@
+package org.wahlzeit.services.indexing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PostingList}.
+ */
+public class PostingListTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddAndRemove() {
+		PostingList postingList = new PostingList();
+		assertTrue(postingList.add(70000));
+		assertTrue(postingList.add(3));
+		assertFalse(postingList.add(3));
+
+		assertEquals(2, postingList.size());
+		assertTrue(postingList.contains(3));
+		assertTrue(postingList.contains(70000));
+		assertFalse(postingList.contains(4));
+		assertArrayEquals(new int[] {3, 70000}, postingList.asArray());
+
+		assertTrue(postingList.remove(70000));
+		assertFalse(postingList.remove(70000));
+		assertEquals(1, postingList.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDenseGroupsSwitchRepresentation() {
+		PostingList postingList = new PostingList();
+		for (int i = 0; i < 2 * PostingList.MAX_ARRAY_SIZE; i++) {
+			postingList.add(2 * i);
+		}
+		assertTrue(postingList.containers[0] instanceof PostingList.BitmapContainer);
+		assertEquals(2 * PostingList.MAX_ARRAY_SIZE, postingList.size());
+
+		for (int i = 0; i < PostingList.MAX_ARRAY_SIZE; i++) {
+			postingList.remove(2 * i);
+		}
+		assertTrue(postingList.containers[0] instanceof PostingList.ArrayContainer);
+		assertEquals(PostingList.MAX_ARRAY_SIZE, postingList.size());
+		assertTrue(postingList.contains(2 * PostingList.MAX_ARRAY_SIZE));
+		assertFalse(postingList.contains(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAndOr() {
+		PostingList evens = new PostingList();
+		PostingList threes = new PostingList();
+		for (int i = 0; i < 20000; i++) {
+			evens.add(2 * i);
+			threes.add(3 * i);
+		}
+
+		PostingList both = PostingList.and(evens, threes);
+		assertEquals(6666 + 1, both.size());
+		assertTrue(both.contains(6));
+		assertFalse(both.contains(4));
+
+		PostingList either = PostingList.or(evens, threes);
+		assertEquals(20000 + 20000 - both.size(), either.size());
+		assertTrue(either.contains(4));
+		assertTrue(either.contains(57000));
+		assertFalse(either.contains(5));
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.wahlzeit.services.indexing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PrefixTrie}.
+ */
+public class PrefixTrieTest {
+
+	private PrefixTrie trie;
+
+	@Before
+	public void initTrie() {
+		trie = new PrefixTrie();
+		trie.setCount("tg:flower", 3);
+		trie.setCount("tg:flow", 7);
+		trie.setCount("tg:flu", 3);
+		trie.setCount("tg:fog", 9);
+		trie.setCount("un:flo", 1);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetCompletionsByCount() {
+		Map<String, Integer> completions = trie.getCompletions("tg:fl", 10);
+		assertEquals(Arrays.asList("tg:flow", "tg:flower", "tg:flu"), new ArrayList<String>(completions.keySet()));
+		assertEquals(Integer.valueOf(7), completions.get("tg:flow"));
+
+		assertEquals(Arrays.asList("tg:fog", "tg:flow"), new ArrayList<String>(trie.getCompletions("tg:f", 2).keySet()));
+		assertTrue(trie.getCompletions("tg:x", 10).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSetCount() {
+		assertEquals(5, trie.size());
+		trie.setCount("tg:fog", 0);
+		trie.setCount("tg:flower", 10);
+
+		assertEquals(4, trie.size());
+		assertEquals(0, trie.getCount("tg:fog"));
+		assertEquals(10, trie.getCount("tg:flower"));
+		assertEquals("tg:flower", trie.getCompletions("tg:", 1).keySet().iterator().next());
+		assertTrue(trie.getCompletions("tg:fo", 10).isEmpty());
+	}
+
+}
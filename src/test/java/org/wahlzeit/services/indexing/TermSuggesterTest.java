@@ -0,0 +1,52 @@
+package org.wahlzeit.services.indexing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link TermSuggester}.
+ */
+public class TermSuggesterTest {
+
+	private TermSuggester suggester;
+
+	@Before
+	public void initSuggester() {
+		suggester = new TermSuggester();
+		suggester.onTermAdded("tg:flower", 1, 1);
+		suggester.onTermAdded("tg:flower", 2, 2);
+		suggester.onTermAdded("tg:flow", 1, 1);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuggestionsFollowIndex() {
+		assertEquals(Arrays.asList("tg:flower", "tg:flow"),
+				new ArrayList<String>(suggester.getSuggestions("tg:flo", 10).keySet()));
+		assertEquals(2, suggester.getCount("tg:flower"));
+
+		suggester.onTermRemoved("tg:flower", 1, 1);
+		suggester.onTermRemoved("tg:flow", 1, 0);
+		assertEquals(1, suggester.getCount("tg:flower"));
+		assertEquals(0, suggester.getCount("tg:flow"));
+		assertEquals(1, suggester.getSuggestions("tg:flo", 10).size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testClearedIndexHasNoSuggestions() {
+		suggester.onCleared();
+		assertTrue(suggester.getSuggestions("tg:", 10).isEmpty());
+	}
+
+}
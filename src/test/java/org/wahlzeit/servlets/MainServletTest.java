@@ -0,0 +1,48 @@
+package org.wahlzeit.servlets;
+
+import com.google.appengine.api.images.Image;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link MainServlet}.
+ */
+public class MainServletTest {
+
+	private final MainServlet servlet = new MainServlet();
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImageIsReadWithAnyExpectedLength() throws IOException {
+		byte[] bytes = new byte[200 * 1024];
+		Arrays.fill(bytes, (byte) 42);
+
+		for (int expectedLength : new int[] {-1, 1000, bytes.length, bytes.length + 500}) {
+			Image image = servlet.getImage(new ByteArrayInputStream(bytes), expectedLength, bytes.length);
+			assertArrayEquals(bytes, image.getImageData());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTooLargeImageIsRejected() {
+		byte[] bytes = new byte[200 * 1024 + 1];
+		try {
+			servlet.getImage(new ByteArrayInputStream(bytes), -1, bytes.length - 1);
+			fail("IOException should be thrown!");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.wahlzeit.servlets;
+
+import org.junit.Test;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoSize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link StaticDataServlet}.
+ */
+public class StaticDataServletTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMatchesETag() {
+		String eTag = StaticDataServlet.getETag("x1a", 2);
+		assertEquals("\"x1a-2\"", eTag);
+
+		assertTrue(StaticDataServlet.matchesETag(eTag, eTag));
+		assertTrue(StaticDataServlet.matchesETag("\"other\", W/" + eTag, eTag));
+		assertTrue(StaticDataServlet.matchesETag("*", eTag));
+
+		assertFalse(StaticDataServlet.matchesETag(null, eTag));
+		assertFalse(StaticDataServlet.matchesETag(StaticDataServlet.getETag("x1a", 3), eTag));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetRange() {
+		assertArrayEquals(new long[] {0, 99}, StaticDataServlet.getRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] {900, 999}, StaticDataServlet.getRange("bytes=900-", 1000));
+		assertArrayEquals(new long[] {900, 999}, StaticDataServlet.getRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] {500, 999}, StaticDataServlet.getRange("bytes=500-5000", 1000));
+
+		assertSame(StaticDataServlet.NO_SATISFIABLE_RANGE, StaticDataServlet.getRange("bytes=1000-", 1000));
+
+		assertNull(StaticDataServlet.getRange(null, 1000));
+		assertNull(StaticDataServlet.getRange("bytes=0-9,20-29", 1000));
+		assertNull(StaticDataServlet.getRange("bytes=99-0", 1000));
+		assertNull(StaticDataServlet.getRange("items=0-9", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsValidImageRequest() {
+		String photoId = PhotoId.getIdFromInt(42).asString();
+		assertTrue(StaticDataServlet.isValidImageRequest(photoId, 2));
+
+		assertFalse(StaticDataServlet.isValidImageRequest(photoId, 6));
+		assertFalse(StaticDataServlet.isValidImageRequest(null, 2));
+		assertFalse(StaticDataServlet.isValidImageRequest("../../../..", 2));
+		assertFalse(StaticDataServlet.isValidImageRequest(photoId + "/..", 2));
+		assertFalse(StaticDataServlet.isValidImageRequest("upload42", 0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOnlyExistingImagesExist() {
+		StaticDataServlet servlet = new StaticDataServlet();
+		Photo photo = new Photo(PhotoId.getIdFromInt(42));
+
+		assertTrue(servlet.isExistingImage(photo, PhotoSize.THUMB.asInt()));
+		assertTrue(servlet.isExistingImage(photo, photo.getMaxPhotoSize().asInt()));
+		assertFalse(servlet.isExistingImage(photo, photo.getMaxPhotoSize().asInt() + 1));
+		assertFalse(servlet.isExistingImage(null, PhotoSize.THUMB.asInt()));
+	}
+
+}